@@ -5,7 +5,6 @@ import be.kuleuven.pylos.game.*;
 import be.kuleuven.pylos.player.PylosPlayer;
 import be.kuleuven.pylos.player.PylosPlayerType;
 
-import java.util.ArrayList;
 import java.util.Random;
 
 public class Battle {
@@ -15,6 +14,34 @@ public class Battle {
     }
 
     public static BattleResult play(PylosPlayerType ppt1, PylosPlayerType ppt2, int runs, boolean print) {
+        return play(ppt1, ppt2, runs, print, null);
+    }
+
+    /**
+     * @param ppt1
+     * @param ppt2
+     * @param runs
+     * @param print
+     * @param sink  receives the games as they finish, the result has no playedGames then. Null to keep them in the
+     *              result.
+     * @return
+     */
+    public static BattleResult play(PylosPlayerType ppt1, PylosPlayerType ppt2, int runs, boolean print, BattleSink sink) {
+        return play(ppt1, ppt2, runs, print, sink, null);
+    }
+
+    /**
+     * as play(ppt1, ppt2, runs, print, sink), every game with 'timeControl' (see PylosGame.setTimeControl(..))
+     *
+     * @param ppt1
+     * @param ppt2
+     * @param runs
+     * @param print
+     * @param sink
+     * @param timeControl null for no time control
+     * @return
+     */
+    public static BattleResult play(PylosPlayerType ppt1, PylosPlayerType ppt2, int runs, boolean print, BattleSink sink, PylosTimeControl timeControl) {
         if (runs % 2 != 0) {
             throw new IllegalArgumentException("Please specify an even number of runs");
         }
@@ -25,94 +52,20 @@ public class Battle {
         PylosPlayer p1 = ppt1.create();
         PylosPlayer p2 = ppt2.create();
 
-        ArrayList<PlayedGame> playedGames = new ArrayList<>();
-
-        long totalPlayTime = 0;
-
-        int p1StartP1Win = 0;
-        int p1StartP2Win = 0;
-        int p1StartDraw = 0;
+        BattleAggregator aggregator = new BattleAggregator(ppt1, ppt2, sink);
 
         if (print) System.out.println("Starting battle: " + p1Name + " vs " + p2Name);
 
-        for (int i = 0; i < runs / 2; i++) {
+        for (int i = 0; i < runs; i++) {
             if (print) System.out.print("*");
-            PylosBoard board = new PylosBoard();
-            PylosGame game = new PylosGame(board, p1, p2, random);
-            long startTime = System.currentTimeMillis();
-            try{
-                game.play();
-                if (game.getState() == PylosGameState.DRAW) {
-                    playedGames.add(new PlayedGame(game.getBoardHistory(), ppt1, ppt2, null, 0, 0));
-                    p1StartDraw++;
-                } else {
-                    if (game.getWinner() == p1) {
-                        int sqComp = game.getSquaresCompleted(PylosPlayerColor.LIGHT) - game.getSquaresCompleted(PylosPlayerColor.DARK);
-                        playedGames.add(new PlayedGame(game.getBoardHistory(), ppt1, ppt2, PylosPlayerColor.LIGHT, game.getReserveSizeOfWinner(), sqComp));
-                        p1StartP1Win++;
-                    } else {
-                        int sqComp = game.getSquaresCompleted(PylosPlayerColor.DARK) - game.getSquaresCompleted(PylosPlayerColor.LIGHT);
-                        playedGames.add(new PlayedGame(game.getBoardHistory(), ppt1, ppt2, PylosPlayerColor.DARK, game.getReserveSizeOfWinner(), sqComp));
-                        p1StartP2Win++;
-                    }
-                }
-            }
-            catch(PylosGameCrashedException ge){
-                System.err.println("Game crashed during turn of " + ge.getCurrentPlayer().getClass().getName() + ", giving forfeit");
-                ge.getException().printStackTrace();
-                if (ge.getCurrentPlayer() == p1){
-                    p1StartP2Win++;
-                }
-                else{
-                    p1StartP1Win++;
-                }
-            }
-            long playTime = System.currentTimeMillis() - startTime;
-            totalPlayTime += playTime;
-        }
-
-        int p2StartP1Win = 0;
-        int p2StartP2Win = 0;
-        int p2StartDraw = 0;
-
-        for (int i = 0; i < runs / 2; i++) {
-            if (print) System.out.print("*");
-            PylosBoard board = new PylosBoard();
-            PylosGame game = new PylosGame(board, p2, p1, random);
-            long startTime = System.currentTimeMillis();
-            try {
-                game.play();
-                if (game.getState() == PylosGameState.DRAW) {
-                    playedGames.add(new PlayedGame(game.getBoardHistory(), ppt2, ppt1, null, 0, 0));
-                    p2StartDraw++;
-                } else {
-                    if (game.getWinner() == p1) {
-                        int sqComp = game.getSquaresCompleted(PylosPlayerColor.LIGHT) - game.getSquaresCompleted(PylosPlayerColor.DARK);
-                        playedGames.add(new PlayedGame(game.getBoardHistory(), ppt2, ppt1, PylosPlayerColor.DARK, game.getReserveSizeOfWinner(), sqComp));
-                        p2StartP1Win++;
-                    } else {
-                        int sqComp = game.getSquaresCompleted(PylosPlayerColor.DARK) - game.getSquaresCompleted(PylosPlayerColor.LIGHT);
-                        playedGames.add(new PlayedGame(game.getBoardHistory(), ppt2, ppt1, PylosPlayerColor.LIGHT, game.getReserveSizeOfWinner(), sqComp));
-                        p2StartP2Win++;
-                    }
-                }
-            }
-            catch (PylosGameCrashedException ge){
-                System.err.println("Game crashed during turn of " + ge.getCurrentPlayer().getClass().getName() + ", giving forfeit");
-                ge.getException().printStackTrace();
-                if (ge.getCurrentPlayer() == p2) {
-                    p2StartP1Win++;
-                } else {
-                    p2StartP2Win++;
-                }
-            }
-            long playTime = System.currentTimeMillis() - startTime;
-            totalPlayTime += playTime;
+            boolean p1Starts = i < runs / 2;
+            aggregator.add(playGame(ppt1, ppt2, p1, newGame(p1, p2, p1Starts, random, timeControl), p1Starts));
         }
 
         if (print) System.out.println();
 
-        BattleResult battleResult = new BattleResult(ppt1, ppt2, totalPlayTime, p1StartP1Win, p1StartDraw, p1StartP2Win, p2StartP1Win, p2StartDraw, p2StartP2Win, playedGames);
+        /* the players are used for all games of this battle, their statistics cover all of them */
+        BattleResult battleResult = aggregator.toResult(p1.getSearchStats(), p2.getSearchStats());
 
         if (print) {
             battleResult.print();
@@ -120,5 +73,61 @@ public class Battle {
 
         return battleResult;
     }
-}
 
+    /**
+     * sets up a game of a battle
+     *
+     * @param p1          not used by another thread during the game
+     * @param p2          not used by another thread during the game
+     * @param p1Starts    p1 plays light
+     * @param random
+     * @param timeControl null for no time control
+     * @return
+     */
+    static PylosGame newGame(PylosPlayer p1, PylosPlayer p2, boolean p1Starts, Random random, PylosTimeControl timeControl) {
+        PylosGame game = new PylosGame(new PylosBoard(), p1Starts ? p1 : p2, p1Starts ? p2 : p1, random);
+        game.setTimeControl(timeControl);
+        return game;
+    }
+
+    /**
+     * plays a game of newGame(..), a crash is a forfeit of the player whose turn it was
+     *
+     * @param ppt1
+     * @param ppt2
+     * @param p1
+     * @param game
+     * @param p1Starts
+     * @return
+     */
+    static GameOutcome playGame(PylosPlayerType ppt1, PylosPlayerType ppt2, PylosPlayer p1, PylosGame game, boolean p1Starts) {
+        PylosPlayerType lightType = p1Starts ? ppt1 : ppt2;
+        PylosPlayerType darkType = p1Starts ? ppt2 : ppt1;
+        long startTime = System.currentTimeMillis();
+        int outcome;
+        PlayedGame playedGame = null;
+        boolean lostOnTime = false;
+        try {
+            game.play();
+            if (game.getState() == PylosGameState.DRAW) {
+                playedGame = new PlayedGame(game.getBoardHistory(), lightType, darkType, null, 0, 0);
+                outcome = GameOutcome.DRAW;
+            } else {
+                outcome = game.getWinner() == p1 ? GameOutcome.P1_WIN : GameOutcome.P2_WIN;
+                if (game.getLostOnTime() != null) {
+                    /* not a finished game, like a crash it isn't recorded */
+                    lostOnTime = true;
+                } else {
+                    PylosPlayerColor winner = game.getWinner().PLAYER_COLOR;
+                    int sqComp = game.getSquaresCompleted(winner) - game.getSquaresCompleted(winner.other());
+                    playedGame = new PlayedGame(game.getBoardHistory(), lightType, darkType, winner, game.getReserveSizeOfWinner(), sqComp);
+                }
+            }
+        } catch (PylosGameCrashedException ge) {
+            System.err.println("Game crashed during turn of " + ge.getCurrentPlayer().getClass().getName() + ", giving forfeit");
+            ge.getException().printStackTrace();
+            outcome = ge.getCurrentPlayer() == p1 ? GameOutcome.P2_WIN : GameOutcome.P1_WIN;
+        }
+        return new GameOutcome(p1Starts, outcome, System.currentTimeMillis() - startTime, playedGame, lostOnTime);
+    }
+}
@@ -0,0 +1,78 @@
+package be.kuleuven.pylos.battle;
+
+import be.kuleuven.pylos.battle.data.PlayedGame;
+import be.kuleuven.pylos.player.PylosPlayerType;
+import be.kuleuven.pylos.search.SearchStats;
+
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the games of one battle as they finish, from any number of threads, into a BattleResult. The games are
+ * kept for its playedGames, or passed to a BattleSink.
+ */
+class BattleAggregator {
+
+    private final PylosPlayerType p1;
+    private final PylosPlayerType p2;
+
+    /* [p1StartP1Wins, p1StartDraws, p1StartP2Wins, p2StartP1Wins, p2StartDraws, p2StartP2Wins] */
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(6);
+    private final LongAdder runTime = new LongAdder();
+    private final AtomicInteger p1TimeLosses = new AtomicInteger();
+    private final AtomicInteger p2TimeLosses = new AtomicInteger();
+    private final Queue<PlayedGame> playedGames = new ConcurrentLinkedQueue<>();
+    private final BattleSink sink;
+
+    BattleAggregator(PylosPlayerType p1, PylosPlayerType p2) {
+        this(p1, p2, null);
+    }
+
+    /**
+     * @param p1
+     * @param p2
+     * @param sink receives the games, null to keep them for the BattleResult
+     */
+    BattleAggregator(PylosPlayerType p1, PylosPlayerType p2, BattleSink sink) {
+        this.p1 = p1;
+        this.p2 = p2;
+        this.sink = sink;
+    }
+
+    void add(GameOutcome game) {
+        counts.incrementAndGet((game.p1Starts ? 0 : 3) + game.outcome);
+        runTime.add(game.playTime);
+        if (game.lostOnTime) {
+            if (game.outcome == GameOutcome.P2_WIN) p1TimeLosses.incrementAndGet();
+            if (game.outcome == GameOutcome.P1_WIN) p2TimeLosses.incrementAndGet();
+        }
+        if (game.playedGame != null) {
+            if (sink != null) {
+                sink.accept(game.playedGame);
+            } else {
+                playedGames.add(game.playedGame);
+            }
+        }
+    }
+
+    /**
+     * returns the games added so far (without playedGames if they went to a sink), with the search statistics of the
+     * players over all of them
+     *
+     * @param p1Stats
+     * @param p2Stats
+     * @return
+     */
+    BattleResult toResult(SearchStats p1Stats, SearchStats p2Stats) {
+        BattleResult result = new BattleResult(p1, p2, runTime.sum(), counts.get(0), counts.get(1), counts.get(2), counts.get(3), counts.get(4), counts.get(5), new ArrayList<>(playedGames));
+        result.p1Stats = p1Stats;
+        result.p2Stats = p2Stats;
+        result.p1TimeLosses = p1TimeLosses.get();
+        result.p2TimeLosses = p2TimeLosses.get();
+        return result;
+    }
+}
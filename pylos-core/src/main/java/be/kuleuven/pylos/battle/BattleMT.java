@@ -1,63 +1,171 @@
 package be.kuleuven.pylos.battle;
 
+import be.kuleuven.pylos.game.PylosGame;
+import be.kuleuven.pylos.game.PylosTimeControl;
+import be.kuleuven.pylos.player.PylosPlayer;
 import be.kuleuven.pylos.player.PylosPlayerType;
+import be.kuleuven.pylos.search.SearchStats;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger; // NEW: Import thread-safe counter
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
+/**
+ * Plays the games of a battle in parallel. Every game is a task of a work stealing pool, so a thread that finishes a
+ * short game takes the next one, or runs on a virtual thread of its own (see playVirtual(..)). A game takes an idle
+ * pair of players, or creates one, and returns it when it is over: there are never more pairs than games in play.
+ * The games are added to a BattleAggregator, or passed to a BattleSink, as they finish.
+ * <p>
+ * Games that run longer than STRAGGLER_SECONDS are reported. With a PylosTimeControl, a player that overruns its time
+ * loses the game (see PylosClock). A game that still runs after GAME_TIMEOUT_SECONDS, e.g. because a player ignores
+ * the interrupt of the clock, is lost by the player to move and abandoned: its thread is left behind, its players
+ * are not used again. The battle goes on without it, the thread keeps running until the player returns, next to the
+ * games that are played in its place.
+ */
 public class BattleMT {
 
-    static int N_RUNS_PER_JOB = 2; //has to be even
+    public static final long STRAGGLER_SECONDS = 10;
+    public static final long GAME_TIMEOUT_SECONDS = 300;
+
+    private static final long CHECK_MILLIS = 1000;
+    private static final int PROGRESS_GAMES = 100;
 
     public static BattleResult play(PylosPlayerType p1, PylosPlayerType p2, int runs, int nThreads) {
         return play(p1, p2, runs, nThreads, true);
     }
 
     public static BattleResult play(PylosPlayerType p1, PylosPlayerType p2, int runs, int nThreads, boolean print) {
-        int nTasks = runs / N_RUNS_PER_JOB;
-        int rest = runs % N_RUNS_PER_JOB;
-
-        // --- NEW: Create a shared, thread-safe counter ---
-        final AtomicInteger gameCounter = new AtomicInteger(0);
-        final int totalRuns = runs;
-        // --------------------------------------------------
-
-        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-        List<BattleRunnable> battleRunnables = new ArrayList<>();
-
-        for (int i = 0; i < nTasks; i++) {
-            // MODIFIED: Pass the counter and total to the runnable
-            BattleRunnable r = new BattleRunnable(p1, p2, N_RUNS_PER_JOB, gameCounter, totalRuns);
-            battleRunnables.add(r);
-            pool.execute(r);
-        }
+        return play(p1, p2, runs, nThreads, print, null);
+    }
+
+    /**
+     * @param p1
+     * @param p2
+     * @param runs
+     * @param nThreads
+     * @param print
+     * @param sink     receives the games as they finish (see BattleSink), the result has no playedGames then. Null
+     *                 to keep them in the result.
+     * @return
+     */
+    public static BattleResult play(PylosPlayerType p1, PylosPlayerType p2, int runs, int nThreads, boolean print, BattleSink sink) {
+        return play(p1, p2, runs, nThreads, print, sink, null);
+    }
+
+    /**
+     * as play(p1, p2, runs, nThreads, print, sink), every game with 'timeControl' (see PylosGame.setTimeControl(..))
+     *
+     * @param p1
+     * @param p2
+     * @param runs
+     * @param nThreads
+     * @param print
+     * @param sink
+     * @param timeControl null for no time control
+     * @return
+     */
+    public static BattleResult play(PylosPlayerType p1, PylosPlayerType p2, int runs, int nThreads, boolean print, BattleSink sink, PylosTimeControl timeControl) {
+        /* at most nThreads threads: a player that blocks (e.g. on an InferenceService) doesn't get a spare thread */
+        ForkJoinPool pool = new ForkJoinPool(nThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true,
+                nThreads, nThreads, 1, p -> true, 60, TimeUnit.SECONDS);
+        return play(p1, p2, runs, pool, null, print, sink, timeControl);
+    }
+
+    public static BattleResult playVirtual(PylosPlayerType p1, PylosPlayerType p2, int runs, int maxGames) {
+        return playVirtual(p1, p2, runs, maxGames, true);
+    }
+
+    /**
+     * plays every game on a virtual thread, at most 'maxGames' at the same time. A player that blocks (a human player
+     * waiting for input, an ML player waiting on an InferenceService) releases its carrier thread to another game,
+     * so 'maxGames' can be far larger than the number of cores. The carriers are the JVM's virtual thread scheduler,
+     * bounded by the number of cores (see -Djdk.virtualThreadScheduler.parallelism), a player that searches keeps
+     * its carrier until it moves. The state of a player is kept for every pair in play: e.g. a blocked ML player
+     * holds its EvalCache of a few MB, so 'maxGames' pairs take that many times as much memory.
+     *
+     * @param p1
+     * @param p2
+     * @param runs
+     * @param maxGames the number of games, and of player pairs, in play at the same time
+     * @param print
+     * @return
+     */
+    public static BattleResult playVirtual(PylosPlayerType p1, PylosPlayerType p2, int runs, int maxGames, boolean print) {
+        return playVirtual(p1, p2, runs, maxGames, print, null);
+    }
 
-        if (rest > 0) {
-            // MODIFIED: Pass the counter and total to the runnable
-            BattleRunnable r = new BattleRunnable(p1, p2, rest, gameCounter, totalRuns);
-            battleRunnables.add(r);
-            pool.execute(r);
+    /**
+     * as playVirtual(p1, p2, runs, maxGames, print), the games go to 'sink' (see BattleSink)
+     *
+     * @param p1
+     * @param p2
+     * @param runs
+     * @param maxGames
+     * @param print
+     * @param sink
+     * @return
+     */
+    public static BattleResult playVirtual(PylosPlayerType p1, PylosPlayerType p2, int runs, int maxGames, boolean print, BattleSink sink) {
+        return playVirtual(p1, p2, runs, maxGames, print, sink, null);
+    }
+
+    /**
+     * as playVirtual(p1, p2, runs, maxGames, print, sink), every game with 'timeControl'
+     *
+     * @param p1
+     * @param p2
+     * @param runs
+     * @param maxGames
+     * @param print
+     * @param sink
+     * @param timeControl null for no time control
+     * @return
+     */
+    public static BattleResult playVirtual(PylosPlayerType p1, PylosPlayerType p2, int runs, int maxGames, boolean print, BattleSink sink, PylosTimeControl timeControl) {
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("battle-", 0).factory());
+        return play(p1, p2, runs, executor, new Semaphore(maxGames), print, sink, timeControl);
+    }
+
+    /* plays every game as a task of 'executor', after taking a permit of 'slots' if not null */
+    private static BattleResult play(PylosPlayerType p1, PylosPlayerType p2, int runs, ExecutorService executor, Semaphore slots, boolean print, BattleSink sink, PylosTimeControl timeControl) {
+        if (runs % 2 != 0) {
+            executor.shutdown();
+            throw new IllegalArgumentException("Please specify an even number of runs");
         }
-        pool.shutdown();
-
-        try {
-            //wait until the pool has processed all games
-            long timeout = runs * 10L; //timeout of 10 seconds per game
-            pool.awaitTermination(timeout, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+
+        Games games = new Games(p1, p2, runs, slots, new BattleAggregator(p1, p2, sink));
+        for (int i = 0; i < runs; i++) {
+            /* alternate the starting player, so both halves progress evenly */
+            GameRun run = new GameRun(i, i % 2 == 0);
+            executor.execute(() -> games.play(run, timeControl));
         }
+        executor.shutdown();
 
-        if (battleRunnables.stream().anyMatch(r -> r.result == null)) {
-            throw new RuntimeException("Not all battles were completed!");
+        games.await();
+        if (games.abandoned > 0) executor.shutdownNow();
+
+        if (games.failure.get() != null) {
+            throw new RuntimeException("Not all games were completed!", games.failure.get());
         }
 
-        BattleResult result = BattleResult.merge(battleRunnables.stream().map(r -> r.result).collect(Collectors.toList()));
+        /* all games are settled, the players are no longer used (but those of abandoned games) */
+        List<Players> used = games.allPlayers.stream().filter(ps -> !ps.abandoned).collect(Collectors.toList());
+        SearchStats p1Stats = SearchStats.sum(used.stream().map(ps -> ps.p1.getSearchStats()).collect(Collectors.toList()));
+        SearchStats p2Stats = SearchStats.sum(used.stream().map(ps -> ps.p2.getSearchStats()).collect(Collectors.toList()));
+        BattleResult result = games.aggregator.toResult(p1Stats, p2Stats);
 
         if (print) {
             result.print();
@@ -66,56 +174,150 @@ public class BattleMT {
         return result;
     }
 
-    private static class BattleRunnable implements Runnable {
+    /**
+     * The games of one battle: plays them and settles each of them once, when it is over or when it is abandoned.
+     */
+    private static final class Games {
         private final PylosPlayerType p1;
         private final PylosPlayerType p2;
-        private final int nRuns;
-        private BattleResult result;
+        private final int runs;
+        private final Semaphore slots;
+        private final BattleAggregator aggregator;
 
-        // --- NEW: Add fields for the counter and total ---
-        private final AtomicInteger gameCounter;
-        private final int totalRuns;
-        // -----------------------------------------------
+        private final Queue<Players> allPlayers = new ConcurrentLinkedQueue<>();
+        private final Queue<Players> idlePlayers = new ConcurrentLinkedQueue<>();
+        private final Map<Integer, GameRun> running = new ConcurrentHashMap<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final CountDownLatch settled;
+        private int abandoned;                          // awaiting thread only
 
-        // MODIFIED: Update constructor
-        public BattleRunnable(PylosPlayerType p1, PylosPlayerType p2, int nRuns, AtomicInteger gameCounter, int totalRuns) {
+        private Games(PylosPlayerType p1, PylosPlayerType p2, int runs, Semaphore slots, BattleAggregator aggregator) {
             this.p1 = p1;
             this.p2 = p2;
-            this.nRuns = nRuns;
-            this.gameCounter = gameCounter; // NEW
-            this.totalRuns = totalRuns;     // NEW
+            this.runs = runs;
+            this.slots = slots;
+            this.aggregator = aggregator;
+            this.settled = new CountDownLatch(runs);
+        }
+
+        /* a task of the executor */
+        private void play(GameRun run, PylosTimeControl timeControl) {
+            try {
+                if (slots != null) {
+                    slots.acquire();
+                    run.hasSlot = true;
+                }
+                run.thread = Thread.currentThread();
+                run.start = System.nanoTime();
+                running.put(run.id, run);
+                Players ps = idlePlayers.poll();
+                if (ps == null) {
+                    ps = new Players(p1.create(), p2.create());
+                    allPlayers.add(ps);
+                }
+                run.players = ps;
+                run.game = Battle.newGame(ps.p1, ps.p2, run.p1Starts, ps.random, timeControl);
+                GameOutcome outcome = Battle.playGame(p1, p2, ps.p1, run.game, run.p1Starts);
+                if (run.settle()) {
+                    aggregator.add(outcome);
+                    idlePlayers.add(ps);
+                    done(run);
+                }
+            } catch (Throwable t) {
+                if (run.settle()) {
+                    failure.compareAndSet(null, t);
+                    done(run);
+                }
+            }
         }
 
-        // MODIFIED: Add logging
-        @Override
-        public void run() {
+        private void done(GameRun run) {
+            running.remove(run.id);
+            if (run.hasSlot) slots.release();
+            int completedGames = completed.incrementAndGet();
+            if (completedGames % PROGRESS_GAMES == 0) {
+                System.err.printf("[%s] --- Processed ~%d / %d games (%.1f%%)%n",
+                        java.time.LocalTime.now(), completedGames, runs, (double) completedGames / runs * 100.0);
+            }
+            settled.countDown();
+        }
+
+        /* waits until all games are settled, reports the games that take too long and abandons those that hang */
+        private void await() {
             try {
-                // This runs the small batch of games (e.g., 2)
-                result = Battle.play(p1, p2, nRuns, false);
-
-                // --- NEW: Logging logic ---
-                // Atomically add the number of games we just ran to the total count
-                int previousGames = gameCounter.get();
-                int completedGames = gameCounter.addAndGet(nRuns);
-
-                // Check if this batch crossed a 1000-game milestone
-                // This is more robust than (completedGames % 1000 == 0)
-                if ((completedGames / 100) > (previousGames / 100)) {
-                    double percentage = (double) completedGames / totalRuns * 100.0;
-                    String timestamp = java.time.LocalTime.now().toString();
-
-                    // Print to System.err for immediate, unbuffered output
-                    System.err.printf("[%s] --- Processed ~%d / %d games (%.1f%%)%n",
-                            timestamp,
-                            completedGames,
-                            totalRuns,
-                            percentage);
+                while (!settled.await(CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    long now = System.nanoTime();
+                    for (GameRun run : running.values()) {
+                        long seconds = TimeUnit.NANOSECONDS.toSeconds(now - run.start);
+                        if (seconds >= GAME_TIMEOUT_SECONDS) {
+                            abandon(run, now);
+                        } else if (seconds >= STRAGGLER_SECONDS && !run.reported) {
+                            run.reported = true;
+                            System.err.println("Game " + run.id + " of " + p1 + " vs " + p2 + " has been running for " + seconds + " seconds");
+                        }
+                    }
                 }
-                // --------------------------
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the games of " + p1 + " vs " + p2, e);
+            }
+        }
 
-            } catch (Exception e) {
-                e.printStackTrace();
+        /* the player to move loses 'run', its thread is interrupted once more and left behind */
+        private void abandon(GameRun run, long now) {
+            if (!run.settle()) return;
+            abandoned++;
+            Players ps = run.players;
+            PylosGame game = run.game;
+            if (ps != null) ps.abandoned = true;
+            if (game == null) {
+                failure.compareAndSet(null, new IllegalStateException("Game " + run.id + " of " + p1 + " vs " + p2 + " did not start within " + GAME_TIMEOUT_SECONDS + " seconds"));
+            } else {
+                PylosPlayer loser = game.getCurrentPlayer();
+                System.err.println("Game " + run.id + " of " + p1 + " vs " + p2 + " did not complete within " + GAME_TIMEOUT_SECONDS + " seconds, "
+                        + (loser == ps.p1 ? p1 : p2) + " loses it");
+                int outcome = loser == ps.p1 ? GameOutcome.P2_WIN : GameOutcome.P1_WIN;
+                aggregator.add(new GameOutcome(run.p1Starts, outcome, TimeUnit.NANOSECONDS.toMillis(now - run.start), null, true));
             }
+            run.thread.interrupt();
+            done(run);
+        }
+    }
+
+    /* one game of a battle */
+    private static final class GameRun {
+        private final int id;
+        private final boolean p1Starts;
+        private final AtomicBoolean settled = new AtomicBoolean();
+        private volatile Thread thread;
+        private volatile long start;                    // System.nanoTime()
+        private volatile boolean hasSlot;
+        private volatile Players players;
+        private volatile PylosGame game;
+        private boolean reported;                       // awaiting thread only
+
+        private GameRun(int id, boolean p1Starts) {
+            this.id = id;
+            this.p1Starts = p1Starts;
+        }
+
+        /* returns true for the first caller only: the game is over, or abandoned */
+        private boolean settle() {
+            return settled.compareAndSet(false, true);
+        }
+    }
+
+    /* a pair of players, used by one game at a time */
+    private static final class Players {
+        private final PylosPlayer p1;
+        private final PylosPlayer p2;
+        private final Random random = new Random();
+        private volatile boolean abandoned;             // left behind in a game that hangs
+
+        private Players(PylosPlayer p1, PylosPlayer p2) {
+            this.p1 = p1;
+            this.p2 = p2;
         }
     }
-}
\ No newline at end of file
+}
@@ -2,6 +2,7 @@ package be.kuleuven.pylos.battle;
 
 import be.kuleuven.pylos.battle.data.PlayedGame;
 import be.kuleuven.pylos.player.PylosPlayerType;
+import be.kuleuven.pylos.search.SearchStats;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -18,8 +19,17 @@ public class BattleResult {
     public int p2StartDraws;
     public int p2StartP2Wins;
 
+    /* empty if the games went to a BattleSink */
     public ArrayList<PlayedGame> playedGames;
 
+    /* search statistics over all games, null if the player doesn't keep any (see PylosPlayer.getSearchStats()) */
+    public SearchStats p1Stats;
+    public SearchStats p2Stats;
+
+    /* games lost by overrunning the time control (see PylosTimeControl), included in the wins of the opponent */
+    public int p1TimeLosses;
+    public int p2TimeLosses;
+
     public BattleResult(PylosPlayerType p1, PylosPlayerType p2, long runTime, int p1StartP1Wins, int p1StartDraws, int p1StartP2Wins, int p2StartP1Wins, int p2StartDraws, int p2StartP2Wins, ArrayList<PlayedGame> playedGames) {
         this.p1 = p1;
         this.p2 = p2;
@@ -52,7 +62,12 @@ public class BattleResult {
 
         ArrayList<PlayedGame> playedGames = brs.stream().flatMap(br -> br.playedGames.stream()).collect(Collectors.toCollection(ArrayList::new));
 
-        return new BattleResult(p1, p2, runTime, p1StartP1Wins, p1StartDraws, p1StartP2Wins, p2StartP1Wins, p2StartDraws, p2StartP2Wins, playedGames);
+        BattleResult merged = new BattleResult(p1, p2, runTime, p1StartP1Wins, p1StartDraws, p1StartP2Wins, p2StartP1Wins, p2StartDraws, p2StartP2Wins, playedGames);
+        merged.p1Stats = SearchStats.sum(brs.stream().map(br -> br.p1Stats).collect(Collectors.toList()));
+        merged.p2Stats = SearchStats.sum(brs.stream().map(br -> br.p2Stats).collect(Collectors.toList()));
+        merged.p1TimeLosses = brs.stream().mapToInt(br -> br.p1TimeLosses).sum();
+        merged.p2TimeLosses = brs.stream().mapToInt(br -> br.p2TimeLosses).sum();
+        return merged;
     }
 
     public int p1Wins() {
@@ -86,6 +101,15 @@ public class BattleResult {
         System.out.println(String.format(" * %6s", String.format("%.2f", (double) (p1StartDraws + p2StartDraws) / nGames * 100)) + "% Draw");
         System.out.println();
         System.out.println("CPU Time: " + String.format("%.2f", (double) runTime / 1000) + " sec (" + String.format("%.2f", (double) runTime / 1000 / nGames) + " sec / game)");
+        if (p1TimeLosses > 0 || p2TimeLosses > 0) {
+            System.out.println("Lost on time: " + p1TimeLosses + " " + p1 + ", " + p2TimeLosses + " " + p2);
+        }
+        if (p1Stats != null || p2Stats != null) {
+            System.out.println();
+            System.out.println("Search statistics:");
+            if (p1Stats != null) p1Stats.print(" * " + p1);
+            if (p2Stats != null) p2Stats.print(" * " + p2);
+        }
         System.out.println("----------------------------");
     }
 }
@@ -0,0 +1,21 @@
+package be.kuleuven.pylos.battle;
+
+import be.kuleuven.pylos.battle.data.PlayedGame;
+
+/**
+ * Receives the games of a battle as they finish, instead of the playedGames list of its BattleResult. The results
+ * of the games are still counted in the BattleResult, a game that crashed isn't passed to the sink.
+ * <p>
+ * A sink can be used by several battles in turn, e.g. one file for all battles of a data collection run. Battles on
+ * more than one thread call accept(..) from all of them: implementations are thread safe.
+ *
+ * @see CountingSink
+ * @see BufferedSink
+ */
+public interface BattleSink {
+
+    /**
+     * @param playedGame a finished game
+     */
+    void accept(PlayedGame playedGame);
+}
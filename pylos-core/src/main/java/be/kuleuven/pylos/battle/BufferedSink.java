@@ -0,0 +1,63 @@
+package be.kuleuven.pylos.battle;
+
+import be.kuleuven.pylos.battle.data.PlayedGame;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last 'capacity' games in memory, older games are dropped. As a replay buffer it holds the most recent
+ * games of a long run in constant memory.
+ */
+public class BufferedSink implements BattleSink {
+
+    private final int capacity;
+    private final ArrayDeque<PlayedGame> games;
+    private long dropped;
+
+    public BufferedSink(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity should be positive");
+        }
+        this.capacity = capacity;
+        this.games = new ArrayDeque<>(capacity);
+    }
+
+    @Override
+    public synchronized void accept(PlayedGame playedGame) {
+        if (games.size() == capacity) {
+            games.removeFirst();
+            dropped++;
+        }
+        games.addLast(playedGame);
+    }
+
+    /**
+     * returns the games in the buffer, oldest first
+     *
+     * @return
+     */
+    public synchronized List<PlayedGame> getGames() {
+        return new ArrayList<>(games);
+    }
+
+    /**
+     * removes the games from the buffer, oldest first
+     *
+     * @return
+     */
+    public synchronized List<PlayedGame> drain() {
+        List<PlayedGame> drained = new ArrayList<>(games);
+        games.clear();
+        return drained;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,54 @@
+package be.kuleuven.pylos.battle;
+
+import be.kuleuven.pylos.battle.data.PlayedGame;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Only counts the games and the positions in them, the games themselves are dropped.
+ */
+public class CountingSink implements BattleSink {
+
+    private final LongAdder games = new LongAdder();
+    private final LongAdder lightWins = new LongAdder();
+    private final LongAdder darkWins = new LongAdder();
+    private final LongAdder positions = new LongAdder();
+
+    @Override
+    public void accept(PlayedGame playedGame) {
+        games.increment();
+        if (playedGame.winner == 1) lightWins.increment();
+        if (playedGame.winner == -1) darkWins.increment();
+        positions.add(playedGame.boardHistory.size());
+    }
+
+    public long getGames() {
+        return games.sum();
+    }
+
+    public long getLightWins() {
+        return lightWins.sum();
+    }
+
+    public long getDarkWins() {
+        return darkWins.sum();
+    }
+
+    public long getDraws() {
+        return getGames() - getLightWins() - getDarkWins();
+    }
+
+    /**
+     * returns the number of board states in the games (see PlayedGame.boardHistory)
+     *
+     * @return
+     */
+    public long getPositions() {
+        return positions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d games (%d light wins, %d dark wins, %d draws), %d positions", getGames(), getLightWins(), getDarkWins(), getDraws(), getPositions());
+    }
+}
@@ -0,0 +1,28 @@
+package be.kuleuven.pylos.battle;
+
+import be.kuleuven.pylos.battle.data.PlayedGame;
+
+/**
+ * The outcome of one game of a battle, from the perspective of the battle's p1.
+ */
+final class GameOutcome {
+
+    /* outcomes */
+    static final int P1_WIN = 0;
+    static final int DRAW = 1;
+    static final int P2_WIN = 2;
+
+    final boolean p1Starts;
+    final int outcome;
+    final long playTime;                                // milliseconds
+    final PlayedGame playedGame;                        // null if the game crashed or was lost on time
+    final boolean lostOnTime;                           // the loser overran its time
+
+    GameOutcome(boolean p1Starts, int outcome, long playTime, PlayedGame playedGame, boolean lostOnTime) {
+        this.p1Starts = p1Starts;
+        this.outcome = outcome;
+        this.playTime = playTime;
+        this.playedGame = playedGame;
+        this.lostOnTime = lostOnTime;
+    }
+}
@@ -0,0 +1,180 @@
+package be.kuleuven.pylos.book;
+
+import be.kuleuven.pylos.game.*;
+import be.kuleuven.pylos.search.PylosMove;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Read only access to an opening book written by OpeningBookBuilder, memory mapped.
+ * <p>
+ * The file is a header (magic, version, number of records) followed by records sorted by position key and position
+ * after the move: position key (long), canonical position after the move (long), wins, draws and losses (int) of the
+ * player who made the move. Positions are found by binary search, moves by comparing the canonical position after
+ * each legal move, so no transformation of moves between symmetric positions is needed.
+ * <p>
+ * A move is selected at random, weighted by its smoothed score (wins + draws / 2 + 1) / (games + 2) to the power
+ * SHARPNESS, among the moves that were played at least MIN_GAMES times. Probing is thread safe.
+ */
+public class OpeningBook {
+
+    static final int MAGIC = 0x50594F42;   // "PYOB"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_SIZE = 28;
+    private static final long DARK_FLAG = 1L << 60;
+
+    public static final int DEFAULT_MIN_GAMES = 10;
+    public static final double DEFAULT_SHARPNESS = 4;
+
+    private final MappedByteBuffer buffer;
+    private final int nRecords;
+    private final int MIN_GAMES;
+    private final double SHARPNESS;
+
+    public OpeningBook(Path file) throws IOException {
+        this(file, DEFAULT_MIN_GAMES, DEFAULT_SHARPNESS);
+    }
+
+    /**
+     * @param file
+     * @param minGames  moves played less often are ignored
+     * @param sharpness 0 selects the book moves uniformly, higher values prefer the best scoring moves
+     * @throws IOException
+     */
+    public OpeningBook(Path file, int minGames, double sharpness) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not an opening book (version " + VERSION + "): " + file);
+            }
+            nRecords = buffer.getInt(8);
+            if (channel.size() != HEADER_SIZE + (long) nRecords * RECORD_SIZE) {
+                throw new IOException("Truncated opening book: " + file);
+            }
+        }
+        this.MIN_GAMES = minGames;
+        this.SHARPNESS = sharpness;
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    /**
+     * returns the key of a position: the canonical board state with the color to move
+     *
+     * @param boardState PylosBoard.toLong()
+     * @param darkToMove
+     * @return
+     */
+    public static long key(long boardState, boolean darkToMove) {
+        return PylosBitBoard.canonical(boardState) | (darkToMove ? DARK_FLAG : 0);
+    }
+
+    public int getNumberOfRecords() {
+        return nRecords;
+    }
+
+    /**
+     * returns the number of recorded games through the position on 'board' with 'color' to move
+     *
+     * @param board
+     * @param color
+     * @return
+     */
+    public int getGames(PylosBoard board, PylosPlayerColor color) {
+        long key = key(board.toLong(), color == PylosPlayerColor.DARK);
+        int games = 0;
+        for (int record = find(key); record < nRecords && key(record) == key; record++) games += games(record);
+        return games;
+    }
+
+    /**
+     * selects a book move for 'color' (in MOVE state) on 'board'
+     *
+     * @param board
+     * @param color
+     * @param random
+     * @return the move (PylosMove encoded), or PylosMove.NONE if the position is not in the book
+     */
+    public int selectMove(PylosBoard board, PylosPlayerColor color, Random random) {
+        long boardState = board.toLong();
+        long key = key(boardState, color == PylosPlayerColor.DARK);
+        int first = find(key);
+        int end = first;
+        while (end < nRecords && key(end) == key) end++;
+        if (first == end) return PylosMove.NONE;
+
+        int[] moves = new int[PylosMove.MAX_MOVES];
+        double[] weights = new double[PylosMove.MAX_MOVES];
+        int nMoves = PylosMove.generate(board, color, PylosGameState.MOVE, moves);
+        double totalWeight = 0;
+        for (int i = 0; i < nMoves; i++) {
+            long after = PylosBitBoard.canonical(after(boardState, moves[i], color));
+            for (int record = first; record < end; record++) {
+                if (buffer.getLong(offset(record) + 8) == after && games(record) >= MIN_GAMES) {
+                    weights[i] = Math.pow(score(record), SHARPNESS);
+                    totalWeight += weights[i];
+                    break;
+                }
+            }
+        }
+        if (totalWeight == 0) return PylosMove.NONE;
+
+        double r = random.nextDouble() * totalWeight;
+        for (int i = 0; i < nMoves; i++) {
+            r -= weights[i];
+            if (weights[i] > 0 && r <= 0) return moves[i];
+        }
+        for (int i = nMoves - 1; i >= 0; i--) {
+            if (weights[i] > 0) return moves[i];
+        }
+        return PylosMove.NONE;
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    private static int offset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    private long key(int record) {
+        return buffer.getLong(offset(record));
+    }
+
+    private int games(int record) {
+        int offset = offset(record) + 16;
+        return buffer.getInt(offset) + buffer.getInt(offset + 4) + buffer.getInt(offset + 8);
+    }
+
+    private double score(int record) {
+        int offset = offset(record) + 16;
+        int wins = buffer.getInt(offset);
+        int draws = buffer.getInt(offset + 4);
+        return (wins + draws / 2.0 + 1) / (games(record) + 2.0);
+    }
+
+    /* index of the first record with a key >= 'key' */
+    private int find(long key) {
+        int low = 0, high = nRecords;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key(mid) < key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private static long after(long boardState, int move, PylosPlayerColor color) {
+        long sphere = color == PylosPlayerColor.LIGHT ? 1 : 2;
+        long to = sphere << (2 * PylosMove.to(move));
+        if (PylosMove.kind(move) == PylosMove.MOVE) {
+            boardState &= ~(3L << (2 * PylosMove.from(move)));
+        }
+        return boardState | to;
+    }
+}
@@ -0,0 +1,113 @@
+package be.kuleuven.pylos.book;
+
+import be.kuleuven.pylos.battle.data.PlayedGame;
+import be.kuleuven.pylos.game.PylosBitBoard;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds an opening book from recorded games (PlayedGame.boardHistory and the winner).
+ * <p>
+ * Every move of the first MAX_PLY plies is counted as a win, draw or loss for the player who made it, aggregated by
+ * canonical position (smallest image over the 8 symmetries, see PylosBitBoard.canonical(..)) and the canonical
+ * position after the move. Recording of a game stops at the first removal, the opening is over by then.
+ */
+public class OpeningBookBuilder {
+
+    public static final int DEFAULT_MAX_PLY = 10;
+
+    private final int MAX_PLY;
+    /* position key -> canonical position after the move -> {wins, draws, losses} */
+    private final TreeMap<Long, TreeMap<Long, int[]>> entries = new TreeMap<>();
+    private long nGames;
+
+    public OpeningBookBuilder() {
+        this(DEFAULT_MAX_PLY);
+    }
+
+    public OpeningBookBuilder(int maxPly) {
+        MAX_PLY = maxPly;
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    public void add(PlayedGame game) {
+        add(game.boardHistory, game.winner);
+    }
+
+    /**
+     * adds the opening of a game
+     *
+     * @param boardHistory board states after every add, move and remove (PylosGame.getBoardHistory())
+     * @param winner       1 if light won, -1 if dark won, 0 for a draw (as in PlayedGame)
+     */
+    public void add(Iterable<Long> boardHistory, int winner) {
+        nGames++;
+        long before = 0;
+        int ply = 0;
+        for (long after : boardHistory) {
+            if (ply++ >= MAX_PLY) break;
+            int mover = mover(before, after);
+            if (mover == 0) break;
+
+            int[] counts = entries
+                    .computeIfAbsent(OpeningBook.key(before, mover < 0), k -> new TreeMap<>())
+                    .computeIfAbsent(PylosBitBoard.canonical(after), k -> new int[3]);
+            counts[winner == 0 ? 1 : winner == mover ? 0 : 2]++;
+            before = after;
+        }
+    }
+
+    public long getNumberOfGames() {
+        return nGames;
+    }
+
+    public int getNumberOfPositions() {
+        return entries.size();
+    }
+
+    /**
+     * writes the book, sorted by position key and position after the move, see OpeningBook
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        int nRecords = 0;
+        for (TreeMap<Long, int[]> moves : entries.values()) nRecords += moves.size();
+
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(OpeningBook.MAGIC);
+            out.writeInt(OpeningBook.VERSION);
+            out.writeInt(nRecords);
+            for (Map.Entry<Long, TreeMap<Long, int[]>> position : entries.entrySet()) {
+                for (Map.Entry<Long, int[]> move : position.getValue().entrySet()) {
+                    out.writeLong(position.getKey());
+                    out.writeLong(move.getKey());
+                    for (int count : move.getValue()) out.writeInt(count);
+                }
+            }
+        }
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    /* returns 1 if light added or moved a sphere between both states, -1 for dark, 0 for anything else (removals) */
+    private static int mover(long before, long after) {
+        int lightBefore = PylosBitBoard.light(before), lightAfter = PylosBitBoard.light(after);
+        int darkBefore = PylosBitBoard.dark(before), darkAfter = PylosBitBoard.dark(after);
+        int lightAdded = Integer.bitCount(lightAfter) - Integer.bitCount(lightBefore);
+        int darkAdded = Integer.bitCount(darkAfter) - Integer.bitCount(darkBefore);
+        if (lightAdded < 0 || darkAdded < 0) return 0;
+        if (darkBefore == darkAfter && lightBefore != lightAfter) return 1;
+        if (lightBefore == lightAfter && darkBefore != darkAfter) return -1;
+        return 0;
+    }
+}
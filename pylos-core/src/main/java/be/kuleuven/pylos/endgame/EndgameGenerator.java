@@ -0,0 +1,298 @@
+package be.kuleuven.pylos.endgame;
+
+import be.kuleuven.pylos.game.PylosBitBoard;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Generates the endgame tablebase: all MOVE positions with at most MAX_RESERVES reserves left (both colors together),
+ * solved to win / loss / draw with the distance to the end of the game in plies.
+ * <p>
+ * Removals take spheres back to the reserves, so slices depend on each other in both directions and are solved
+ * together, by retrograde analysis in layers: pass p resolves exactly the positions that are won or lost in p plies,
+ * pass 0 the positions without any option. Options that leave the tablebase (removals beyond MAX_RESERVES) are not
+ * known: positions that depend on them stay UNKNOWN. Positions that are not resolved and can't reach such an option
+ * are draws (neither player can force the end of the game).
+ * <p>
+ * Entries are bit packed in a byte: result in the two lowest bits, distance (at most MAX_DISTANCE) in the others.
+ * Each slice (reserves light / dark) is written to its own file, see EndgameTablebase.
+ * <p>
+ * The number of positions grows quickly with the number of reserves (a single reserve already gives 2 * 77 million
+ * positions per slice), a slice has to fit in a byte array.
+ */
+public class EndgameGenerator {
+
+    public static final int MAX_DISTANCE = 63;
+    private static final int TAINTED = 1 << 2;          // unresolved, depends on an unknown option
+    private static final int CHUNK = 1 << 16;           // colorings per task
+
+    private final int MAX_RESERVES;
+    private final EndgameSlice[][] slices = new EndgameSlice[PylosBitBoard.SPHERES_PER_PLAYER + 1][PylosBitBoard.SPHERES_PER_PLAYER + 1];
+    private final byte[][][] entries = new byte[PylosBitBoard.SPHERES_PER_PLAYER + 1][PylosBitBoard.SPHERES_PER_PLAYER + 1][];
+
+    public EndgameGenerator(int maxReserves) {
+        MAX_RESERVES = maxReserves;
+        /* no slice without reserves: a full board is never a position to move in */
+        for (int total = 1; total <= maxReserves; total++) {
+            for (int lightReserves = Math.max(0, total - PylosBitBoard.SPHERES_PER_PLAYER); lightReserves <= Math.min(total, PylosBitBoard.SPHERES_PER_PLAYER); lightReserves++) {
+                int darkReserves = total - lightReserves;
+                EndgameSlice slice = EndgameSlice.create(lightReserves, darkReserves);
+                if (slice.size > Integer.MAX_VALUE - 1024) {
+                    throw new IllegalArgumentException("Slice " + lightReserves + "/" + darkReserves + " has too many positions: " + slice.size);
+                }
+                slices[lightReserves][darkReserves] = slice;
+                entries[lightReserves][darkReserves] = new byte[(int) slice.size];
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int maxReserves = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        Path directory = Paths.get(args.length > 1 ? args[1] : "endgame");
+
+        EndgameGenerator generator = new EndgameGenerator(maxReserves);
+        long start = System.currentTimeMillis();
+        generator.generate();
+        System.out.println("Generated in " + (System.currentTimeMillis() - start) / 1000.0 + " s");
+        generator.write(directory);
+        generator.printSummary();
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    public void generate() {
+        long resolved = solve(0);
+        System.out.println("pass 0: " + resolved);
+
+        /* an option takes 1 or 3 plies, so a layer can be empty while a later one is not */
+        int nEmpty = 0;
+        int pass = 1;
+        for (; pass <= MAX_DISTANCE && nEmpty < 3; pass++) {
+            resolved = solve(pass);
+            System.out.println("pass " + pass + ": " + resolved);
+            nEmpty = resolved == 0 ? nEmpty + 1 : 0;
+        }
+
+        if (nEmpty < 3) {
+            System.out.println("Distance limit reached, unresolved positions stay unknown");
+            return;
+        }
+        long tainted;
+        do {
+            tainted = taint();
+        } while (tainted > 0);
+        markDraws();
+    }
+
+    /**
+     * writes a file per slice to 'directory'
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public void write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (EndgameSlice slice : slices()) {
+            Path file = directory.resolve(EndgameTablebase.fileName(slice.lightReserves, slice.darkReserves));
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+                out.writeInt(EndgameTablebase.MAGIC);
+                out.writeInt(EndgameTablebase.VERSION);
+                out.writeInt(slice.lightReserves);
+                out.writeInt(slice.darkReserves);
+                out.writeInt(slice.shapes.length);
+                for (int shape : slice.shapes) out.writeInt(shape);
+                out.write(entries[slice.lightReserves][slice.darkReserves]);
+            }
+        }
+    }
+
+    public void printSummary() {
+        for (EndgameSlice slice : slices()) {
+            long[] count = new long[4];
+            for (byte entry : entries[slice.lightReserves][slice.darkReserves]) count[entry & 3]++;
+            System.out.println("reserves " + slice.lightReserves + "/" + slice.darkReserves + ": " + slice.size + " positions, "
+                    + count[EndgameTablebase.WIN] + " won, " + count[EndgameTablebase.LOSS] + " lost, "
+                    + count[EndgameTablebase.DRAW] + " drawn, " + count[EndgameTablebase.UNKNOWN] + " unknown");
+        }
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    private interface PositionTask {
+        void run(byte[] entries, int index, int light, int dark, boolean darkToMove);
+    }
+
+    private long solve(int pass) {
+        AtomicLong resolved = new AtomicLong();
+        forEachPosition(() -> {
+            Layer layer = new Layer(pass);
+            return (sliceEntries, index, light, dark, darkToMove) -> {
+                if (sliceEntries[index] != 0) return;
+                layer.reset();
+                EndgameRules.options(light, dark, darkToMove, EndgameRules.MOVE, layer);
+                int entry = layer.entry();
+                if (entry != 0) {
+                    sliceEntries[index] = (byte) entry;
+                    resolved.incrementAndGet();
+                }
+            };
+        });
+        return resolved.get();
+    }
+
+    private long taint() {
+        AtomicLong tainted = new AtomicLong();
+        forEachPosition(() -> {
+            Taint taint = new Taint();
+            return (sliceEntries, index, light, dark, darkToMove) -> {
+                if (sliceEntries[index] != 0) return;
+                taint.tainted = false;
+                EndgameRules.options(light, dark, darkToMove, EndgameRules.MOVE, taint);
+                if (taint.tainted) {
+                    sliceEntries[index] = TAINTED;
+                    tainted.incrementAndGet();
+                }
+            };
+        });
+        return tainted.get();
+    }
+
+    private void markDraws() {
+        for (EndgameSlice slice : slices()) {
+            byte[] sliceEntries = entries[slice.lightReserves][slice.darkReserves];
+            for (int i = 0; i < sliceEntries.length; i++) {
+                if (sliceEntries[i] == 0) {
+                    sliceEntries[i] = EndgameTablebase.DRAW;
+                } else if (sliceEntries[i] == TAINTED) {
+                    sliceEntries[i] = EndgameTablebase.UNKNOWN;
+                }
+            }
+        }
+    }
+
+    /* runs a task on all positions, in parallel chunks with a task per chunk: the result of a pass doesn't depend on
+     * the order (entries written in a pass are never used by the same pass) */
+    private void forEachPosition(Supplier<PositionTask> tasks) {
+        for (EndgameSlice slice : slices()) {
+            byte[] sliceEntries = entries[slice.lightReserves][slice.darkReserves];
+            int nSpheres = Integer.bitCount(slice.shapes[0]);
+            long nChunks = (slice.nColorings + CHUNK - 1) / CHUNK;
+            for (int shape = 0; shape < slice.shapes.length; shape++) {
+                final int occupied = slice.shapes[shape];
+                final long first = (long) shape * slice.nColorings;
+                IntStream.range(0, (int) nChunks).parallel().forEach(chunk -> {
+                    PositionTask task = tasks.get();
+                    long coloring = (long) chunk * CHUNK;
+                    long end = Math.min(coloring + CHUNK, slice.nColorings);
+                    int subset = EndgameSlice.unrank(coloring, slice.nLight);
+                    for (; coloring < end; coloring++) {
+                        int light = Integer.expand(subset, occupied);
+                        int dark = occupied & ~light;
+                        int index = (int) ((first + coloring) * 2);
+                        task.run(sliceEntries, index, light, dark, false);
+                        task.run(sliceEntries, index + 1, light, dark, true);
+                        if (subset != 0 && slice.nLight < nSpheres) subset = EndgameSlice.next(subset);
+                    }
+                });
+            }
+        }
+    }
+
+    private List<EndgameSlice> slices() {
+        List<EndgameSlice> list = new ArrayList<>();
+        for (EndgameSlice[] row : slices) {
+            for (EndgameSlice slice : row) {
+                if (slice != null) list.add(slice);
+            }
+        }
+        return list;
+    }
+
+    /* returns the entry of a child (0..255, distances up to MAX_DISTANCE set the sign bit of the byte), or -1 if it
+     * has too many reserves for the tablebase */
+    private int lookup(int light, int dark, boolean darkToMove) {
+        int lightReserves = PylosBitBoard.reserves(light);
+        int darkReserves = PylosBitBoard.reserves(dark);
+        if (lightReserves + darkReserves > MAX_RESERVES) return -1;
+        return entries[lightReserves][darkReserves][(int) slices[lightReserves][darkReserves].index(light, dark, darkToMove)] & 0xFF;
+    }
+
+    /* resolves a position won or lost in exactly 'pass' plies (every child is the opponent to move) */
+    private class Layer implements EndgameRules.Visitor {
+
+        private final int pass;
+        private boolean hasOptions;
+        private boolean win;
+        private boolean allLost;
+        private int longestLoss;
+
+        private Layer(int pass) {
+            this.pass = pass;
+        }
+
+        private void reset() {
+            hasOptions = false;
+            win = false;
+            allLost = true;
+            longestLoss = 0;
+        }
+
+        @Override
+        public void child(int light, int dark, boolean darkToMove, int length) {
+            hasOptions = true;
+            if (win) return;
+            int entry = lookup(light, dark, darkToMove);
+            if (entry < 0 || (entry & 3) == EndgameTablebase.UNKNOWN) {
+                allLost = false;
+                return;
+            }
+            int distance = (entry >>> 2) + length;
+            if ((entry & 3) == EndgameTablebase.LOSS) {
+                if (distance == pass) win = true;
+                allLost = false;
+            } else {
+                longestLoss = Math.max(longestLoss, distance);
+            }
+        }
+
+        @Override
+        public void loss(int length) {
+            hasOptions = true;
+            longestLoss = Math.max(longestLoss, length);
+        }
+
+        private int entry() {
+            if (pass == 0) return hasOptions ? 0 : EndgameTablebase.LOSS;
+            if (win) return pass << 2 | EndgameTablebase.WIN;
+            if (hasOptions && allLost && longestLoss == pass) return pass << 2 | EndgameTablebase.LOSS;
+            return 0;
+        }
+    }
+
+    /* an unresolved position is tainted if one of its options leaves the tablebase or is tainted */
+    private class Taint implements EndgameRules.Visitor {
+
+        private boolean tainted;
+
+        @Override
+        public void child(int light, int dark, boolean darkToMove, int length) {
+            if (tainted) return;
+            int entry = lookup(light, dark, darkToMove);
+            tainted = entry < 0 || entry == TAINTED;
+        }
+
+        @Override
+        public void loss(int length) {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package be.kuleuven.pylos.endgame;
+
+import be.kuleuven.pylos.game.PylosBitBoard;
+
+/**
+ * Rules of the game as seen by the tablebase: a turn is flattened into its options, each option ending in a MOVE
+ * position of the opponent (or in a loss of the player to move).
+ * <p>
+ * Removals after a square are decisions of the same player, so flattening them into the options of the move keeps
+ * the game value exact and the tablebase only needs to store MOVE positions.
+ * Lengths are in plies, every add, move, remove and pass is one ply (as in PylosSearch).
+ * A player without options loses, this only happens in positions that can't occur in a game (no reserves to move).
+ */
+final class EndgameRules {
+
+    static final int MOVE = 0;
+    static final int REMOVE_FIRST = 1;
+    static final int REMOVE_SECOND = 2;
+
+    interface Visitor {
+
+        /**
+         * an option ending in a MOVE position with 'darkToMove' to move, after 'length' plies
+         */
+        void child(int light, int dark, boolean darkToMove, int length);
+
+        /**
+         * an option that loses the game for the player to move after 'length' plies
+         */
+        void loss(int length);
+    }
+
+    private EndgameRules() {
+    }
+
+    /**
+     * visits all options of the player to move in 'phase'
+     *
+     * @param light
+     * @param dark
+     * @param darkToMove
+     * @param phase      MOVE, REMOVE_FIRST or REMOVE_SECOND
+     * @param visitor
+     */
+    static void options(int light, int dark, boolean darkToMove, int phase, Visitor visitor) {
+        int own = darkToMove ? dark : light;
+        int other = darkToMove ? light : dark;
+        switch (phase) {
+            case MOVE:
+                move(own, other, darkToMove, visitor);
+                break;
+            case REMOVE_FIRST:
+                removeFirst(own, other, darkToMove, visitor, 1);
+                break;
+            case REMOVE_SECOND:
+                removeSecond(own, other, darkToMove, visitor, 1);
+                break;
+            default:
+                throw new IllegalArgumentException("Phase is: " + phase);
+        }
+    }
+
+    private static void move(int own, int other, boolean darkToMove, Visitor visitor) {
+        int occupied = own | other;
+        int free = PylosBitBoard.free(own, occupied);
+        boolean hasReserves = PylosBitBoard.reserves(own) > 0;
+        for (int usable = PylosBitBoard.usable(occupied); usable != 0; usable &= usable - 1) {
+            int to = Integer.numberOfTrailingZeros(usable);
+            if (hasReserves) {
+                afterMove(own | 1 << to, other, to, darkToMove, visitor);
+            }
+            for (int rest = free; rest != 0; rest &= rest - 1) {
+                int from = Integer.numberOfTrailingZeros(rest);
+                if (PylosBitBoard.canMoveUp(from, to)) {
+                    afterMove(own & ~(1 << from) | 1 << to, other, to, darkToMove, visitor);
+                }
+            }
+        }
+    }
+
+    private static void afterMove(int own, int other, int to, boolean darkToMove, Visitor visitor) {
+        if (PylosBitBoard.isSquare(own, to)) {
+            removeFirst(own, other, darkToMove, visitor, 2);
+        } else if (PylosBitBoard.reserves(own) == 0) {
+            visitor.loss(1);
+        } else {
+            child(own, other, darkToMove, visitor, 1);
+        }
+    }
+
+    private static void removeFirst(int own, int other, boolean darkToMove, Visitor visitor, int length) {
+        for (int rest = PylosBitBoard.free(own, own | other); rest != 0; rest &= rest - 1) {
+            removeSecond(own & ~(rest & -rest), other, darkToMove, visitor, length + 1);
+        }
+    }
+
+    private static void removeSecond(int own, int other, boolean darkToMove, Visitor visitor, int length) {
+        child(own, other, darkToMove, visitor, length);
+        for (int rest = PylosBitBoard.free(own, own | other); rest != 0; rest &= rest - 1) {
+            child(own & ~(rest & -rest), other, darkToMove, visitor, length);
+        }
+    }
+
+    private static void child(int own, int other, boolean darkToMove, Visitor visitor, int length) {
+        if (darkToMove) {
+            visitor.child(other, own, false, length);
+        } else {
+            visitor.child(own, other, true, length);
+        }
+    }
+}
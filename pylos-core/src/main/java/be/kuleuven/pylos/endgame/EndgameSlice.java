@@ -0,0 +1,146 @@
+package be.kuleuven.pylos.endgame;
+
+import be.kuleuven.pylos.game.PylosBitBoard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * All positions with a given number of reserves per color, light to move and dark to move, in MOVE state.
+ * <p>
+ * A position is ranked by the shape of the occupied locations (index in the sorted array of valid shapes) and the
+ * placement of the light spheres within that shape (colex rank of the light subset), so that
+ * index = (shape * nColorings + coloring) * 2 + (dark to move ? 1 : 0)
+ */
+final class EndgameSlice {
+
+    static final long[][] BINOMIAL = new long[PylosBitBoard.N_LOCATIONS + 1][PylosBitBoard.N_LOCATIONS + 1];
+
+    static {
+        for (int n = 0; n <= PylosBitBoard.N_LOCATIONS; n++) {
+            BINOMIAL[n][0] = 1;
+            for (int k = 1; k <= n; k++) BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+        }
+    }
+
+    /* locations per level, and the number of locations from a level up */
+    private static final int[] LEVELS = new int[4];
+    private static final int[] CAPACITY = new int[LEVELS.length + 1];
+
+    static {
+        for (int location = 0; location < PylosBitBoard.N_LOCATIONS; location++) LEVELS[PylosBitBoard.Z[location]] |= 1 << location;
+        for (int z = LEVELS.length - 1; z >= 0; z--) CAPACITY[z] = CAPACITY[z + 1] + Integer.bitCount(LEVELS[z]);
+    }
+
+    final int lightReserves;
+    final int darkReserves;
+    final int nLight;
+    final int[] shapes;
+    final long nColorings;
+    final long size;
+
+    EndgameSlice(int lightReserves, int darkReserves, int[] shapes) {
+        this.lightReserves = lightReserves;
+        this.darkReserves = darkReserves;
+        this.nLight = PylosBitBoard.SPHERES_PER_PLAYER - lightReserves;
+        this.shapes = shapes;
+        int nSpheres = 2 * PylosBitBoard.SPHERES_PER_PLAYER - lightReserves - darkReserves;
+        this.nColorings = BINOMIAL[nSpheres][nLight];
+        this.size = shapes.length * nColorings * 2;
+    }
+
+    static EndgameSlice create(int lightReserves, int darkReserves) {
+        return new EndgameSlice(lightReserves, darkReserves, shapes(2 * PylosBitBoard.SPHERES_PER_PLAYER - lightReserves - darkReserves));
+    }
+
+    /**
+     * returns the index of a position of this slice, or -1 if its shape is not in the slice
+     *
+     * @param light
+     * @param dark
+     * @param darkToMove
+     * @return
+     */
+    long index(int light, int dark, boolean darkToMove) {
+        int occupied = light | dark;
+        int shape = Arrays.binarySearch(shapes, occupied);
+        if (shape < 0) return -1;
+        return ((long) shape * nColorings + rank(Integer.compress(light, occupied))) * 2 + (darkToMove ? 1 : 0);
+    }
+
+    /**
+     * returns the colex rank of 'subset' among all subsets with the same number of bits
+     *
+     * @param subset
+     * @return
+     */
+    static long rank(int subset) {
+        long rank = 0;
+        int i = 1;
+        for (int rest = subset; rest != 0; rest &= rest - 1) {
+            rank += BINOMIAL[Integer.numberOfTrailingZeros(rest)][i++];
+        }
+        return rank;
+    }
+
+    /**
+     * returns the subset of 'n' bits with colex rank 'rank'
+     *
+     * @param rank
+     * @param n
+     * @return
+     */
+    static int unrank(long rank, int n) {
+        int subset = 0;
+        int c = PylosBitBoard.N_LOCATIONS;
+        for (int i = n; i > 0; i--) {
+            while (BINOMIAL[c][i] > rank) c--;
+            subset |= 1 << c;
+            rank -= BINOMIAL[c][i];
+        }
+        return subset;
+    }
+
+    /**
+     * returns the next subset with the same number of bits in colex order (Gosper's hack)
+     *
+     * @param subset not 0
+     * @return
+     */
+    static int next(int subset) {
+        int lowest = subset & -subset;
+        int ripple = subset + lowest;
+        return (((ripple ^ subset) >>> 2) / lowest) | ripple;
+    }
+
+    /**
+     * returns all occupied masks with 'nSpheres' spheres in which every sphere is supported, sorted
+     *
+     * @param nSpheres
+     * @return
+     */
+    static int[] shapes(int nSpheres) {
+        List<Integer> shapes = new ArrayList<>();
+        collect(0, 0, nSpheres, shapes);
+        int[] result = new int[shapes.size()];
+        for (int i = 0; i < result.length; i++) result[i] = shapes.get(i);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /* adds all supported subsets of level 'z' and up to 'occupied', level by level */
+    private static void collect(int z, int occupied, int nSpheres, List<Integer> shapes) {
+        int missing = nSpheres - Integer.bitCount(occupied);
+        if (z == LEVELS.length || missing == 0) {
+            if (missing == 0) shapes.add(occupied);
+            return;
+        }
+        int candidates = LEVELS[z] & PylosBitBoard.usable(occupied);
+        if (Integer.bitCount(candidates) + CAPACITY[z + 1] < missing) return;
+        for (int subset = candidates; ; subset = (subset - 1) & candidates) {
+            if (Integer.bitCount(subset) <= missing) collect(z + 1, occupied | subset, nSpheres, shapes);
+            if (subset == 0) break;
+        }
+    }
+}
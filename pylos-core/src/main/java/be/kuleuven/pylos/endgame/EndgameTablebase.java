@@ -0,0 +1,224 @@
+package be.kuleuven.pylos.endgame;
+
+import be.kuleuven.pylos.game.*;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only access to the files written by EndgameGenerator, memory mapped so probing does not use the heap.
+ * <p>
+ * A probe returns an entry: the result for the player to move (UNKNOWN, WIN, LOSS or DRAW, see result(..)) and the
+ * number of plies until the end of the game with optimal play (see distance(..)), or NOT_AVAILABLE if the number of
+ * reserves of the position is not covered by the loaded files.
+ * MOVE positions are a single lookup, REMOVE_FIRST / REMOVE_SECOND positions combine the lookups of their options
+ * (UNKNOWN if one of them is not available).
+ * <p>
+ * Probing is thread safe.
+ */
+public class EndgameTablebase {
+
+    static final int MAGIC = 0x50594C54;   // "PYLT"
+    static final int VERSION = 1;
+    static final String FILE_PREFIX = "pylos-endgame-";
+    static final String FILE_SUFFIX = ".tb";
+
+    public static final int NOT_AVAILABLE = -1;
+    public static final int UNKNOWN = 0;
+    public static final int WIN = 1;
+    public static final int LOSS = 2;
+    public static final int DRAW = 3;
+
+    private final EndgameSlice[][] slices = new EndgameSlice[PylosBitBoard.SPHERES_PER_PLAYER + 1][PylosBitBoard.SPHERES_PER_PLAYER + 1];
+    private final MappedByteBuffer[][] buffers = new MappedByteBuffer[PylosBitBoard.SPHERES_PER_PLAYER + 1][PylosBitBoard.SPHERES_PER_PLAYER + 1];
+    private final int[][] offsets = new int[PylosBitBoard.SPHERES_PER_PLAYER + 1][PylosBitBoard.SPHERES_PER_PLAYER + 1];
+    private int nSlices;
+
+    /**
+     * maps all tablebase files in 'directory'
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public EndgameTablebase(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                map(file);
+            }
+        }
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    public static String fileName(int lightReserves, int darkReserves) {
+        return FILE_PREFIX + lightReserves + "-" + darkReserves + FILE_SUFFIX;
+    }
+
+    public static int result(int entry) {
+        return entry & 3;
+    }
+
+    public static int distance(int entry) {
+        return entry >>> 2;
+    }
+
+    public static String toString(int entry) {
+        if (entry == NOT_AVAILABLE) return "not available";
+        switch (result(entry)) {
+            case WIN:
+                return "win in " + distance(entry);
+            case LOSS:
+                return "loss in " + distance(entry);
+            case DRAW:
+                return "draw";
+            default:
+                return "unknown";
+        }
+    }
+
+    /**
+     * returns the number of mapped files
+     *
+     * @return
+     */
+    public int getNumberOfSlices() {
+        return nSlices;
+    }
+
+    /**
+     * returns true if positions with these reserves are in the tablebase
+     *
+     * @param lightReserves
+     * @param darkReserves
+     * @return
+     */
+    public boolean covers(int lightReserves, int darkReserves) {
+        return slices[lightReserves][darkReserves] != null;
+    }
+
+    /**
+     * returns the entry of the position on 'board' with 'color' to move in 'state'
+     *
+     * @param board
+     * @param state MOVE, REMOVE_FIRST or REMOVE_SECOND
+     * @param color
+     * @return
+     */
+    public int probe(PylosBoard board, PylosGameState state, PylosPlayerColor color) {
+        long boardState = board.toLong();
+        return probe(PylosBitBoard.light(boardState), PylosBitBoard.dark(boardState), color == PylosPlayerColor.DARK, phase(state));
+    }
+
+    /**
+     * returns the entry of a position given by the masks of both colors (see PylosBitBoard)
+     *
+     * @param light
+     * @param dark
+     * @param darkToMove
+     * @param phase      EndgameRules.MOVE, REMOVE_FIRST or REMOVE_SECOND
+     * @return
+     */
+    int probe(int light, int dark, boolean darkToMove, int phase) {
+        if (phase == EndgameRules.MOVE) return lookup(light, dark, darkToMove);
+
+        Combiner combiner = new Combiner();
+        EndgameRules.options(light, dark, darkToMove, phase, combiner);
+        return combiner.entry();
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    private int lookup(int light, int dark, boolean darkToMove) {
+        int lightReserves = PylosBitBoard.reserves(light);
+        int darkReserves = PylosBitBoard.reserves(dark);
+        EndgameSlice slice = slices[lightReserves][darkReserves];
+        if (slice == null) return NOT_AVAILABLE;
+        long index = slice.index(light, dark, darkToMove);
+        if (index < 0) return NOT_AVAILABLE;
+        return buffers[lightReserves][darkReserves].get(offsets[lightReserves][darkReserves] + (int) index) & 0xFF;
+    }
+
+    private void map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a tablebase file (version " + VERSION + "): " + file);
+            }
+            int lightReserves = buffer.getInt(8);
+            int darkReserves = buffer.getInt(12);
+            int[] shapes = new int[buffer.getInt(16)];
+            for (int i = 0; i < shapes.length; i++) shapes[i] = buffer.getInt(20 + 4 * i);
+
+            EndgameSlice slice = new EndgameSlice(lightReserves, darkReserves, shapes);
+            int offset = 20 + 4 * shapes.length;
+            if (channel.size() != (long) offset + slice.size) {
+                throw new IOException("Truncated tablebase file: " + file);
+            }
+            slices[lightReserves][darkReserves] = slice;
+            buffers[lightReserves][darkReserves] = buffer;
+            offsets[lightReserves][darkReserves] = offset;
+            nSlices++;
+        }
+    }
+
+    private static int phase(PylosGameState state) {
+        switch (state) {
+            case MOVE:
+                return EndgameRules.MOVE;
+            case REMOVE_FIRST:
+                return EndgameRules.REMOVE_FIRST;
+            case REMOVE_SECOND:
+                return EndgameRules.REMOVE_SECOND;
+            default:
+                throw new IllegalStateException("Game state is: " + state);
+        }
+    }
+
+    /* the best option for the player to move: the fastest win, otherwise a draw, otherwise the slowest loss */
+    private class Combiner implements EndgameRules.Visitor {
+
+        private int win = Integer.MAX_VALUE;
+        private int loss = -1;
+        private boolean draw;
+        private boolean unknown;
+
+        @Override
+        public void child(int light, int dark, boolean darkToMove, int length) {
+            int entry = lookup(light, dark, darkToMove);
+            if (entry == NOT_AVAILABLE) {
+                unknown = true;
+                return;
+            }
+            switch (result(entry)) {
+                case LOSS:
+                    win = Math.min(win, distance(entry) + length);
+                    break;
+                case WIN:
+                    loss = Math.max(loss, distance(entry) + length);
+                    break;
+                case DRAW:
+                    draw = true;
+                    break;
+                default:
+                    unknown = true;
+            }
+        }
+
+        @Override
+        public void loss(int length) {
+            loss = Math.max(loss, length);
+        }
+
+        private int entry() {
+            if (win != Integer.MAX_VALUE) return win << 2 | WIN;
+            if (unknown) return UNKNOWN;
+            if (draw) return DRAW;
+            return Math.max(loss, 0) << 2 | LOSS;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package be.kuleuven.pylos.endgame;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Array of 2 bit values in a memory mapped file, in segments of 1 GB so it can be larger than a single mapping.
+ * <p>
+ * Values are packed 4 per byte: concurrent writes are only safe if every thread writes its own bytes
+ * (ranges of indices that start and end at a multiple of 4).
+ */
+final class PackedStateStore implements Closeable {
+
+    private static final int SEGMENT_BITS = 30;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * opens 'file', or creates it with all values 0
+     *
+     * @param file
+     * @param size number of values
+     * @throws IOException
+     */
+    PackedStateStore(Path file, long size) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long bytes = (size + 3) / 4;
+        segments = new MappedByteBuffer[(int) ((bytes + SEGMENT_MASK) >>> SEGMENT_BITS)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_BITS;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(1L << SEGMENT_BITS, bytes - start));
+        }
+    }
+
+    int get(long index) {
+        long b = index >>> 2;
+        int shift = (int) (index & 3) << 1;
+        return (segments[(int) (b >>> SEGMENT_BITS)].get((int) (b & SEGMENT_MASK)) >>> shift) & 3;
+    }
+
+    void set(long index, int value) {
+        long b = index >>> 2;
+        int shift = (int) (index & 3) << 1;
+        MappedByteBuffer segment = segments[(int) (b >>> SEGMENT_BITS)];
+        int offset = (int) (b & SEGMENT_MASK);
+        segment.put(offset, (byte) (segment.get(offset) & ~(3 << shift) | value << shift));
+    }
+
+    /**
+     * writes all changes to the file
+     */
+    void force() {
+        for (MappedByteBuffer segment : segments) segment.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
@@ -0,0 +1,353 @@
+package be.kuleuven.pylos.endgame;
+
+import be.kuleuven.pylos.game.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+
+/**
+ * Strong solver of the game: win / loss / draw for every MOVE position, stored with 2 bits per position in a memory
+ * mapped file (PackedStateStore), so the solution does not have to fit in memory.
+ * <p>
+ * Positions are ranked per slice of reserves like the endgame tablebase (EndgameSlice), the slices are laid out one
+ * after the other by number of spheres on the board. Only canonical positions (smallest image over the 8 symmetries)
+ * are solved and probed, their symmetric images keep value 0 in the file.
+ * <p>
+ * Solving sweeps over the layers, from the fullest board down to the empty board (adds point to fuller boards, so most
+ * options are solved before the positions that lead to them), until a sweep resolves no more positions:
+ * a position is won if an option leads to a lost position of the opponent, lost if all options lead to won positions.
+ * The remaining positions are draws. Every layer is solved in parallel and followed by a checkpoint, an interrupted
+ * solver resumes at the layer after the last checkpoint.
+ * <p>
+ * The full game has 2.5e10 positions (6.2 GB), about 3.1e9 of them canonical. With MAX_RESERVES below 30 only the positions
+ * with at most that many reserves left are solved, options beyond it are unknown and no draws are claimed.
+ */
+public class PylosSolver implements Closeable {
+
+    public static final String STORE_FILE = "pylos-solver.bin";
+    public static final String CHECKPOINT_FILE = "pylos-solver.checkpoint";
+    private static final int CHUNK = 1 << 16;           // colorings per task, even so tasks write their own bytes
+
+    private final int MAX_RESERVES;
+    private final Path directory;
+    private final EndgameSlice[][] slices = new EndgameSlice[PylosBitBoard.SPHERES_PER_PLAYER + 1][PylosBitBoard.SPHERES_PER_PLAYER + 1];
+    private final long[][] offsets = new long[PylosBitBoard.SPHERES_PER_PLAYER + 1][PylosBitBoard.SPHERES_PER_PLAYER + 1];
+    private final long size;
+    private final PackedStateStore store;
+
+    /**
+     * opens (or creates) the solver files in 'directory'
+     *
+     * @param directory
+     * @param maxReserves 2 * 15 to solve the full game
+     * @throws IOException
+     */
+    public PylosSolver(Path directory, int maxReserves) throws IOException {
+        MAX_RESERVES = maxReserves;
+        this.directory = directory;
+
+        long offset = 0;
+        for (int nSpheres = PylosBitBoard.N_LOCATIONS - 1; nSpheres >= PylosBitBoard.N_LOCATIONS - maxReserves; nSpheres--) {
+            int[] shapes = EndgameSlice.shapes(nSpheres);
+            for (int lightReserves = 0; lightReserves <= PylosBitBoard.SPHERES_PER_PLAYER; lightReserves++) {
+                int darkReserves = PylosBitBoard.N_LOCATIONS - nSpheres - lightReserves;
+                if (darkReserves < 0 || darkReserves > PylosBitBoard.SPHERES_PER_PLAYER) continue;
+                EndgameSlice slice = new EndgameSlice(lightReserves, darkReserves, shapes);
+                slices[lightReserves][darkReserves] = slice;
+                offsets[lightReserves][darkReserves] = offset;
+                offset += (slice.size + 3) & ~3L;
+            }
+        }
+        this.size = offset;
+
+        Files.createDirectories(directory);
+        this.store = new PackedStateStore(directory.resolve(STORE_FILE), size);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int maxReserves = args.length > 0 ? Integer.parseInt(args[0]) : 2 * PylosBitBoard.SPHERES_PER_PLAYER;
+        Path directory = Paths.get(args.length > 1 ? args[1] : "solver");
+
+        try (PylosSolver solver = new PylosSolver(directory, maxReserves)) {
+            System.out.println("Positions: " + solver.size + " (" + solver.size / 4 / (1 << 20) + " MB)");
+            long start = System.currentTimeMillis();
+            solver.solve();
+            System.out.println("Solved in " + (System.currentTimeMillis() - start) / 1000.0 + " s");
+            solver.printSummary();
+        }
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    /**
+     * solves all positions, resuming from the last checkpoint if there is one
+     *
+     * @throws IOException
+     */
+    public void solve() throws IOException {
+        int firstLayer = PylosBitBoard.N_LOCATIONS - 1;
+        int lastLayer = PylosBitBoard.N_LOCATIONS - MAX_RESERVES;
+
+        Properties checkpoint = readCheckpoint();
+        int sweep = Integer.parseInt(checkpoint.getProperty("sweep", "0"));
+        int layer = Integer.parseInt(checkpoint.getProperty("layer", String.valueOf(firstLayer)));
+        long resolved = Long.parseLong(checkpoint.getProperty("resolved", "0"));
+        if (Boolean.parseBoolean(checkpoint.getProperty("done", "false"))) return;
+        if (!checkpoint.isEmpty()) System.out.println("Resuming sweep " + sweep + " at layer " + layer);
+
+        while (true) {
+            for (; layer >= lastLayer; layer--) {
+                long start = System.currentTimeMillis();
+                long layerResolved = solveLayer(layer);
+                resolved += layerResolved;
+                store.force();
+                writeCheckpoint(sweep, layer - 1, resolved, false);
+                System.out.println("sweep " + sweep + ", layer " + layer + ": " + layerResolved + " resolved, "
+                        + (System.currentTimeMillis() - start) / 1000.0 + " s");
+            }
+            if (resolved == 0) break;
+            sweep++;
+            layer = firstLayer;
+            resolved = 0;
+            writeCheckpoint(sweep, layer, resolved, false);
+        }
+
+        if (MAX_RESERVES == 2 * PylosBitBoard.SPHERES_PER_PLAYER) {
+            for (layer = firstLayer; layer >= lastLayer; layer--) markDraws(layer);
+        }
+        store.force();
+        writeCheckpoint(sweep, lastLayer - 1, 0, true);
+    }
+
+    /**
+     * returns the result (EndgameTablebase.WIN, LOSS, DRAW or UNKNOWN) for 'color' to move in 'state' on 'board'
+     *
+     * @param board
+     * @param state MOVE, REMOVE_FIRST or REMOVE_SECOND
+     * @param color
+     * @return
+     */
+    public int probe(PylosBoard board, PylosGameState state, PylosPlayerColor color) {
+        long boardState = board.toLong();
+        int light = PylosBitBoard.light(boardState);
+        int dark = PylosBitBoard.dark(boardState);
+        boolean darkToMove = color == PylosPlayerColor.DARK;
+        switch (state) {
+            case MOVE:
+                return lookup(light, dark, darkToMove);
+            case REMOVE_FIRST:
+                return combine(light, dark, darkToMove, EndgameRules.REMOVE_FIRST);
+            case REMOVE_SECOND:
+                return combine(light, dark, darkToMove, EndgameRules.REMOVE_SECOND);
+            default:
+                throw new IllegalStateException("Game state is: " + state);
+        }
+    }
+
+    public void printSummary() {
+        AtomicLongArray count = new AtomicLongArray(4);
+        for (EndgameSlice[] row : slices) {
+            for (EndgameSlice slice : row) {
+                if (slice == null) continue;
+                forEachPosition(slice, () -> (index, light, dark) -> {
+                    if (!isCanonical(light, dark)) return;
+                    count.incrementAndGet(store.get(index));
+                    count.incrementAndGet(store.get(index + 1));
+                });
+            }
+        }
+        System.out.println("Canonical positions: " + count.get(EndgameTablebase.WIN) + " won, " + count.get(EndgameTablebase.LOSS) + " lost, "
+                + count.get(EndgameTablebase.DRAW) + " drawn, " + count.get(EndgameTablebase.UNKNOWN) + " unknown");
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    private interface PositionTask {
+        /* 'index' is light to move, 'index' + 1 dark to move */
+        void run(long index, int light, int dark);
+    }
+
+    private long solveLayer(int nSpheres) {
+        AtomicLong resolved = new AtomicLong();
+        for (EndgameSlice slice : layer(nSpheres)) {
+            forEachPosition(slice, () -> {
+                Solve solve = new Solve();
+                return (index, light, dark) -> {
+                    if (store.get(index) != 0 && store.get(index + 1) != 0) return;
+                    if (!isCanonical(light, dark)) return;
+                    for (int mover = 0; mover < 2; mover++) {
+                        if (store.get(index + mover) != 0) continue;
+                        int result = solve.result(light, dark, mover == 1);
+                        if (result != EndgameTablebase.UNKNOWN) {
+                            store.set(index + mover, result);
+                            resolved.incrementAndGet();
+                        }
+                    }
+                };
+            });
+        }
+        return resolved.get();
+    }
+
+    private void markDraws(int nSpheres) {
+        for (EndgameSlice slice : layer(nSpheres)) {
+            forEachPosition(slice, () -> (index, light, dark) -> {
+                if (!isCanonical(light, dark)) return;
+                for (int mover = 0; mover < 2; mover++) {
+                    if (store.get(index + mover) == EndgameTablebase.UNKNOWN) store.set(index + mover, EndgameTablebase.DRAW);
+                }
+            });
+        }
+    }
+
+    /* runs a task on all colorings of all shapes of 'slice', in parallel chunks that write their own bytes,
+     * with a task per chunk */
+    private void forEachPosition(EndgameSlice slice, Supplier<PositionTask> tasks) {
+        long offset = offsets[slice.lightReserves][slice.darkReserves];
+        long nColorings = slice.shapes.length * slice.nColorings;
+        long nChunks = (nColorings + CHUNK - 1) / CHUNK;
+        int nSpheres = Integer.bitCount(slice.shapes[0]);
+        LongStream.range(0, nChunks).parallel().forEach(chunk -> {
+            PositionTask task = tasks.get();
+            long first = chunk * CHUNK;
+            long end = Math.min(first + CHUNK, nColorings);
+            int shape = (int) (first / slice.nColorings);
+            int subset = EndgameSlice.unrank(first % slice.nColorings, slice.nLight);
+            for (long coloring = first; coloring < end; coloring++) {
+                if (coloring == (shape + 1) * slice.nColorings) {
+                    shape++;
+                    subset = (1 << slice.nLight) - 1;
+                }
+                int occupied = slice.shapes[shape];
+                int light = Integer.expand(subset, occupied);
+                task.run(offset + coloring * 2, light, occupied & ~light);
+                if (subset != 0 && slice.nLight < nSpheres) subset = EndgameSlice.next(subset);
+            }
+        });
+    }
+
+    private List<EndgameSlice> layer(int nSpheres) {
+        List<EndgameSlice> layer = new ArrayList<>();
+        for (int lightReserves = 0; lightReserves <= PylosBitBoard.SPHERES_PER_PLAYER; lightReserves++) {
+            int darkReserves = PylosBitBoard.N_LOCATIONS - nSpheres - lightReserves;
+            if (darkReserves >= 0 && darkReserves <= PylosBitBoard.SPHERES_PER_PLAYER && slices[lightReserves][darkReserves] != null) {
+                layer.add(slices[lightReserves][darkReserves]);
+            }
+        }
+        return layer;
+    }
+
+    private static boolean isCanonical(int light, int dark) {
+        return PylosBitBoard.isCanonical(PylosBitBoard.toLong(light, dark));
+    }
+
+    /* returns the value of a MOVE position, UNKNOWN if it is outside the solved positions */
+    private int lookup(int light, int dark, boolean darkToMove) {
+        int lightReserves = PylosBitBoard.reserves(light);
+        int darkReserves = PylosBitBoard.reserves(dark);
+        if (lightReserves + darkReserves > MAX_RESERVES || lightReserves + darkReserves == 0) return EndgameTablebase.UNKNOWN;
+        long canonical = PylosBitBoard.canonical(PylosBitBoard.toLong(light, dark));
+        EndgameSlice slice = slices[lightReserves][darkReserves];
+        long index = slice.index(PylosBitBoard.light(canonical), PylosBitBoard.dark(canonical), darkToMove);
+        return store.get(offsets[lightReserves][darkReserves] + index);
+    }
+
+    private int combine(int light, int dark, boolean darkToMove, int phase) {
+        Solve solve = new Solve();
+        EndgameRules.options(light, dark, darkToMove, phase, solve);
+        if (solve.win) return EndgameTablebase.WIN;
+        if (solve.unknown) return EndgameTablebase.UNKNOWN;
+        if (solve.draw) return EndgameTablebase.DRAW;
+        return EndgameTablebase.LOSS;
+    }
+
+    private Properties readCheckpoint() throws IOException {
+        Properties checkpoint = new Properties();
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                checkpoint.load(reader);
+            }
+            if (Integer.parseInt(checkpoint.getProperty("maxReserves")) != MAX_RESERVES) {
+                throw new IOException("Checkpoint in " + directory + " is for another number of reserves");
+            }
+        }
+        return checkpoint;
+    }
+
+    private void writeCheckpoint(int sweep, int layer, long resolved, boolean done) throws IOException {
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty("maxReserves", String.valueOf(MAX_RESERVES));
+        checkpoint.setProperty("sweep", String.valueOf(sweep));
+        checkpoint.setProperty("layer", String.valueOf(layer));
+        checkpoint.setProperty("resolved", String.valueOf(resolved));
+        checkpoint.setProperty("done", String.valueOf(done));
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp)) {
+            checkpoint.store(writer, "PylosSolver");
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /* combines the values of the options of a position (every child is the opponent to move) */
+    private class Solve implements EndgameRules.Visitor {
+
+        private boolean win;
+        private boolean allLost = true;
+        private boolean draw;
+        private boolean unknown;
+
+        private int result(int light, int dark, boolean darkToMove) {
+            win = false;
+            allLost = true;
+            draw = false;
+            unknown = false;
+            EndgameRules.options(light, dark, darkToMove, EndgameRules.MOVE, this);
+            if (win) return EndgameTablebase.WIN;
+            if (allLost) return EndgameTablebase.LOSS;
+            return EndgameTablebase.UNKNOWN;
+        }
+
+        @Override
+        public void child(int light, int dark, boolean darkToMove, int length) {
+            if (win) return;
+            switch (lookup(light, dark, darkToMove)) {
+                case EndgameTablebase.LOSS:
+                    win = true;
+                    break;
+                case EndgameTablebase.WIN:
+                    break;
+                case EndgameTablebase.DRAW:
+                    draw = true;
+                    allLost = false;
+                    break;
+                default:
+                    unknown = true;
+                    allLost = false;
+            }
+        }
+
+        @Override
+        public void loss(int length) {
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package be.kuleuven.pylos.game;
+
+/**
+ * Primitive view on the board, for code that has to handle millions of positions (tablebases, playouts, solvers).
+ * <p>
+ * A position is described by two 30 bit masks, one per color, bit i is the location with PylosLocation.ID i.
+ * The masks convert to and from the PylosBoard.toLong() representation with toLong(..), light(..) and dark(..).
+ * All tables are derived from a PylosBoard, so they follow PylosGame.ADVANCED_GAME_MODE.
+ */
+public final class PylosBitBoard {
+
+    public static final int N_LOCATIONS = 30;
+    public static final int SPHERES_PER_PLAYER = 15;
+    public static final int ALL = (1 << N_LOCATIONS) - 1;
+
+    private static final long LIGHT_BITS = 0x0555_5555_5555_5555L;
+    private static final long DARK_BITS = LIGHT_BITS << 1;
+
+    /* per location: mask of the supporting locations, of the locations resting on it, and its z level */
+    public static final int[] BELOW = new int[N_LOCATIONS];
+    public static final int[] ABOVE = new int[N_LOCATIONS];
+    public static final int[] Z = new int[N_LOCATIONS];
+    /* per location: masks of all squares the location is part of */
+    public static final int[][] SQUARES = new int[N_LOCATIONS][];
+    /* all squares */
+    public static final int[] ALL_SQUARES;
+    /* the 8 symmetries of the board (rotations and mirrors): SYMMETRIES[s][id] is the image of location id */
+    public static final int N_SYMMETRIES = 8;
+    public static final int[][] SYMMETRIES = new int[N_SYMMETRIES][N_LOCATIONS];
+    /* INVERSE[s]: the symmetry that undoes symmetry s */
+    public static final int[] INVERSE = new int[N_SYMMETRIES];
+    /* SYMMETRY_TABLES[s][b][byte]: image of the locations in 'byte' (bits 8b..8b+7 of a mask) under symmetry s */
+    private static final int[][][] SYMMETRY_TABLES = new int[N_SYMMETRIES][4][256];
+
+    static {
+        PylosBoard board = new PylosBoard();
+        for (PylosLocation location : board.getLocations()) {
+            Z[location.ID] = location.Z;
+            for (PylosLocation below : location.getBelow()) BELOW[location.ID] |= 1 << below.ID;
+            for (PylosLocation above : location.getAbove()) ABOVE[location.ID] |= 1 << above.ID;
+            SQUARES[location.ID] = new int[location.getSquares().size()];
+            for (int i = 0; i < SQUARES[location.ID].length; i++) {
+                SQUARES[location.ID][i] = mask(location.getSquares().get(i));
+            }
+        }
+        PylosSquare[] squares = board.getAllSquares();
+        ALL_SQUARES = new int[squares.length];
+        for (int i = 0; i < squares.length; i++) ALL_SQUARES[i] = mask(squares[i]);
+        for (PylosLocation location : board.getLocations()) {
+            int n = 4 - location.Z;
+            int x = location.X, y = location.Y, z = location.Z;
+            SYMMETRIES[0][location.ID] = board.getBoardLocation(x, y, z).ID;
+            SYMMETRIES[1][location.ID] = board.getBoardLocation(n - 1 - y, x, z).ID;
+            SYMMETRIES[2][location.ID] = board.getBoardLocation(n - 1 - x, n - 1 - y, z).ID;
+            SYMMETRIES[3][location.ID] = board.getBoardLocation(y, n - 1 - x, z).ID;
+            SYMMETRIES[4][location.ID] = board.getBoardLocation(y, x, z).ID;
+            SYMMETRIES[5][location.ID] = board.getBoardLocation(n - 1 - x, y, z).ID;
+            SYMMETRIES[6][location.ID] = board.getBoardLocation(x, n - 1 - y, z).ID;
+            SYMMETRIES[7][location.ID] = board.getBoardLocation(n - 1 - y, n - 1 - x, z).ID;
+        }
+        for (int symmetry = 0; symmetry < N_SYMMETRIES; symmetry++) {
+            for (int inverse = 0; inverse < N_SYMMETRIES; inverse++) {
+                boolean identity = true;
+                for (int location = 0; location < N_LOCATIONS && identity; location++) {
+                    identity = SYMMETRIES[inverse][SYMMETRIES[symmetry][location]] == location;
+                }
+                if (identity) INVERSE[symmetry] = inverse;
+            }
+        }
+        for (int symmetry = 0; symmetry < N_SYMMETRIES; symmetry++) {
+            for (int b = 0; b < 4; b++) {
+                for (int value = 0; value < 256; value++) {
+                    int image = 0;
+                    for (int bit = 0; bit < 8 && 8 * b + bit < N_LOCATIONS; bit++) {
+                        if ((value & (1 << bit)) != 0) image |= 1 << SYMMETRIES[symmetry][8 * b + bit];
+                    }
+                    SYMMETRY_TABLES[symmetry][b][value] = image;
+                }
+            }
+        }
+    }
+
+    private PylosBitBoard() {
+    }
+
+    /* conversion ------------------------------------------------------------------------------------------------- */
+
+    public static int light(long state) {
+        return (int) Long.compress(state, LIGHT_BITS);
+    }
+
+    public static int dark(long state) {
+        return (int) Long.compress(state, DARK_BITS);
+    }
+
+    public static int mask(long state, PylosPlayerColor color) {
+        return color == PylosPlayerColor.LIGHT ? light(state) : dark(state);
+    }
+
+    public static long toLong(int light, int dark) {
+        return Long.expand(light, LIGHT_BITS) | Long.expand(dark, DARK_BITS);
+    }
+
+    public static int reserves(int own) {
+        return SPHERES_PER_PLAYER - Integer.bitCount(own);
+    }
+
+    /* symmetry --------------------------------------------------------------------------------------------------- */
+
+    /**
+     * returns the image of the locations in 'mask' under 'symmetry'
+     *
+     * @param mask
+     * @param symmetry
+     * @return
+     */
+    public static int transform(int mask, int symmetry) {
+        int[][] table = SYMMETRY_TABLES[symmetry];
+        return table[0][mask & 0xFF] | table[1][(mask >>> 8) & 0xFF] | table[2][(mask >>> 16) & 0xFF] | table[3][mask >>> 24];
+    }
+
+    /**
+     * returns the image of a board state (PylosBoard.toLong()) under 'symmetry'
+     *
+     * @param state
+     * @param symmetry
+     * @return
+     */
+    public static long transform(long state, int symmetry) {
+        return toLong(transform(light(state), symmetry), transform(dark(state), symmetry));
+    }
+
+    /**
+     * returns the smallest image of a board state over all symmetries, equal for all symmetric states
+     *
+     * @param state
+     * @return
+     */
+    public static long canonical(long state) {
+        int light = light(state);
+        int dark = dark(state);
+        long canonical = state;
+        for (int symmetry = 1; symmetry < N_SYMMETRIES; symmetry++) {
+            canonical = Math.min(canonical, toLong(transform(light, symmetry), transform(dark, symmetry)));
+        }
+        return canonical;
+    }
+
+    /**
+     * returns the symmetry that maps a board state to its canonical image, the lowest one if there are several
+     *
+     * @param state
+     * @return
+     */
+    public static int canonicalSymmetry(long state) {
+        int light = light(state);
+        int dark = dark(state);
+        long canonical = state;
+        int canonicalSymmetry = 0;
+        for (int symmetry = 1; symmetry < N_SYMMETRIES; symmetry++) {
+            long image = toLong(transform(light, symmetry), transform(dark, symmetry));
+            if (image < canonical) {
+                canonical = image;
+                canonicalSymmetry = symmetry;
+            }
+        }
+        return canonicalSymmetry;
+    }
+
+    /**
+     * returns true if no symmetric image of the board state is smaller, so canonical(state) == state
+     *
+     * @param state
+     * @return
+     */
+    public static boolean isCanonical(long state) {
+        int light = light(state);
+        int dark = dark(state);
+        for (int symmetry = 1; symmetry < N_SYMMETRIES; symmetry++) {
+            if (toLong(transform(light, symmetry), transform(dark, symmetry)) < state) return false;
+        }
+        return true;
+    }
+
+    /* rules ------------------------------------------------------------------------------------------------------ */
+
+    /**
+     * returns true if 'location' is free and fully supported
+     *
+     * @param location
+     * @param occupied
+     * @return
+     */
+    public static boolean isUsable(int location, int occupied) {
+        return (occupied & (1 << location)) == 0 && (occupied & BELOW[location]) == BELOW[location];
+    }
+
+    /**
+     * returns the mask of all free and fully supported locations
+     *
+     * @param occupied
+     * @return
+     */
+    public static int usable(int occupied) {
+        return ~occupied & (LEVEL_0 | supported(occupied)) & ALL;
+    }
+
+    /**
+     * returns the spheres of 'own' that have no spheres above them (they can be removed or moved)
+     *
+     * @param own
+     * @param occupied
+     * @return
+     */
+    public static int free(int own, int occupied) {
+        return own & ~covered(occupied);
+    }
+
+    /**
+     * returns true if a free sphere at 'from' can be moved to the usable location 'to'
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public static boolean canMoveUp(int from, int to) {
+        return Z[from] < Z[to] && (BELOW[to] & (1 << from)) == 0;
+    }
+
+    /**
+     * returns true if 'own', which contains 'location', has a full square through 'location'
+     *
+     * @param own
+     * @param location
+     * @return
+     */
+    public static boolean isSquare(int own, int location) {
+        for (int square : SQUARES[location]) {
+            if ((own & square) == square) return true;
+        }
+        return false;
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    /* the locations of a level are numbered x * n + y from the first id of the level (see PylosBoard), so the four
+     * locations below (x, y) of the next level are at offsets 0, 1, n and n + 1 of (x, y) */
+
+    /* locations above the supported ones: all but the last row and column of a level */
+    private static final int LEVEL_0 = 0xFFFF;
+    private static final int CORNERS_0 = 0x777;           // x < 3 and y < 3 of level 0
+    private static final int CORNERS_1 = 0x1B;            // x < 2 and y < 2 of level 1
+
+    /* returns the locations of levels 1 to 3 of which all four locations below are occupied */
+    private static int supported(int occupied) {
+        int level0 = occupied & LEVEL_0;
+        int level1 = (occupied >>> 16) & 0x1FF;
+        int level2 = (occupied >>> 25) & 0xF;
+        int supported1 = Integer.compress(level0 & level0 >>> 1 & level0 >>> 4 & level0 >>> 5, CORNERS_0);
+        int supported2 = Integer.compress(level1 & level1 >>> 1 & level1 >>> 3 & level1 >>> 4, CORNERS_1);
+        int supported3 = level2 == 0xF ? 1 : 0;
+        return supported1 << 16 | supported2 << 25 | supported3 << 29;
+    }
+
+    /* returns the locations of levels 0 to 2 that have a sphere above them */
+    private static int covered(int occupied) {
+        int above0 = Integer.expand(occupied >>> 16, CORNERS_0);
+        int above1 = Integer.expand(occupied >>> 25, CORNERS_1);
+        int covered0 = above0 | above0 << 1 | above0 << 4 | above0 << 5;
+        int covered1 = above1 | above1 << 1 | above1 << 3 | above1 << 4;
+        int covered2 = (occupied >>> 29) * 0xF;
+        return covered0 | covered1 << 16 | covered2 << 25;
+    }
+
+    private static int mask(PylosSquare square) {
+        int mask = 0;
+        for (PylosLocation location : square.getLocations()) mask |= 1 << location.ID;
+        return mask;
+    }
+}
@@ -158,7 +158,7 @@ public class PylosBoard {
                 ArrayList<PylosLocation> yList = new ArrayList<>();
                 xList.add(yList);
                 for (int y = 0; y < size - z; y++) {
-                    PylosLocation pylosLocation = new PylosLocation(x, y, z);
+                    PylosLocation pylosLocation = new PylosLocation(x, y, z, allLocId);
                     yList.add(pylosLocation);
                     allLocations[allLocId++] = pylosLocation;
                 }
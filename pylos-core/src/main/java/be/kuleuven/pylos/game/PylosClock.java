@@ -0,0 +1,156 @@
+package be.kuleuven.pylos.game;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The clock of one PylosGame with a PylosTimeControl, measured with System.nanoTime(). Before every call of a player
+ * the game starts the clock, which returns the deadline of the call: the end of the move budget or of what is left
+ * of the game budget, whatever comes first. The player gets it through PylosPlayer.getDeadline().
+ * <p>
+ * A call that is still running 'grace' after its deadline is interrupted by a watchdog thread, shared by all
+ * clocks. When the call returns, or throws because it was interrupted, the game forfeits the player on time. A call
+ * that returns too late without being interrupted (the watchdog runs late) is forfeited as well.
+ * <p>
+ * The interrupt only stops a player that checks it, through PylosPlayer.isOutOfTime() (the search players of the
+ * codes package do). Any other player still loses on time, but keeps its thread busy until its call returns.
+ * <p>
+ * The time of every call is recorded per player (see getCallTimes(..)). The clock is used by the game's thread, the
+ * getters are meant for after the game.
+ */
+public class PylosClock {
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "pylos-clock-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final PylosTimeControl timeControl;
+    private final long moveNanos;                       // Long.MAX_VALUE for no limit
+    private final long gameNanos;
+    private final long graceNanos;
+
+    private final List<Long> lightCalls = new ArrayList<>();
+    private final List<Long> darkCalls = new ArrayList<>();
+    private long lightUsed;
+    private long darkUsed;
+
+    /* the call in progress */
+    private long callStart;
+    private long callLimit;                             // nanoseconds after callStart the call is forfeited
+    private ScheduledFuture<?> alarm;
+    private Thread caller;                              // guarded by this, with overrun
+    private boolean overrun;
+
+    public PylosClock(PylosTimeControl timeControl) {
+        this.timeControl = timeControl;
+        this.moveNanos = timeControl.getMoveMillis() > 0 ? TimeUnit.MILLISECONDS.toNanos(timeControl.getMoveMillis()) : Long.MAX_VALUE;
+        this.gameNanos = timeControl.getGameMillis() > 0 ? TimeUnit.MILLISECONDS.toNanos(timeControl.getGameMillis()) : Long.MAX_VALUE;
+        this.graceNanos = TimeUnit.MILLISECONDS.toNanos(timeControl.getGraceMillis());
+    }
+
+    /* game interface --------------------------------------------------------------------------------------------- */
+
+    /**
+     * starts a call of 'color' on the calling thread, arms the watchdog
+     *
+     * @param color
+     * @return the deadline of the call (System.nanoTime()), Long.MAX_VALUE for no limit
+     */
+    long startCall(PylosPlayerColor color) {
+        long budget = moveNanos;
+        if (gameNanos != Long.MAX_VALUE) budget = Math.min(budget, Math.max(0, gameNanos - getUsed(color)));
+        callStart = System.nanoTime();
+        if (budget == Long.MAX_VALUE) {
+            callLimit = Long.MAX_VALUE;
+            return Long.MAX_VALUE;
+        }
+        callLimit = budget + graceNanos;
+        synchronized (this) {
+            caller = Thread.currentThread();
+            overrun = false;
+        }
+        alarm = WATCHDOG.schedule(this::interruptCaller, callLimit, TimeUnit.NANOSECONDS);
+        return callStart + budget;
+    }
+
+    /**
+     * stops the call of 'color', records its time
+     *
+     * @param color
+     * @return true if the call overran its budget by more than the grace period
+     */
+    boolean stopCall(PylosPlayerColor color) {
+        long time = System.nanoTime() - callStart;
+        if (color == PylosPlayerColor.LIGHT) {
+            lightCalls.add(time);
+            lightUsed += time;
+        } else {
+            darkCalls.add(time);
+            darkUsed += time;
+        }
+        if (alarm == null) return false;
+        alarm.cancel(false);
+        alarm = null;
+        boolean interrupted;
+        synchronized (this) {
+            caller = null;
+            interrupted = overrun;
+        }
+        /* the watchdog's interrupt is not meant for the next call */
+        if (interrupted) Thread.interrupted();
+        return interrupted || time > callLimit;
+    }
+
+    /* watchdog thread */
+    private synchronized void interruptCaller() {
+        if (caller != null) {
+            overrun = true;
+            caller.interrupt();
+        }
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    public PylosTimeControl getTimeControl() {
+        return timeControl;
+    }
+
+    /**
+     * returns the time of every call of 'color' so far, in nanoseconds, in the order of the calls
+     *
+     * @param color
+     * @return
+     */
+    public List<Long> getCallTimes(PylosPlayerColor color) {
+        return Collections.unmodifiableList(color == PylosPlayerColor.LIGHT ? lightCalls : darkCalls);
+    }
+
+    /**
+     * returns the time 'color' used so far, in nanoseconds
+     *
+     * @param color
+     * @return
+     */
+    public long getUsed(PylosPlayerColor color) {
+        return color == PylosPlayerColor.LIGHT ? lightUsed : darkUsed;
+    }
+
+    /**
+     * returns the longest call of 'color' so far, in nanoseconds
+     *
+     * @param color
+     * @return
+     */
+    public long getMaxCallTime(PylosPlayerColor color) {
+        long max = 0;
+        for (long time : getCallTimes(color)) max = Math.max(max, time);
+        return max;
+    }
+}
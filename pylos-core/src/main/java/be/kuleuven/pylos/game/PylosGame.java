@@ -29,12 +29,16 @@ public class PylosGame implements PylosGameIF {
     private PylosPlayer winner = null;
     private int nReservesOfWinner = -1;
     private boolean abortFlag = false;
+    private boolean pondering = false;
 
     private List<Long> boardHistory;
 
     private int lightSquaresCompleted = 0;
     private int darkSquaresCompleted = 0;
 
+    private PylosClock clock;                           // null without a time control
+    private PylosPlayer lostOnTime;
+
     /* constructor ------------------------------------------------------------------------------------------------ */
 
 //	public PylosGame(PylosBoard board, PylosPlayer playerLight, PylosPlayer playerDark) {
@@ -76,6 +80,52 @@ public class PylosGame implements PylosGameIF {
         abortFlag = true;
     }
 
+    /**
+     * lets the player that is not to move think on a copy of the board while the other player is called
+     * (see PylosPlayer.startPondering(..)), a player is only called after its own pondering has stopped
+     *
+     * @param pondering
+     */
+    public void setPondering(boolean pondering) {
+        this.pondering = pondering;
+    }
+
+    /**
+     * times the calls of the players with a new PylosClock, a player that overruns its budget loses, before play()
+     *
+     * @param timeControl null for no time control
+     */
+    public void setTimeControl(PylosTimeControl timeControl) {
+        this.clock = timeControl == null ? null : new PylosClock(timeControl);
+    }
+
+    /**
+     * returns the clock of the game, with the time of every call, or null if it has no time control
+     *
+     * @return
+     */
+    public PylosClock getClock() {
+        return clock;
+    }
+
+    /**
+     * returns the player that lost the game on time, null if none did
+     *
+     * @return
+     */
+    public PylosPlayer getLostOnTime() {
+        return lostOnTime;
+    }
+
+    /**
+     * returns the player that is to move, or that made the last move once the game is finished
+     *
+     * @return
+     */
+    public PylosPlayer getCurrentPlayer() {
+        return currentPlayer;
+    }
+
     /* player interface ------------------------------------------------------------------------------------------- */
 
     @Override
@@ -210,33 +260,20 @@ public class PylosGame implements PylosGameIF {
 
     private void doStep() throws PylosGameCrashedException {
         PylosPlayer cPlayer = currentPlayer;
+        if (pondering) cPlayer.OTHER.startPondering(board.getClone(), currentState);
         try {
-            switch (currentState) {
-                case MOVE:
-                    gameObserver.aboutToCall(PylosGameState.MOVE, currentPlayer);
-                    gameObserver.println(currentPlayer + ": add/move");
-                    currentPlayer.doMove(this, board);
-                    gameObserver.callPerformed();
-                    assert isFinished() || cPlayer != currentPlayer || currentState == PylosGameState.REMOVE_FIRST : "Player " + cPlayer + " did not perform an add or move";
-                    break;
-                case REMOVE_FIRST:
-                    gameObserver.aboutToCall(PylosGameState.REMOVE_FIRST, currentPlayer);
-                    gameObserver.println(currentPlayer + ": remove 1st");
-                    currentPlayer.doRemove(this, board);
-                    gameObserver.callPerformed();
-                    assert isFinished() || currentState == PylosGameState.REMOVE_SECOND : "Player " + cPlayer + " did not removeSphere a sphere";
-                    break;
-                case REMOVE_SECOND:
-                    gameObserver.aboutToCall(PylosGameState.REMOVE_SECOND, currentPlayer);
-                    gameObserver.println(currentPlayer + ": remove 2nd");
-                    currentPlayer.doRemoveOrPass(this, board);
-                    gameObserver.callPerformed();
-                    assert isFinished() || currentPlayer != cPlayer : "Player " + cPlayer + " did not removeSphere a sphere nor passed";
-                    break;
-                case COMPLETED:
-                case ABORTED:
-                case DRAW:
-                    throw new IllegalStateException("The game is finished... " + currentState);
+            if (clock != null) cPlayer.setDeadline(clock.startCall(cPlayer.PLAYER_COLOR));
+            Exception crash = null;
+            try {
+                callPlayer(cPlayer);
+            } catch (Exception e) {
+                crash = e;
+            }
+            if (clock != null && clock.stopCall(cPlayer.PLAYER_COLOR)) {
+                /* a player that throws because the watchdog interrupted it lost on time, it didn't crash */
+                loseOnTime(cPlayer);
+            } else if (crash != null) {
+                throw crash;
             }
             if (abortFlag) setState(PylosGameState.ABORTED);
             if (isFinished()) {
@@ -246,6 +283,49 @@ public class PylosGame implements PylosGameIF {
         catch(Exception e){
             throw new PylosGameCrashedException(currentPlayer, currentPlayer.OTHER, e);
         }
+        finally {
+            if (pondering) cPlayer.OTHER.stopPondering();
+        }
+    }
+
+    private void callPlayer(PylosPlayer cPlayer) {
+        switch (currentState) {
+            case MOVE:
+                gameObserver.aboutToCall(PylosGameState.MOVE, currentPlayer);
+                gameObserver.println(currentPlayer + ": add/move");
+                currentPlayer.doMove(this, board);
+                gameObserver.callPerformed();
+                assert isFinished() || cPlayer != currentPlayer || currentState == PylosGameState.REMOVE_FIRST : "Player " + cPlayer + " did not perform an add or move";
+                break;
+            case REMOVE_FIRST:
+                gameObserver.aboutToCall(PylosGameState.REMOVE_FIRST, currentPlayer);
+                gameObserver.println(currentPlayer + ": remove 1st");
+                currentPlayer.doRemove(this, board);
+                gameObserver.callPerformed();
+                assert isFinished() || currentState == PylosGameState.REMOVE_SECOND : "Player " + cPlayer + " did not removeSphere a sphere";
+                break;
+            case REMOVE_SECOND:
+                gameObserver.aboutToCall(PylosGameState.REMOVE_SECOND, currentPlayer);
+                gameObserver.println(currentPlayer + ": remove 2nd");
+                currentPlayer.doRemoveOrPass(this, board);
+                gameObserver.callPerformed();
+                assert isFinished() || currentPlayer != cPlayer : "Player " + cPlayer + " did not removeSphere a sphere nor passed";
+                break;
+            case COMPLETED:
+            case ABORTED:
+            case DRAW:
+                throw new IllegalStateException("The game is finished... " + currentState);
+        }
+    }
+
+    /* 'player' overran its budget, even if its (late) move finished the game */
+    private void loseOnTime(PylosPlayer player) {
+        gameObserver.println(player + ": out of time");
+        lostOnTime = player;
+        currentPlayer = player;
+        winner = player.OTHER;
+        nReservesOfWinner = board.getReservesSize(winner);
+        currentState = PylosGameState.COMPLETED;
     }
 
     private void switchPlayer() {
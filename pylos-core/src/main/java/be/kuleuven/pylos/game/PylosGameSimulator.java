@@ -16,6 +16,17 @@ public class PylosGameSimulator {
         this.currentColor = playerColor;
     }
 
+    /**
+     * continues from the current board with 'playerColor' to play in 'gameState', as if the simulator was new
+     *
+     * @param gameState
+     * @param playerColor
+     */
+    public void restart(PylosGameState gameState, PylosPlayerColor playerColor) {
+        reset(gameState, playerColor);
+        winner = null;
+    }
+
     /* public getters --------------------------------------------------------------------------------------------- */
 
     public PylosGameState getState() {
@@ -12,6 +12,7 @@ import java.util.List;
 public class PylosLocation {
 
     public final int X, Y, Z;
+    public final int ID;    // index in PylosBoard.getLocations(), equal to the bit pair (2 * ID) in PylosBoard.toLong()
     final ArrayList<PylosLocation> above = new ArrayList<>();
     final ArrayList<PylosLocation> below = new ArrayList<>();
     final ArrayList<PylosSquare> squares = new ArrayList<>();
@@ -22,10 +23,11 @@ public class PylosLocation {
 
     /* package constructor ---------------------------------------------------------------------------------------- */
 
-    PylosLocation(int x, int y, int z) {
+    PylosLocation(int x, int y, int z, int id) {
         X = x;
         Y = y;
         Z = z;
+        ID = id;
         if (z == 0) nUsedBelow = 4;
     }
 
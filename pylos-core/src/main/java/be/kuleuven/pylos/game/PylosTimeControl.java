@@ -0,0 +1,54 @@
+package be.kuleuven.pylos.game;
+
+/**
+ * The time a player gets in a PylosGame (see PylosGame.setTimeControl(..)): a budget per call of the player (a
+ * move, a removal or a pass) and a budget for all of its calls in the game. A player that is still busy 'grace'
+ * after the end of its budget is interrupted and loses the game on time, see PylosClock.
+ */
+public final class PylosTimeControl {
+
+    public static final long DEFAULT_GRACE_MILLIS = 100;
+
+    private final long moveMillis;
+    private final long gameMillis;
+    private final long graceMillis;
+
+    /**
+     * @param moveMillis per call, 0 for no limit
+     * @param gameMillis per player per game, 0 for no limit
+     */
+    public PylosTimeControl(long moveMillis, long gameMillis) {
+        this(moveMillis, gameMillis, DEFAULT_GRACE_MILLIS);
+    }
+
+    /**
+     * @param moveMillis  per call, 0 for no limit
+     * @param gameMillis  per player per game, 0 for no limit
+     * @param graceMillis how long a player can overrun its budget before it loses, to return from a search
+     */
+    public PylosTimeControl(long moveMillis, long gameMillis, long graceMillis) {
+        if (moveMillis < 0 || gameMillis < 0 || graceMillis < 0) {
+            throw new IllegalArgumentException("The budgets can't be negative");
+        }
+        this.moveMillis = moveMillis;
+        this.gameMillis = gameMillis;
+        this.graceMillis = graceMillis;
+    }
+
+    public long getMoveMillis() {
+        return moveMillis;
+    }
+
+    public long getGameMillis() {
+        return gameMillis;
+    }
+
+    public long getGraceMillis() {
+        return graceMillis;
+    }
+
+    @Override
+    public String toString() {
+        return (moveMillis > 0 ? moveMillis + " ms/move" : "no move limit") + ", " + (gameMillis > 0 ? gameMillis + " ms/game" : "no game limit");
+    }
+}
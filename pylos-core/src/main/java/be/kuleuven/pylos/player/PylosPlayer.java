@@ -2,7 +2,9 @@ package be.kuleuven.pylos.player;
 
 import be.kuleuven.pylos.game.PylosBoard;
 import be.kuleuven.pylos.game.PylosGameIF;
+import be.kuleuven.pylos.game.PylosGameState;
 import be.kuleuven.pylos.game.PylosPlayerColor;
+import be.kuleuven.pylos.search.SearchStats;
 
 import java.util.Random;
 
@@ -16,11 +18,17 @@ public abstract class PylosPlayer {
     private PylosPlayerObserver OBSERVER;
     private Random RANDOM;
 
+    private Thread ponderThread;
+    private volatile boolean ponderStopped;
+
+    private long deadline = Long.MAX_VALUE;
+
     public void init(PylosPlayerColor playerColor, PylosPlayer other, PylosPlayerObserver observer, Random random) {
         this.PLAYER_COLOR = playerColor;
         this.OTHER = other;
         this.OBSERVER = observer;
         this.RANDOM = random;
+        this.deadline = Long.MAX_VALUE;
     }
 
     public abstract void doMove(PylosGameIF game, PylosBoard board);
@@ -29,6 +37,101 @@ public abstract class PylosPlayer {
 
     public abstract void doRemoveOrPass(PylosGameIF game, PylosBoard board);
 
+    /**
+     * returns the statistics of the searches of this player so far, or null if it doesn't keep any
+     * only called once the player is no longer searching, see Battle
+     *
+     * @return
+     */
+    public SearchStats getSearchStats() {
+        return null;
+    }
+
+    /* time control ----------------------------------------------------------------------------------------------- */
+
+    /**
+     * called by a game with a time control (see PylosGame.setTimeControl(..)) before every call of the player
+     *
+     * @param deadline System.nanoTime() by which the call should return, Long.MAX_VALUE for no limit
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * returns the System.nanoTime() by which the current call should return, Long.MAX_VALUE if the game has no time
+     * control. A player that returns later than a short grace period after it loses the game on time.
+     *
+     * @return
+     */
+    protected long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * returns true once the deadline of the current call has passed, or when the thread is interrupted (the watchdog
+     * of the game's clock interrupts a player that overruns its deadline)
+     *
+     * @return
+     */
+    protected boolean isOutOfTime() {
+        return (deadline != Long.MAX_VALUE && System.nanoTime() >= deadline) || Thread.currentThread().isInterrupted();
+    }
+
+    /* pondering -------------------------------------------------------------------------------------------------- */
+
+    /**
+     * called by the game (if pondering is enabled, see PylosGame.setPondering(..)) before the other player is called,
+     * runs ponder(..) on a background thread until stopPondering() is called
+     *
+     * @param board copy of the game board, the player may change it
+     * @param state the state in which the other player is called
+     */
+    public void startPondering(PylosBoard board, PylosGameState state) {
+        if (!canPonder()) return;
+        ponderStopped = false;
+        ponderThread = new Thread(() -> ponder(board, state), "ponder-" + PLAYER_COLOR);
+        ponderThread.setDaemon(true);
+        ponderThread.start();
+    }
+
+    /**
+     * called by the game after the other player made its move, returns when ponder(..) has returned
+     */
+    public void stopPondering() {
+        if (ponderThread == null) return;
+        ponderStopped = true;
+        try {
+            ponderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ponderThread = null;
+    }
+
+    /**
+     * returns true if the player overrides ponder(..)
+     *
+     * @return
+     */
+    protected boolean canPonder() {
+        return false;
+    }
+
+    /**
+     * speculative search on the opponent's time, in the position of 'board' with the other player to move in 'state'
+     * runs on a background thread and should return soon after isPonderingStopped() returns true
+     *
+     * @param board
+     * @param state
+     */
+    protected void ponder(PylosBoard board, PylosGameState state) {
+    }
+
+    protected boolean isPonderingStopped() {
+        return ponderStopped;
+    }
+
     protected Random getRandom() {
         return RANDOM;
     }
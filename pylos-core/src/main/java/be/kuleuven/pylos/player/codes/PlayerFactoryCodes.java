@@ -35,6 +35,15 @@ public class PlayerFactoryCodes extends PylosPlayerFactory {
         tryToAddType("CODeS - Level 13", "PylosPlayerMiniMax", 13);
         tryToAddType("CODeS - Level 14", "PylosPlayerMiniMax", 14);
         tryToAddType("CODeS - Level 15", "PylosPlayerMiniMax", 15);
+        tryToAddType("CODeS - PVS x", "PylosPlayerPVS");
+        tryToAddType("CODeS - PVS 6", "PylosPlayerPVS", 6);
+        tryToAddType("CODeS - PVS 8", "PylosPlayerPVS", 8);
+        tryToAddType("CODeS - PVS 10", "PylosPlayerPVS", 10);
+        tryToAddType("CODeS - PVS 12", "PylosPlayerPVS", 12);
+        tryToAddType("CODeS - MCTS x", "PylosPlayerMCTS");
+        tryToAddType("CODeS - MCTS 5000", "PylosPlayerMCTS", 5000);
+        tryToAddType("CODeS - MCTS 20000", "PylosPlayerMCTS", 20000);
+        tryToAddType("CODeS - MCTS 100000", "PylosPlayerMCTS", 100000);
     }
 
     private void tryToAddType(String name, String className) {
@@ -0,0 +1,650 @@
+package be.kuleuven.pylos.player.codes;
+
+import be.kuleuven.pylos.game.*;
+import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.search.PlayoutKernel;
+import be.kuleuven.pylos.search.PylosMove;
+import be.kuleuven.pylos.search.SearchStats;
+import be.kuleuven.pylos.search.TranspositionTable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Monte Carlo tree search player (UCT). Every action (add, move, remove, pass) is a node, so the removals after a
+ * completed square are searched like any other turn phase.
+ * <p>
+ * Nodes are stored in parallel primitive arrays, the children of a node in one contiguous block that is allocated when
+ * the node is expanded. The results of a node are from the perspective of the color that made the move into it.
+ * Leaves are evaluated by a playout, random playouts of PlayoutKernel by default (see setPlayout(..)).
+ * <p>
+ * The tree is kept between calls: a call looks for its position in the first plies of the previous tree and moves
+ * that subtree to the front of the arrays, so the statistics gathered for the expected replies are reused.
+ * <p>
+ * With more than one thread (see setThreads(..)) all threads descend the same tree, each on its own copy of the board.
+ * A descent counts its visits on the way down (virtual loss), so other threads are steered to other branches until
+ * the result is added. Counters are updated atomically, a node is expanded by the first thread that reaches it and
+ * its children are published with release / acquire semantics. The arrays don't grow during a parallel search: room
+ * is reserved up front and nodes are no longer expanded when it is used up.
+ * <p>
+ * When the game lets it ponder, one thread grows the tree of the opponent's position until the opponent has moved,
+ * the next call reuses the subtree of the actual move.
+ */
+public class PylosPlayerMCTS extends PylosPlayer {
+
+    /**
+     * evaluates the position of 'simulator' on 'board' and leaves both unchanged
+     */
+    public interface Playout {
+        /**
+         * @return the result for the color to move: 1 for a win, 0 for a loss, values in between if not decided
+         */
+        double play(PylosGameSimulator simulator, PylosBoard board, Random random);
+    }
+
+    private static final int MAX_PLY = 128;                 // depth of the tree, deeper nodes are not expanded
+    private static final int REUSE_DEPTH = 8;               // plies searched for the position of the next call
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final int RESERVED_CHILDREN = 16;        // nodes reserved per playout of a parallel search
+    private static final long WIN_SCALE = 1 << 16;          // wins are fixed point, so they can be added atomically
+
+    private static final int NOT_EXPANDED = -1;
+    private static final int EXPANDING = -2;
+
+    private static final VarHandle FIRST_CHILD = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle VISITS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle WINS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final boolean PRINT_SEARCH_RESULT = false;
+    private final int PLAYOUTS;                             // per call
+    private final double EXPLORATION = 1.0;
+    private long TIME_LIMIT = 0;                            // milliseconds per call, 0: no limit
+    private int MAX_NODES = 1 << 22;
+    private int N_THREADS = 1;
+    private Supplier<Playout> playouts = KernelPlayout::new;
+
+    /* nodes */
+    private final AtomicInteger nNodes = new AtomicInteger();
+    private int[] moves = new int[INITIAL_CAPACITY];
+    private int[] firstChild = new int[INITIAL_CAPACITY];  // NOT_EXPANDED, EXPANDING or the index of the first child
+    private short[] nChildren = new short[INITIAL_CAPACITY];
+    private int[] visits = new int[INITIAL_CAPACITY];
+    private long[] wins = new long[INITIAL_CAPACITY];       // WIN_SCALE per win
+    private long[] keys = new long[INITIAL_CAPACITY];       // TranspositionTable.key(..) of visited nodes, 0 otherwise
+    private int[] work = new int[INITIAL_CAPACITY];         // node queue of reuse(..)
+    private long[] blocks = new long[INITIAL_CAPACITY];     // child blocks of compact(..)
+
+    private Worker[] workers = new Worker[0];
+    private Worker ponderWorker;
+    private boolean parallel;                               // more than one worker is running
+
+    /* statistics of the last call */
+    private int nPlayouts;
+    private int nReused;
+    private int nPonderPlayouts;
+
+    /* statistics of all calls */
+    private final SearchStats stats = new SearchStats();   // the workers' counters are added after every call
+    private final SearchStats ponderStats = new SearchStats();
+    private long totalPlayouts;
+    private long totalTime;                                 // nanoseconds
+
+    public PylosPlayerMCTS() {
+        this(20000);
+    }
+
+    /**
+     * @param playouts number of playouts per call
+     */
+    public PylosPlayerMCTS(Integer playouts) {
+        PLAYOUTS = playouts;
+    }
+
+    @Override
+    public void doMove(PylosGameIF game, PylosBoard board) {
+        PylosMove.execute(game, board, PLAYER_COLOR, search(board, PylosGameState.MOVE));
+    }
+
+    @Override
+    public void doRemove(PylosGameIF game, PylosBoard board) {
+        PylosMove.execute(game, board, PLAYER_COLOR, search(board, PylosGameState.REMOVE_FIRST));
+    }
+
+    @Override
+    public void doRemoveOrPass(PylosGameIF game, PylosBoard board) {
+        PylosMove.execute(game, board, PLAYER_COLOR, search(board, PylosGameState.REMOVE_SECOND));
+    }
+
+    /* configuration ---------------------------------------------------------------------------------------------- */
+
+    /**
+     * sets the playout of the leaves, 'playouts' creates one per thread
+     *
+     * @param playouts
+     */
+    public void setPlayout(Supplier<Playout> playouts) {
+        this.playouts = playouts;
+        this.workers = new Worker[0];
+        this.ponderWorker = null;
+    }
+
+    /**
+     * searches with 'nThreads' threads on the same tree, the calling thread is one of them
+     *
+     * @param nThreads
+     */
+    public void setThreads(int nThreads) {
+        N_THREADS = nThreads;
+    }
+
+    /**
+     * stops a call after 'timeLimit' milliseconds, even if not all playouts are done, 0 for no limit
+     *
+     * @param timeLimit
+     */
+    public void setTimeLimit(long timeLimit) {
+        TIME_LIMIT = timeLimit;
+    }
+
+    /**
+     * limits the size of the tree, nodes are no longer expanded when it is full
+     *
+     * @param maxNodes
+     */
+    public void setMaxNodes(int maxNodes) {
+        MAX_NODES = maxNodes;
+    }
+
+    /**
+     * returns the number of playouts of the last call
+     *
+     * @return
+     */
+    public int getNumberOfPlayouts() {
+        return nPlayouts;
+    }
+
+    /**
+     * returns the number of visits of the previous tree that were reused by the last call
+     *
+     * @return
+     */
+    public int getNumberOfReusedVisits() {
+        return nReused;
+    }
+
+    /**
+     * returns the number of playouts of the last pondering
+     *
+     * @return
+     */
+    public int getNumberOfPonderPlayouts() {
+        return nPonderPlayouts;
+    }
+
+    public int getNumberOfNodes() {
+        return nNodes.get();
+    }
+
+    /**
+     * returns the number of playouts per second of all calls so far, over all threads
+     *
+     * @return
+     */
+    public double getPlayoutsPerSecond() {
+        return totalPlayouts * 1e9 / Math.max(1, totalTime);
+    }
+
+    /**
+     * returns the statistics of all calls, a node is a step of a selection and a leaf evaluation a playout. Pondering
+     * is not included, see getPonderStats().
+     *
+     * @return
+     */
+    @Override
+    public SearchStats getSearchStats() {
+        return stats;
+    }
+
+    /**
+     * returns the statistics of all ponderings, as getSearchStats()
+     *
+     * @return
+     */
+    public SearchStats getPonderStats() {
+        return ponderStats;
+    }
+
+    /* search ----------------------------------------------------------------------------------------------------- */
+
+    private int search(PylosBoard board, PylosGameState state) {
+        reuse(TranspositionTable.key(board.toLong(), state, PLAYER_COLOR));
+        nReused = visits[0];
+        if (N_THREADS > 1) {
+            ensureCapacity((int) Math.min(MAX_NODES, nNodes.get() + (long) PLAYOUTS * RESERVED_CHILDREN));
+        }
+
+        if (workers.length != N_THREADS) {
+            workers = new Worker[N_THREADS];
+            for (int i = 0; i < N_THREADS; i++) workers[i] = new Worker(playouts.get());
+        }
+        /* the first worker runs on the calling thread and the real board, the others on a copy */
+        workers[0].init(board, state, PLAYER_COLOR, getRandom());
+        for (int i = 1; i < N_THREADS; i++) workers[i].init(board.getClone(), state, PLAYER_COLOR, new Random(getRandom().nextLong()));
+        parallel = N_THREADS > 1;
+
+        stats.startSearch();
+        long start = System.nanoTime();
+        /* the earliest of its own time limit and the deadline of the game's time control */
+        long deadline = Math.min(TIME_LIMIT > 0 ? start + TimeUnit.MILLISECONDS.toNanos(TIME_LIMIT) : Long.MAX_VALUE, getDeadline());
+        AtomicInteger budget = new AtomicInteger(PLAYOUTS);
+        Thread[] threads = new Thread[N_THREADS - 1];
+        for (int i = 0; i < threads.length; i++) {
+            Worker worker = workers[i + 1];
+            threads[i] = new Thread(() -> worker.run(budget, deadline), "mcts-" + (i + 1));
+            threads[i].start();
+        }
+        workers[0].run(budget, deadline);
+        /* the helpers write the tree until they are done, also if the clock interrupted this thread */
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        parallel = false;
+        nPlayouts = 0;
+        for (Worker worker : workers) {
+            nPlayouts += worker.nPlayouts;
+            worker.collectStats(stats);
+        }
+        totalPlayouts += nPlayouts;
+        totalTime += System.nanoTime() - start;
+        stats.endSearch();
+
+        if (firstChild[0] < 0) {
+            /* the root could not be expanded, the tree is full */
+            int[] legalMoves = new int[PylosMove.MAX_MOVES];
+            PylosMove.generate(board, PLAYER_COLOR, state, legalMoves);
+            return legalMoves[0];
+        }
+
+        /* the most visited move is the most reliable one */
+        int best = firstChild[0];
+        for (int child = firstChild[0]; child < firstChild[0] + nChildren[0]; child++) {
+            if (visits[child] > visits[best]) best = child;
+        }
+        double winRate = (double) wins[best] / WIN_SCALE / Math.max(1, visits[best]);
+        if (PRINT_SEARCH_RESULT) {
+            System.out.println("-------> " + PylosMove.toString(moves[best]) + " " + winRate + " visits " + visits[best] + "/" + visits[0]
+                    + " reused " + nReused + " nodes " + nNodes.get() + " playouts/s " + (int) getPlayoutsPerSecond());
+        }
+        getObserver().shout("Win rate: " + Math.round(100 * winRate) + "%");
+        return moves[best];
+    }
+
+    @Override
+    protected boolean canPonder() {
+        return true;
+    }
+
+    @Override
+    protected void ponder(PylosBoard board, PylosGameState state) {
+        PylosPlayerColor color = PLAYER_COLOR.other();
+        reuse(TranspositionTable.key(board.toLong(), state, color));
+        if (ponderWorker == null) ponderWorker = new Worker(playouts.get());
+        ponderWorker.init(board, state, color, new Random(getRandom().nextLong()));
+        while (!isPonderingStopped() && nNodes.get() + PylosMove.MAX_MOVES <= MAX_NODES) {
+            ponderWorker.iterate();
+            ponderWorker.nPlayouts++;
+        }
+        nPonderPlayouts = ponderWorker.nPlayouts;
+        ponderWorker.collectStats(ponderStats);
+    }
+
+    /* one thread of the search, with its own board, buffers and playout */
+    private class Worker {
+
+        private final int[] path = new int[MAX_PLY];
+        private final PylosGameState[] states = new PylosGameState[MAX_PLY];
+        private final PylosPlayerColor[] colors = new PylosPlayerColor[MAX_PLY];
+        private final int[] moveBuffer = new int[PylosMove.MAX_MOVES];
+        private final Playout playout;
+        private PylosBoard board;
+        private PylosGameSimulator simulator;
+        private Random random;
+        private int nPlayouts;
+        private SearchStats workerStats = new SearchStats();
+
+        private Worker(Playout playout) {
+            this.playout = playout;
+        }
+
+        private void init(PylosBoard board, PylosGameState state, PylosPlayerColor color, Random random) {
+            this.board = board;
+            this.simulator = new PylosGameSimulator(state, color, board);
+            this.random = random;
+            this.nPlayouts = 0;
+        }
+
+        /* adds the counters of this worker to 'target' of the player, once its thread is done */
+        private void collectStats(SearchStats target) {
+            target.add(workerStats);
+            workerStats = new SearchStats();
+        }
+
+        /* the clock is checked after the first playout, which expands the root if needed, and every 64 after it */
+        private void run(AtomicInteger budget, long deadline) {
+            while (budget.getAndDecrement() > 0) {
+                iterate();
+                nPlayouts++;
+                if ((nPlayouts & 63) == 1 && System.nanoTime() >= deadline) break;
+            }
+        }
+
+        /* one selection, expansion, playout and backpropagation, from the root */
+        private void iterate() {
+            int node = 0;
+            int depth = 0;
+            path[0] = 0;
+            VISITS.getAndAdd(visits, 0, 1);
+            workerStats.node(0);
+            double light;
+            while (true) {
+                PylosGameState state = simulator.getState();
+                if (state == PylosGameState.COMPLETED) {
+                    light = simulator.getWinner() == PylosPlayerColor.LIGHT ? 1 : 0;
+                    break;
+                }
+                int first = (int) FIRST_CHILD.getAcquire(firstChild, node);
+                if (first < 0) {
+                    /* a node is expanded on its second visit (the root on its first one) */
+                    if (first == EXPANDING || visits[node] == 1 && node != 0 || depth == MAX_PLY - 1 || (first = expand(node)) < 0) {
+                        workerStats.leafEval();
+                        double result = playout.play(simulator, board, random);
+                        light = simulator.getColor() == PylosPlayerColor.LIGHT ? result : 1 - result;
+                        break;
+                    }
+                }
+
+                int child = select(node, first);
+                VISITS.getAndAdd(visits, child, 1);
+                states[depth] = state;
+                colors[depth] = simulator.getColor();
+                PylosMove.apply(simulator, board, moves[child]);
+                if (keys[child] == 0 && simulator.getState() != PylosGameState.COMPLETED) {
+                    keys[child] = TranspositionTable.key(board.toLong(), simulator.getState(), simulator.getColor());
+                }
+                node = child;
+                path[++depth] = child;
+                workerStats.node(depth);
+            }
+
+            /* backpropagation, restoring the board on the way up, the visits were counted on the way down */
+            long lightWins = Math.round(light * WIN_SCALE);
+            for (; depth > 0; depth--) {
+                node = path[depth];
+                WINS.getAndAdd(wins, node, colors[depth - 1] == PylosPlayerColor.LIGHT ? lightWins : WIN_SCALE - lightWins);
+                PylosMove.undo(simulator, board, moves[node], states[depth - 1], colors[depth - 1]);
+            }
+        }
+
+        /* adds the children of 'node', returns the index of the first one, or -1 if another thread expands it or the
+         * tree is full */
+        private int expand(int node) {
+            if (!FIRST_CHILD.compareAndSet(firstChild, node, NOT_EXPANDED, EXPANDING)) return -1;
+            int n = PylosMove.generate(board, simulator.getColor(), simulator.getState(), moveBuffer);
+            assert n > 0 : "No legal moves for " + simulator.getColor() + " in " + simulator.getState();
+            int first = allocate(n);
+            if (first < 0) {
+                FIRST_CHILD.setRelease(firstChild, node, NOT_EXPANDED);
+                return -1;
+            }
+
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = moveBuffer[i];
+                moveBuffer[i] = moveBuffer[j];
+                moveBuffer[j] = tmp;
+            }
+            for (int i = 0; i < n; i++) {
+                initNode(first + i, moveBuffer[i]);
+            }
+            nChildren[node] = (short) n;
+            FIRST_CHILD.setRelease(firstChild, node, first);
+            return first;
+        }
+    }
+
+    /* UCT, children that were never visited first (in the random order of expand(..))
+     * the visits of descents in progress count as losses (virtual loss) */
+    private int select(int node, int first) {
+        double logVisits = Math.log(visits[node]);
+        int best = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int child = first; child < first + nChildren[node]; child++) {
+            int n = visits[child];
+            if (n == 0) return child;
+            double value = (double) wins[child] / WIN_SCALE / n + EXPLORATION * Math.sqrt(logVisits / n);
+            if (value > bestValue) {
+                bestValue = value;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /* returns the index of 'n' new nodes, or -1 if the tree is full
+     * a parallel search only uses the room reserved before it started */
+    private int allocate(int n) {
+        while (true) {
+            int first = nNodes.get();
+            if (first + n > MAX_NODES || parallel && first + n > moves.length) return -1;
+            if (!parallel) {
+                ensureCapacity(first + n);
+                nNodes.set(first + n);
+                return first;
+            }
+            if (nNodes.compareAndSet(first, first + n)) return first;
+        }
+    }
+
+    private void initNode(int node, int move) {
+        moves[node] = move;
+        firstChild[node] = NOT_EXPANDED;
+        nChildren[node] = 0;
+        visits[node] = 0;
+        wins[node] = 0;
+        keys[node] = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= moves.length) return;
+        int length = Math.max(capacity, (int) Math.min(2L * moves.length, MAX_NODES));
+        moves = Arrays.copyOf(moves, length);
+        firstChild = Arrays.copyOf(firstChild, length);
+        nChildren = Arrays.copyOf(nChildren, length);
+        visits = Arrays.copyOf(visits, length);
+        wins = Arrays.copyOf(wins, length);
+        keys = Arrays.copyOf(keys, length);
+        work = new int[length];
+        blocks = new long[length];
+    }
+
+    /* tree reuse ------------------------------------------------------------------------------------------------- */
+
+    /* makes the node of the position 'key' the root, or starts a new tree if it is not in the first plies */
+    private void reuse(long key) {
+        int found = -1;
+        if (nNodes.get() > 0) {
+            /* breadth first, the shallowest node of a transposition has the most visits */
+            int head = 0;
+            int tail = 0;
+            work[tail++] = 0;
+            for (int depth = 0; depth <= REUSE_DEPTH && found < 0 && head < tail; depth++) {
+                int end = tail;
+                for (; head < end && found < 0; head++) {
+                    int node = work[head];
+                    if (keys[node] == key && visits[node] > 0) {
+                        found = node;
+                    } else if (firstChild[node] >= 0) {
+                        for (int child = firstChild[node]; child < firstChild[node] + nChildren[node]; child++) {
+                            if (visits[child] > 0) work[tail++] = child;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (found < 0) {
+            nNodes.set(1);
+            initNode(0, PylosMove.NONE);
+            keys[0] = key;
+        } else if (found > 0) {
+            compact(found);
+        }
+    }
+
+    /* moves the subtree of 'root' to the front of the arrays, with 'root' at index 0
+     * blocks are moved in the order of their index, a block is always allocated after its parent and no block moves
+     * up, so a block is never overwritten before it is moved */
+    private void compact(int root) {
+        int nBlocks = 0;
+        int top = 0;
+        work[top++] = root;
+        while (top > 0) {
+            int node = work[--top];
+            if (firstChild[node] < 0) continue;
+            blocks[nBlocks++] = (long) firstChild[node] << 32 | nChildren[node];
+            for (int child = firstChild[node]; child < firstChild[node] + nChildren[node]; child++) {
+                work[top++] = child;
+            }
+        }
+        Arrays.sort(blocks, 0, nBlocks);
+
+        /* new start of each block, in work[] */
+        int size = 1;
+        for (int i = 0; i < nBlocks; i++) {
+            work[i] = size;
+            size += (int) blocks[i];
+        }
+
+        moveNode(root, 0);
+        firstChild[0] = relocate(firstChild[0], nBlocks);
+        for (int i = 0; i < nBlocks; i++) {
+            int from = (int) (blocks[i] >>> 32);
+            int to = work[i];
+            int length = (int) blocks[i];
+            System.arraycopy(moves, from, moves, to, length);
+            System.arraycopy(firstChild, from, firstChild, to, length);
+            System.arraycopy(nChildren, from, nChildren, to, length);
+            System.arraycopy(visits, from, visits, to, length);
+            System.arraycopy(wins, from, wins, to, length);
+            System.arraycopy(keys, from, keys, to, length);
+            for (int node = to; node < to + length; node++) {
+                firstChild[node] = relocate(firstChild[node], nBlocks);
+            }
+        }
+        nNodes.set(size);
+    }
+
+    private void moveNode(int from, int to) {
+        moves[to] = moves[from];
+        firstChild[to] = firstChild[from];
+        nChildren[to] = nChildren[from];
+        visits[to] = visits[from];
+        wins[to] = wins[from];
+        keys[to] = keys[from];
+    }
+
+    /* returns the new start of the block that started at 'start' (-1 stays -1) */
+    private int relocate(int start, int nBlocks) {
+        if (start < 0) return start;
+        int low = 0;
+        int high = nBlocks - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if ((int) (blocks[mid] >>> 32) < start) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return work[low];
+    }
+
+    /* playouts --------------------------------------------------------------------------------------------------- */
+
+    /**
+     * playouts on primitive state by PlayoutKernel, seeded by the first Random it gets
+     */
+    public static class KernelPlayout implements Playout {
+
+        private final double epsilon;
+        private PlayoutKernel kernel;
+
+        public KernelPlayout() {
+            this(1);
+        }
+
+        /**
+         * @param epsilon probability of a random action, see PlayoutKernel.setEpsilon(..)
+         */
+        public KernelPlayout(double epsilon) {
+            this.epsilon = epsilon;
+        }
+
+        @Override
+        public double play(PylosGameSimulator simulator, PylosBoard board, Random random) {
+            if (kernel == null) {
+                kernel = new PlayoutKernel(new SplittableRandom(random.nextLong()));
+                kernel.setEpsilon(epsilon);
+            }
+            return kernel.play(board.toLong(), simulator.getState(), simulator.getColor());
+        }
+    }
+
+    /**
+     * uniformly random actions on the simulator until the game is completed, a draw after MAX_PLIES actions
+     */
+    public static class RandomPlayout implements Playout {
+
+        private static final int MAX_PLIES = 256;
+
+        private final int[] moves = new int[PylosMove.MAX_MOVES];
+        private final int[] played = new int[MAX_PLIES];
+        private final PylosGameState[] states = new PylosGameState[MAX_PLIES];
+        private final PylosPlayerColor[] colors = new PylosPlayerColor[MAX_PLIES];
+
+        @Override
+        public double play(PylosGameSimulator simulator, PylosBoard board, Random random) {
+            final PylosPlayerColor color = simulator.getColor();
+            int ply = 0;
+            while (ply < MAX_PLIES && simulator.getState() != PylosGameState.COMPLETED) {
+                int n = PylosMove.generate(board, simulator.getColor(), simulator.getState(), moves);
+                states[ply] = simulator.getState();
+                colors[ply] = simulator.getColor();
+                played[ply] = moves[random.nextInt(n)];
+                PylosMove.apply(simulator, board, played[ply]);
+                ply++;
+            }
+            double result = simulator.getState() != PylosGameState.COMPLETED ? 0.5 : simulator.getWinner() == color ? 1 : 0;
+            while (ply > 0) {
+                ply--;
+                PylosMove.undo(simulator, board, played[ply], states[ply], colors[ply]);
+            }
+            return result;
+        }
+    }
+}
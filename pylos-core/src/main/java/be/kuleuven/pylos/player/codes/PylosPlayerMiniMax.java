@@ -2,11 +2,15 @@ package be.kuleuven.pylos.player.codes;
 
 import be.kuleuven.pylos.game.*;
 import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.player.PylosPlayerObserver;
+import be.kuleuven.pylos.search.MoveOrdering;
+import be.kuleuven.pylos.search.PylosMove;
+import be.kuleuven.pylos.search.PylosSearch;
+import be.kuleuven.pylos.search.Quiescence;
+import be.kuleuven.pylos.search.SearchStats;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.Random;
 
 /**
  * Created by Jan on 20/02/2015.
@@ -24,6 +28,11 @@ public class PylosPlayerMiniMax extends PylosPlayer {
     private static final long REMOVE_FIRST_FLAG = 1L << 62;
     private static final long REMOVE_SECOND_FLAG = 1L << 63;
 
+    /* what a saved minimax value is of the state: its value, or a bound if the search of the state was cut off */
+    private static final int EXACT = 0;
+    private static final int LOWER = 1;                 // the value is at least the saved one
+    private static final int UPPER = 2;                 // the value is at most the saved one
+
     private final double WIN_THRESHOLD_THIS = 1000;
     private final double WIN_THRESHOLD_OTHER = -1000;
     private final double WIN_THIS = 2000;        // decremented with branch depth (winning earlier is better)
@@ -38,28 +47,59 @@ public class PylosPlayerMiniMax extends PylosPlayer {
     private final boolean USE_RANDOM = true;
     private final boolean SAVE_STATES = true;
     private boolean PRUNE_ENABLE = true;
+    private boolean SYMMETRY_FOLDING = false;           // key saved states on the canonical board state (PylosBitBoard)
+    private boolean KEEP_SEARCH_STATE = false;          // keep saved states between the calls of a game, see setKeepSearchState(..)
     private int MAX_BRANCH_DEPTH = 4;                    // set to 5 for human, set to 3 for best fit, 10 is possible
+    private static final int MAX_SAVED_STATES = 1 << 21; // older generations are dropped above this size
+    private static final int STOP_CHECK_INTERVAL = 1024; // nodes between checks of the time control, a power of two
     private PylosGameSimulator simulator;
     private PylosBoard board;
     private int branchDepth = 0;
+    private int lastBound;                               // of the value last returned by branchStep(..)
+    private long nNodes;
+    private boolean stopped;                             // out of time, the search of this call is abandoned
 
     /* we try to maximize the difference (reserves_this - reserves_other) */
     private double bestMinimax;
-    private PylosSphere bestSphere;
-    private PylosLocation bestLocation;
+    private int bestMove;
 
-    private HashMap<Long, Double> minimaxResults;
+    private HashMap<Long, SavedState> minimaxResults;
+    private HashMap<Long, Integer> bestMoves;
+    private int generation;                              // incremented on every call, saved states keep theirs
+    private long nSavedRemovals;
+    private final MoveOrdering moveOrdering = new MoveOrdering();
+    private final SearchStats stats = new SearchStats();
+    private final Quiescence quiescence;                 // null: leaves are scored by the reserves difference only
+    private final int[][] moveBuffers = new int[MoveOrdering.MAX_PLY][PylosMove.MAX_MOVES];
 
     public PylosPlayerMiniMax() {
         VAR_BRANCH_DEPTH = true;
         VAR_BRANCH_START_DEPTH = 10;
         MAX_BRANCH_DEPTH = VAR_BRANCH_START_DEPTH;
+        quiescence = null;
     }
 
     public PylosPlayerMiniMax(Integer branchDepth) {
+        this(branchDepth, false);
+    }
+
+    /**
+     * @param branchDepth
+     * @param quiescence  if true, square captures are searched beyond the leaves until the position is quiet
+     */
+    public PylosPlayerMiniMax(Integer branchDepth, boolean quiescence) {
         VAR_BRANCH_DEPTH = false;
         VAR_BRANCH_START_DEPTH = Integer.MAX_VALUE;    // not used
         MAX_BRANCH_DEPTH = branchDepth;
+        this.quiescence = quiescence ? new Quiescence(PylosSearch.RESERVES) : null;
+    }
+
+    @Override
+    public void init(PylosPlayerColor playerColor, PylosPlayer other, PylosPlayerObserver observer, Random random) {
+        super.init(playerColor, other, observer, random);
+        /* a new game, saved states of the previous one don't apply */
+        this.minimaxResults = null;
+        this.bestMoves = null;
     }
 
     @Override
@@ -68,95 +108,27 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         if (PRUNE_TEST) PRUNE_ENABLE = false;
         init(game.getState(), board);
 
-        PylosSphere myReserveSphere = board.getReserve(this);
-        PylosSphere[] mySpheres = board.getSpheres(this);
-        PylosLocation[] locations = board.getLocations();
-
-        /* shuffle */
-        ArrayList<PylosLocation> locationsList = new ArrayList(Arrays.asList(locations));
-        if (USE_RANDOM) Collections.shuffle(locationsList, getRandom());
-        locations = new PylosLocation[locations.length];
-        for (int i = 0; i < locations.length; i++) {
-            locations[i] = locationsList.get(i);
-        }
-        ArrayList<PylosSphere> sphereList = new ArrayList<>(Arrays.asList(mySpheres));
-        if (USE_RANDOM) Collections.shuffle(locationsList, getRandom());
-        mySpheres = new PylosSphere[mySpheres.length];
-        for (int i = 0; i < mySpheres.length; i++) {
-            mySpheres[i] = sphereList.get(i);
-        }
+        int[] moves = moveBuffers[0];
+        int nMoves = PylosMove.generate(board, PLAYER_COLOR, PylosGameState.MOVE, moves);
 
-        /* try to move a sphere to higher level */
-        for (int sphereId = 0; sphereId < mySpheres.length; sphereId++) {
-            PylosSphere sphere = mySpheres[sphereId];
-            if (!sphere.isReserve()) {
-                for (int locationId = 0; locationId < locations.length; locationId++) {
-                    PylosLocation location = locations[locationId];
-                    if (sphere.canMoveTo(location)) {
-                        PylosLocation prevLocation = sphere.getLocation();
-                        getObserver().checkingMoveSphere(sphere, location);
-                        simulator.moveSphere(sphere, location);
-                        double minimax = branchStep(bestMinimax, bestMinimax);
-                        eval(minimax, sphere, location);
-                        simulator.undoMoveSphere(sphere, prevLocation, PylosGameState.MOVE, this.PLAYER_COLOR);
-                    }
-                }
-            }
-        }
+        /* shuffle, the ordering below is stable so equally scored moves keep their random order */
+        if (USE_RANDOM) shuffle(moves, nMoves);
+        moveOrdering.order(moves, nMoves, 0, PylosMove.NONE, PLAYER_COLOR);
 
-        /* try to add a reserve sphere */
-        for (int locationId = 0; locationId < locations.length; locationId++) {
-            PylosLocation location = locations[locationId];
-            if (location.isUsable()) {
-                getObserver().checkingMoveSphere(myReserveSphere, location);
-                simulator.moveSphere(myReserveSphere, location);
-                double minimax = branchStep(bestMinimax, bestMinimax);
-                eval(minimax, myReserveSphere, location);
-                simulator.undoAddSphere(myReserveSphere, PylosGameState.MOVE, this.PLAYER_COLOR);
-            }
-        }
+        searchRoot(moves, nMoves, PylosGameState.MOVE);
 
         double tmpBestMinimax = bestMinimax;
-        PylosSphere tmpBestSphere = bestSphere;
-        PylosLocation tmpBestLocation = bestLocation;
+        int tmpBestMove = bestMove;
 
         /* ----------------------------------- */
 
         if (PRUNE_TEST) {
             PRUNE_ENABLE = true;
             init(game.getState(), board);
-
-            /* try to move a sphere to higher level */
-            for (int sphereId = 0; sphereId < mySpheres.length; sphereId++) {
-                PylosSphere sphere = mySpheres[sphereId];
-                if (!sphere.isReserve()) {
-                    for (int locationId = 0; locationId < locations.length; locationId++) {
-                        PylosLocation location = locations[locationId];
-                        if (sphere.canMoveTo(location)) {
-                            PylosLocation prevLocation = sphere.getLocation();
-                            simulator.moveSphere(sphere, location);
-                            double minimax = branchStep(bestMinimax, bestMinimax);
-                            eval(minimax, sphere, location);
-                            simulator.undoMoveSphere(sphere, prevLocation, PylosGameState.MOVE, this.PLAYER_COLOR);
-                        }
-                    }
-                }
-            }
-
-            /* try to add a reserve sphere */
-            for (int locationId = 0; locationId < locations.length; locationId++) {
-                PylosLocation location = locations[locationId];
-                if (location.isUsable()) {
-                    simulator.moveSphere(myReserveSphere, location);
-                    double minimax = branchStep(bestMinimax, bestMinimax);
-                    eval(minimax, myReserveSphere, location);
-                    simulator.undoAddSphere(myReserveSphere, PylosGameState.MOVE, this.PLAYER_COLOR);
-                }
-            }
+            searchRoot(moves, nMoves, PylosGameState.MOVE);
 
             assert tmpBestMinimax == bestMinimax;
-            assert tmpBestSphere == bestSphere;
-            assert tmpBestLocation == bestLocation;
+            assert tmpBestMove == bestMove;
         }
 
         /* ----------------------------- */
@@ -164,72 +136,207 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         shoutIfWinnerIsKnown();
 
         /* execute the best move */
-        assert bestSphere != null;
+        assert bestMove != PylosMove.NONE;
         if (PRINT_MINIMAX_RESULT) System.out.println("-------> " + bestMinimax);
-        game.moveSphere(bestSphere, bestLocation);
+        PylosMove.execute(game, board, PLAYER_COLOR, bestMove);
     }
 
     @Override
     public void doRemove(PylosGameIF game, PylosBoard board) {
         init(game.getState(), board);
+        if (playSavedRemoval(game, PylosGameState.REMOVE_FIRST)) return;
 
-        for (PylosSphere sphere : board.getSpheres(PLAYER_COLOR)) {
-            if (sphere.canRemove()) {
-                PylosLocation prevLocation = sphere.getLocation();
-                getObserver().checkingRemoveSphere(sphere);
-                simulator.removeSphere(sphere);
-                double minimax = branchStep(bestMinimax, bestMinimax);
-                eval(minimax, sphere, null);
-                simulator.undoRemoveFirstSphere(sphere, prevLocation, PylosGameState.REMOVE_FIRST, this.PLAYER_COLOR);
-            }
-        }
+        int[] moves = moveBuffers[0];
+        int nMoves = PylosMove.generate(board, PLAYER_COLOR, PylosGameState.REMOVE_FIRST, moves);
+        moveOrdering.order(moves, nMoves, 0, getSavedRootMove(PylosGameState.REMOVE_FIRST), PLAYER_COLOR);
+        searchRoot(moves, nMoves, PylosGameState.REMOVE_FIRST);
 
         shoutIfWinnerIsKnown();
         /* execute the best move */
         if (PRINT_MINIMAX_RESULT) System.out.println("-------> " + bestMinimax);
-        game.removeSphere(bestSphere);
+        PylosMove.execute(game, board, PLAYER_COLOR, bestMove);
     }
 
     @Override
     public void doRemoveOrPass(PylosGameIF game, PylosBoard board) {
         init(game.getState(), board);
+        if (playSavedRemoval(game, PylosGameState.REMOVE_SECOND)) return;
 
-        for (PylosSphere sphere : board.getSpheres(PLAYER_COLOR)) {
-            if (sphere.canRemove()) {
-                PylosLocation prevLocation = sphere.getLocation();
-                getObserver().checkingRemoveSphere(sphere);
-                simulator.removeSphere(sphere);
-                double minimax = branchStep(bestMinimax, bestMinimax);
-                eval(minimax, sphere, null);
-                simulator.undoRemoveSecondSphere(sphere, prevLocation, PylosGameState.REMOVE_SECOND, this.PLAYER_COLOR);
-            }
-        }
-
-        getObserver().checkingPass();
-        simulator.pass();
-        double chance = branchStep(bestMinimax, bestMinimax);
-        eval(chance, null, null);
-        simulator.undoPass(PylosGameState.REMOVE_SECOND, this.PLAYER_COLOR);
+        int[] moves = moveBuffers[0];
+        int nMoves = PylosMove.generate(board, PLAYER_COLOR, PylosGameState.REMOVE_SECOND, moves);
+        moveOrdering.order(moves, nMoves, 0, getSavedRootMove(PylosGameState.REMOVE_SECOND), PLAYER_COLOR);
+        searchRoot(moves, nMoves, PylosGameState.REMOVE_SECOND);
 
         shoutIfWinnerIsKnown();
         if (PRINT_MINIMAX_RESULT) System.out.println("-------> " + bestMinimax);
 
         /* execute the best move */
-        if (bestSphere != null) {
-            game.removeSphere(bestSphere);
-        } else {
-            game.pass();
+        PylosMove.execute(game, board, PLAYER_COLOR, bestMove);
+    }
+
+    /**
+     * returns the move ordering statistics of this player, accumulated over all searches
+     *
+     * @return
+     */
+    public MoveOrdering getMoveOrdering() {
+        return moveOrdering;
+    }
+
+    /**
+     * returns the statistics of all searches, a search is one iteration to the branch depth, the saved states are
+     * counted as transposition table
+     *
+     * @return
+     */
+    @Override
+    public SearchStats getSearchStats() {
+        return stats;
+    }
+
+    /**
+     * returns the quiescence search of this player, or null if disabled
+     *
+     * @return
+     */
+    public Quiescence getQuiescence() {
+        return quiescence;
+    }
+
+    /**
+     * saves states under their canonical board state, so rotated and mirrored positions are only searched once
+     *
+     * @param symmetryFolding
+     */
+    public void setSymmetryFolding(boolean symmetryFolding) {
+        SYMMETRY_FOLDING = symmetryFolding;
+    }
+
+    /**
+     * keeps the saved states between the calls of a game instead of starting every search with empty tables, they
+     * are aged by generation: states of earlier calls are only reused if their value is exact (not a bound of a cut
+     * off search) and they were searched at least as deep (wins excepted, their distance is relative to the call that
+     * found them), and dropped when the tables grow too large. The removals after a square are then played from the
+     * search of the move that made it if it got their exact value, or searched again with its best removal first.
+     *
+     * @param keepSearchState
+     */
+    public void setKeepSearchState(boolean keepSearchState) {
+        KEEP_SEARCH_STATE = keepSearchState;
+    }
+
+    /**
+     * returns the number of removals that were played from the saved states, without a search
+     *
+     * @return
+     */
+    public long getNumberOfSavedRemovals() {
+        return nSavedRemovals;
+    }
+
+    /* plays the best removal saved by an earlier call of this turn, it was searched one step less deep at most */
+    private boolean playSavedRemoval(PylosGameIF game, PylosGameState state) {
+        if (!KEEP_SEARCH_STATE) return false;
+        final int symmetry = getRootSymmetry();
+        final long key = getRootKey(state, symmetry);
+
+        /* only an exact value, the best move of a cut off search is just the first that was good enough */
+        SavedState saved = minimaxResults.get(key);
+        Integer move = bestMoves.get(key);
+        if (saved == null || move == null || saved.bound != EXACT || saved.depth < MAX_BRANCH_DEPTH - 1) return false;
+
+        nSavedRemovals++;
+        bestMinimax = saved.minimax;
+        bestMove = PylosMove.transform(move, PylosBitBoard.INVERSE[symmetry]);
+        saved.generation = generation;
+        shoutIfWinnerIsKnown();
+        PylosMove.execute(game, board, PLAYER_COLOR, bestMove);
+        return true;
+    }
+
+    /* the best move saved for the board of this call by an earlier call, to search first */
+    private int getSavedRootMove(PylosGameState state) {
+        if (!KEEP_SEARCH_STATE) return PylosMove.NONE;
+        final int symmetry = getRootSymmetry();
+        return getBestMove(getRootKey(state, symmetry), symmetry);
+    }
+
+    private int getRootSymmetry() {
+        return SYMMETRY_FOLDING ? PylosBitBoard.canonicalSymmetry(board.toLong()) : 0;
+    }
+
+    private long getRootKey(PylosGameState state, int symmetry) {
+        long boardState = board.toLong();
+        if (symmetry != 0) boardState = PylosBitBoard.transform(boardState, symmetry);
+        return addGameState(boardState, state, PLAYER_COLOR);
+    }
+
+    /* out of time, the best of the moves searched so far is played, or the first move if none was */
+    private void searchRoot(int[] moves, int nMoves, PylosGameState state) {
+        stats.startSearch();
+        for (int i = 0; i < nMoves; i++) {
+            int move = moves[i];
+            notifyChecking(move);
+            PylosMove.apply(simulator, board, move);
+            double minimax = branchStep(bestMinimax, bestMinimax);
+            PylosMove.undo(simulator, board, move, state, this.PLAYER_COLOR);
+            if (stopped) break;
+            eval(minimax, move);
+        }
+        if (!stopped) stats.endIteration(MAX_BRANCH_DEPTH);
+        stats.endSearch();
+        if (bestMove == PylosMove.NONE) bestMove = moves[0];
+    }
+
+    private void notifyChecking(int move) {
+        PylosLocation[] locations = board.getLocations();
+        switch (PylosMove.kind(move)) {
+            case PylosMove.ADD:
+                getObserver().checkingMoveSphere(board.getReserve(this), locations[PylosMove.to(move)]);
+                break;
+            case PylosMove.MOVE:
+                getObserver().checkingMoveSphere(locations[PylosMove.from(move)].getSphere(), locations[PylosMove.to(move)]);
+                break;
+            case PylosMove.REMOVE:
+                getObserver().checkingRemoveSphere(locations[PylosMove.from(move)].getSphere());
+                break;
+            default:
+                getObserver().checkingPass();
+                break;
+        }
+    }
+
+    private void shuffle(int[] moves, int nMoves) {
+        for (int i = nMoves - 1; i > 0; i--) {
+            int j = getRandom().nextInt(i + 1);
+            int tmp = moves[i];
+            moves[i] = moves[j];
+            moves[j] = tmp;
         }
     }
 
     private void init(PylosGameState state, PylosBoard board) {
-        this.simulator = new PylosGameSimulator(state, PLAYER_COLOR, board);
+        /* the board is the same for all calls of a game */
+        if (simulator == null || board != this.board) {
+            this.simulator = new PylosGameSimulator(state, PLAYER_COLOR, board);
+        } else {
+            this.simulator.restart(state, PLAYER_COLOR);
+        }
         this.board = board;
         this.bestMinimax = INITIAL_THIS;
-        this.bestSphere = null;
-        this.bestLocation = null;
+        this.bestMove = PylosMove.NONE;
         this.branchDepth = 0;
-        this.minimaxResults = new HashMap<>();
+        this.stopped = false;
+        this.generation++;
+        if (!KEEP_SEARCH_STATE || minimaxResults == null) {
+            this.minimaxResults = new HashMap<>();
+            this.bestMoves = new HashMap<>();
+        } else if (minimaxResults.size() > MAX_SAVED_STATES) {
+            /* age: keep the states that were saved or used by the last call */
+            minimaxResults.values().removeIf(saved -> saved.generation < generation - 1);
+            bestMoves.keySet().retainAll(minimaxResults.keySet());
+        }
+        this.moveOrdering.ageHistory();
         setBranchDepth();
     }
 
@@ -240,12 +347,11 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         getObserver().shout("Thinking... depth: " + MAX_BRANCH_DEPTH);
     }
 
-    private void eval(double minimax, PylosSphere sphere, PylosLocation location) {
+    private void eval(double minimax, int move) {
         if (PRINT_MINIMAX_RESULT) System.out.println(minimax + "  best: " + bestMinimax);
         if (minimax > bestMinimax) {
             bestMinimax = minimax;
-            bestSphere = sphere;
-            bestLocation = location;
+            bestMove = move;
         }
         if (PRINT_MINIMAX_RESULT) {
             if (minimax < WIN_THRESHOLD_OTHER) {
@@ -260,7 +366,9 @@ public class PylosPlayerMiniMax extends PylosPlayer {
     /* ------------------------------------------------------------------------------------------------------------ */
 
     private void shoutIfWinnerIsKnown() {
-        if (bestMinimax < WIN_THRESHOLD_OTHER) {
+        if (stopped) {
+            getObserver().shout("Out of time");
+        } else if (bestMinimax < WIN_THRESHOLD_OTHER) {
             getObserver().shoutGood("If you do optimal moves\nYou can win in " + (int) (bestMinimax - WIN_OTHER) + " steps :)");
         } else if (bestMinimax > WIN_THRESHOLD_THIS) {
             getObserver().shoutBad("Even if you do optimal moves\nI'll win in " + (int) (WIN_THIS - bestMinimax) + " steps :)");
@@ -271,59 +379,57 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         }
     }
 
-    private double branchDoMove(double siblingMinimax) {
+    private double branchDoMove(double siblingMinimax, long branchState, int symmetry) {
 
         final PylosPlayerColor currentColor = simulator.getColor();
         double minimax = currentColor == PLAYER_COLOR ? INITIAL_THIS : INITIAL_OTHER;
-        boolean prune = false;
-
-        PylosSphere myReserveSphere = board.getReserve(currentColor);
-        PylosSphere[] mySpheres = board.getSpheres(currentColor);
-        PylosLocation[] locations = board.getLocations();
-
-        /* try to move a sphere to higher level */
-        for (int sphereId = 0; sphereId < mySpheres.length && !(PRUNE_ENABLE && prune); sphereId++) {
-            PylosSphere sphere = mySpheres[sphereId];
-            if (!sphere.isReserve()) {
-                for (int locationId = 0; locationId < locations.length && !(PRUNE_ENABLE && prune); locationId++) {
-                    PylosLocation location = locations[locationId];
-                    if (sphere.canMoveTo(location)) {
-                        // check chance
-                        PylosLocation prevLocation = sphere.getLocation();
-                        simulator.moveSphere(sphere, location);
-                        double result = branchStep(minimax, siblingMinimax);
-                        if (currentColor == PLAYER_COLOR) {
-                            if (result > minimax) minimax = result;
-                            if (minimax >= siblingMinimax) prune = true;
-                        } else {
-                            if (result < minimax) minimax = result;
-                            if (minimax <= siblingMinimax) prune = true;
-                        }
-                        simulator.undoMoveSphere(sphere, prevLocation, PylosGameState.MOVE, currentColor);
-                        assert simulator.getState() == PylosGameState.MOVE && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.MOVE + " " + currentColor;
-                    }
+        int bestBranchMove = PylosMove.NONE;
+
+        /* moves of spheres to a higher level and reserve additions, best candidates first */
+        final int ply = branchDepth;
+        int[] moves = moveBuffers[ply];
+        int nMoves = PylosMove.generate(board, currentColor, PylosGameState.MOVE, moves);
+        moveOrdering.order(moves, nMoves, ply, getBestMove(branchState, symmetry), currentColor);
+
+        /* the range of the exact value, from the values and bounds of the moves */
+        final boolean max = currentColor == PLAYER_COLOR;
+        double low = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        double high = low;
+        boolean cut = false;
+
+        for (int i = 0; i < nMoves; i++) {
+            int move = moves[i];
+            PylosMove.apply(simulator, board, move);
+            double result = branchStep(minimax, siblingMinimax);
+            low = max ? Math.max(low, lowEnd(result)) : Math.min(low, lowEnd(result));
+            high = max ? Math.max(high, highEnd(result)) : Math.min(high, highEnd(result));
+            PylosMove.undo(simulator, board, move, PylosGameState.MOVE, currentColor);
+            if (stopped) return 0;
+            assert simulator.getState() == PylosGameState.MOVE && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.MOVE + " " + currentColor;
+
+            boolean prune;
+            if (currentColor == PLAYER_COLOR) {
+                if (result > minimax) {
+                    minimax = result;
+                    bestBranchMove = move;
                 }
-            }
-        }
-
-        /* try to add a reserve sphere */
-        for (int locationId = 0; locationId < locations.length && !(PRUNE_ENABLE && prune); locationId++) {
-            PylosLocation location = locations[locationId];
-            if (location.isUsable()) {
-                // check chance
-                simulator.moveSphere(myReserveSphere, location);
-                double result = branchStep(minimax, siblingMinimax);
-                if (currentColor == PLAYER_COLOR) {
-                    if (result > minimax) minimax = result;
-                    if (minimax >= siblingMinimax) prune = true;
-                } else {
-                    if (result < minimax) minimax = result;
-                    if (minimax <= siblingMinimax) prune = true;
+                prune = minimax >= siblingMinimax;
+            } else {
+                if (result < minimax) {
+                    minimax = result;
+                    bestBranchMove = move;
                 }
-                simulator.undoAddSphere(myReserveSphere, PylosGameState.MOVE, currentColor);
-                assert simulator.getState() == PylosGameState.MOVE && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.MOVE + " " + currentColor;
+                prune = minimax <= siblingMinimax;
+            }
+            if (PRUNE_ENABLE && prune) {
+                moveOrdering.cutoff(move, i, ply, MAX_BRANCH_DEPTH - ply + 1, currentColor);
+                cut = i < nMoves - 1;
+                break;
             }
         }
+        lastBound = bound(minimax, low, high, max, cut);
+
+        if (bestBranchMove != PylosMove.NONE) bestMoves.put(branchState, PylosMove.transform(bestBranchMove, symmetry));
 
         assert !(currentColor == PLAYER_COLOR && minimax == INITIAL_THIS);
         assert !(currentColor != PLAYER_COLOR && minimax == INITIAL_OTHER);
@@ -331,32 +437,56 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         return minimax;
     }
 
-    private double branchDoRemove(double parentSiblingMinimax) {
+    private double branchDoRemove(double parentSiblingMinimax, long branchState, int symmetry) {
 
         final PylosPlayerColor currentColor = simulator.getColor();
         double minimax = currentColor == PLAYER_COLOR ? INITIAL_THIS : INITIAL_OTHER;
-        boolean prune = false;
+        int bestBranchMove = PylosMove.NONE;
 
-        PylosSphere[] mySpheres = board.getSpheres(currentColor);
+        final int ply = branchDepth;
+        int[] moves = moveBuffers[ply];
+        int nMoves = PylosMove.generate(board, currentColor, PylosGameState.REMOVE_FIRST, moves);
+        moveOrdering.order(moves, nMoves, ply, getBestMove(branchState, symmetry), currentColor);
+
+        final boolean max = currentColor == PLAYER_COLOR;
+        double low = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        double high = low;
+        boolean cut = false;
 
         /* remove a sphere */
-        for (int sphereId = 0; sphereId < mySpheres.length && !(PRUNE_ENABLE && prune); sphereId++) {
-            PylosSphere sphere = mySpheres[sphereId];
-            if (sphere.canRemove()) {
-                PylosLocation prevLocation = sphere.getLocation();
-                simulator.removeSphere(sphere);
-                double result = branchStep(parentSiblingMinimax, parentSiblingMinimax);
-                if (currentColor == PLAYER_COLOR) {
-                    if (result > minimax) minimax = result;
-                    if (minimax >= parentSiblingMinimax) prune = true;
-                } else {
-                    if (result < minimax) minimax = result;
-                    if (minimax <= parentSiblingMinimax) prune = true;
+        for (int i = 0; i < nMoves; i++) {
+            int move = moves[i];
+            PylosMove.apply(simulator, board, move);
+            double result = branchStep(parentSiblingMinimax, parentSiblingMinimax);
+            low = max ? Math.max(low, lowEnd(result)) : Math.min(low, lowEnd(result));
+            high = max ? Math.max(high, highEnd(result)) : Math.min(high, highEnd(result));
+            PylosMove.undo(simulator, board, move, PylosGameState.REMOVE_FIRST, currentColor);
+            if (stopped) return 0;
+            assert simulator.getState() == PylosGameState.REMOVE_FIRST && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.REMOVE_FIRST + " " + currentColor;
+
+            boolean prune;
+            if (currentColor == PLAYER_COLOR) {
+                if (result > minimax) {
+                    minimax = result;
+                    bestBranchMove = move;
+                }
+                prune = minimax >= parentSiblingMinimax;
+            } else {
+                if (result < minimax) {
+                    minimax = result;
+                    bestBranchMove = move;
                 }
-                simulator.undoRemoveFirstSphere(sphere, prevLocation, PylosGameState.REMOVE_FIRST, currentColor);
-                assert simulator.getState() == PylosGameState.REMOVE_FIRST && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.REMOVE_FIRST + " " + currentColor;
+                prune = minimax <= parentSiblingMinimax;
+            }
+            if (PRUNE_ENABLE && prune) {
+                moveOrdering.cutoff(move, i, ply, MAX_BRANCH_DEPTH - ply + 1, currentColor);
+                cut = i < nMoves - 1;
+                break;
             }
         }
+        lastBound = bound(minimax, low, high, max, cut);
+
+        if (bestBranchMove != PylosMove.NONE) bestMoves.put(branchState, PylosMove.transform(bestBranchMove, symmetry));
 
         assert !(currentColor == PLAYER_COLOR && minimax == INITIAL_THIS);
         assert !(currentColor != PLAYER_COLOR && minimax == INITIAL_OTHER);
@@ -388,43 +518,76 @@ public class PylosPlayerMiniMax extends PylosPlayer {
 //		return branchStep(siblingMinimax, 0);
 //	}
 
-    private double branchDoRemoveOrPass(double parentSiblingMinimax) {
+    private double branchDoRemoveOrPass(double parentSiblingMinimax, long branchState, int symmetry) {
 
         final PylosPlayerColor currentColor = simulator.getColor();
         double minimax = currentColor == PLAYER_COLOR ? INITIAL_THIS : INITIAL_OTHER;
+        int bestBranchMove = PylosMove.NONE;
         boolean prune = false;
 
-        PylosSphere[] mySpheres = board.getSpheres(currentColor);
+        final int ply = branchDepth;
+        int[] moves = moveBuffers[ply];
+        int nMoves = PylosMove.generate(board, currentColor, PylosGameState.REMOVE_SECOND, moves);
+        moveOrdering.order(moves, nMoves, ply, getBestMove(branchState, symmetry), currentColor);
+
+        final boolean max = currentColor == PLAYER_COLOR;
+        double low = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        double high = low;
+        boolean cut = false;
 
         /* remove a sphere */
-        for (int sphereId = 0; sphereId < mySpheres.length && !(PRUNE_ENABLE && prune); sphereId++) {
-            PylosSphere sphere = mySpheres[sphereId];
-            if (sphere.canRemove()) {
-                PylosLocation prevLocation = sphere.getLocation();
-                simulator.removeSphere(sphere);
-                double result = branchStep(minimax, minimax);
-                if (currentColor == PLAYER_COLOR) {
-                    if (result > minimax) minimax = result;
-                    if (minimax >= parentSiblingMinimax) prune = true;
-                } else {
-                    if (result < minimax) minimax = result;
-                    if (minimax <= parentSiblingMinimax) prune = true;
+        for (int i = 0; i < nMoves; i++) {
+            int move = moves[i];
+            if (move == PylosMove.PASS) continue;
+            if (PRUNE_ENABLE && prune) {
+                cut = true;
+                break;
+            }
+            PylosMove.apply(simulator, board, move);
+            double result = branchStep(minimax, minimax);
+            low = max ? Math.max(low, lowEnd(result)) : Math.min(low, lowEnd(result));
+            high = max ? Math.max(high, highEnd(result)) : Math.min(high, highEnd(result));
+            PylosMove.undo(simulator, board, move, PylosGameState.REMOVE_SECOND, currentColor);
+            if (stopped) return 0;
+            assert simulator.getState() == PylosGameState.REMOVE_SECOND && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.REMOVE_SECOND + " " + currentColor;
+
+            if (currentColor == PLAYER_COLOR) {
+                if (result > minimax) {
+                    minimax = result;
+                    bestBranchMove = move;
                 }
-                simulator.undoRemoveSecondSphere(sphere, prevLocation, PylosGameState.REMOVE_SECOND, currentColor);
-                assert simulator.getState() == PylosGameState.REMOVE_SECOND && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.REMOVE_SECOND + " " + currentColor;
+                if (minimax >= parentSiblingMinimax) prune = true;
+            } else {
+                if (result < minimax) {
+                    minimax = result;
+                    bestBranchMove = move;
+                }
+                if (minimax <= parentSiblingMinimax) prune = true;
             }
+            if (PRUNE_ENABLE && prune) moveOrdering.cutoff(move, i, ply, MAX_BRANCH_DEPTH - ply + 1, currentColor);
         }
 
         /* pass */
         simulator.pass();
         double result = board.getReservesSize(this.PLAYER_COLOR.other()) - board.getReservesSize(this.PLAYER_COLOR);
+        low = max ? Math.max(low, result) : Math.min(low, result);
+        high = max ? Math.max(high, result) : Math.min(high, result);
         if (currentColor == PLAYER_COLOR) {
-            if (result > minimax) minimax = result;
+            if (result > minimax) {
+                minimax = result;
+                bestBranchMove = PylosMove.PASS;
+            }
         } else {
-            if (result < minimax) minimax = result;
+            if (result < minimax) {
+                minimax = result;
+                bestBranchMove = PylosMove.PASS;
+            }
         }
         simulator.undoPass(PylosGameState.REMOVE_SECOND, currentColor);
         assert simulator.getState() == PylosGameState.REMOVE_SECOND && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.REMOVE_SECOND + " " + currentColor;
+        lastBound = bound(minimax, low, high, max, cut);
+
+        if (bestBranchMove != PylosMove.NONE) bestMoves.put(branchState, PylosMove.transform(bestBranchMove, symmetry));
 
         assert !(currentColor == PLAYER_COLOR && minimax == INITIAL_THIS);
         assert !(currentColor != PLAYER_COLOR && minimax == INITIAL_OTHER);
@@ -432,6 +595,33 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         return minimax;
     }
 
+    /* the lowest and highest exact value a result of branchStep(..) can be of, with its bound in lastBound */
+    private double lowEnd(double result) {
+        return lastBound == UPPER ? Double.NEGATIVE_INFINITY : result;
+    }
+
+    private double highEnd(double result) {
+        return lastBound == LOWER ? Double.POSITIVE_INFINITY : result;
+    }
+
+    /* the bound of the minimax of a node of which the exact value is in [low, high] for the searched moves, a cut
+     * off leaves the other moves unsearched, their values can only raise a maximum or lower a minimum */
+    private static int bound(double minimax, double low, double high, boolean max, boolean cut) {
+        if (cut) {
+            if (max) high = Double.POSITIVE_INFINITY;
+            else low = Double.NEGATIVE_INFINITY;
+        }
+        if (low == high) return EXACT;
+        /* if minimax is neither end, it is no bound at all: UPPER, like a bound it is not reused as a value */
+        return minimax == low ? LOWER : UPPER;
+    }
+
+    /* saved best moves are in the orientation of the key, 'symmetry' maps the board to it */
+    private int getBestMove(long branchState, int symmetry) {
+        Integer move = bestMoves.get(branchState);
+        return move == null ? PylosMove.NONE : PylosMove.transform(move, PylosBitBoard.INVERSE[symmetry]);
+    }
+
     private long addGameState(long boardState, PylosGameState gameState, PylosPlayerColor color) {
 
         if (color == PylosPlayerColor.DARK) {
@@ -456,37 +646,58 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         return boardState;
     }
 
+    /* once out of time, returns 0 for every state without searching or saving it, see 'stopped' */
     private double branchStep(double siblingMinimax, double parentSiblingMinimax) {
 
+        if ((++nNodes & (STOP_CHECK_INTERVAL - 1)) == 0 && isOutOfTime()) stopped = true;
+        if (stopped) return 0;
+
+        stats.node(branchDepth + 1);
+        lastBound = EXACT;
         if (branchDepth == MAX_BRANCH_DEPTH) {
+            stats.leafEval();
+            if (quiescence != null && simulator.getState() != PylosGameState.COMPLETED) {
+                double result = quiescence.evaluate(simulator, board, INITIAL_THIS, INITIAL_OTHER, branchDepth);
+                return simulator.getColor() == PLAYER_COLOR ? result : -result;
+            }
             return board.getReservesSize(PLAYER_COLOR) - board.getReservesSize(PLAYER_COLOR.other());
         }
 
         final PylosPlayerColor color = simulator.getColor();
         final PylosGameState state = simulator.getState();
-        final Long minimaxBranchState = addGameState(board.toLong(), state, color);
+        long boardState = board.toLong();
+        final int symmetry = SYMMETRY_FOLDING ? PylosBitBoard.canonicalSymmetry(boardState) : 0;
+        if (symmetry != 0) boardState = PylosBitBoard.transform(boardState, symmetry);
+        final Long minimaxBranchState = addGameState(boardState, state, color);
+        final int depth = MAX_BRANCH_DEPTH - branchDepth;
 
-        Double result;
         if (SAVE_STATES) {
-            result = minimaxResults.get(minimaxBranchState);
-            if (result != null) {
-                return result;
+            SavedState saved = minimaxResults.get(minimaxBranchState);
+            stats.ttProbe(saved != null);
+            if (saved != null && (saved.generation == generation || saved.bound == EXACT && saved.depth >= depth
+                    && saved.minimax < WIN_THRESHOLD_THIS && saved.minimax > WIN_THRESHOLD_OTHER)) {
+                stats.ttCutoff();
+                saved.generation = generation;
+                lastBound = saved.bound;
+                return saved.minimax;
             }
         }
 
+        double result;
+
         branchDepth++;
 
         switch (state) {
             case MOVE:
-                result = branchDoMove(siblingMinimax);
+                result = branchDoMove(siblingMinimax, minimaxBranchState, symmetry);
                 assert simulator.getColor() == color && simulator.getState() == state;
                 break;
             case REMOVE_FIRST:
-                result = branchDoRemove(parentSiblingMinimax);
+                result = branchDoRemove(parentSiblingMinimax, minimaxBranchState, symmetry);
                 assert simulator.getColor() == color && simulator.getState() == state;
                 break;
             case REMOVE_SECOND:
-                result = branchDoRemoveOrPass(parentSiblingMinimax);
+                result = branchDoRemoveOrPass(parentSiblingMinimax, minimaxBranchState, symmetry);
                 assert simulator.getColor() == color && simulator.getState() == state;
                 break;
             case COMPLETED:
@@ -505,11 +716,27 @@ public class PylosPlayerMiniMax extends PylosPlayer {
                 throw new IllegalStateException("Game state is: " + state);
         }
 
-        if (SAVE_STATES) {
-            minimaxResults.put(minimaxBranchState, result);
+        if (SAVE_STATES && !stopped) {
+            minimaxResults.put(minimaxBranchState, new SavedState(result, lastBound, depth, generation));
         }
 
         branchDepth--;
         return result;
     }
+
+    /* a searched state: its minimax value and whether it is exact or a bound, the remaining branch depth it was
+     * searched with and the last call that saved or used it */
+    private static final class SavedState {
+        final double minimax;
+        final int bound;
+        final int depth;
+        int generation;
+
+        SavedState(double minimax, int bound, int depth, int generation) {
+            this.minimax = minimax;
+            this.bound = bound;
+            this.depth = depth;
+            this.generation = generation;
+        }
+    }
 }
@@ -0,0 +1,148 @@
+package be.kuleuven.pylos.player.codes;
+
+import be.kuleuven.pylos.book.OpeningBook;
+import be.kuleuven.pylos.game.PylosBoard;
+import be.kuleuven.pylos.game.PylosGameIF;
+import be.kuleuven.pylos.game.PylosGameState;
+import be.kuleuven.pylos.search.MoveOrdering;
+import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.search.PylosMove;
+import be.kuleuven.pylos.search.PylosSearch;
+import be.kuleuven.pylos.search.Quiescence;
+import be.kuleuven.pylos.search.SearchStats;
+
+/**
+ * Principal variation search player, with the same evaluation as PylosPlayerMiniMax (difference in reserves).
+ * The search itself is done by PylosSearch: iterative deepening, aspiration windows, transposition table, move ordering
+ * and a quiescence search of square captures at the leaves.
+ * When the game lets it ponder, it searches the opponent's position until the opponent has moved, which leaves the
+ * transposition table filled for the own search.
+ */
+public class PylosPlayerPVS extends PylosPlayer {
+
+    private final boolean PRINT_SEARCH_RESULT = false;
+    private final boolean VAR_BRANCH_DEPTH;
+    private final int VAR_BRANCH_START_DEPTH;
+    private int MAX_BRANCH_DEPTH;
+
+    private final PylosSearch search = new PylosSearch();
+    private final SearchStats stats = search.getStats();
+    private final SearchStats ponderStats = new SearchStats();
+    private OpeningBook openingBook;
+
+    public PylosPlayerPVS() {
+        VAR_BRANCH_DEPTH = true;
+        VAR_BRANCH_START_DEPTH = 8;
+        MAX_BRANCH_DEPTH = VAR_BRANCH_START_DEPTH;
+        search.setQuiescence(new Quiescence(PylosSearch.RESERVES));
+    }
+
+    public PylosPlayerPVS(Integer branchDepth) {
+        VAR_BRANCH_DEPTH = false;
+        VAR_BRANCH_START_DEPTH = Integer.MAX_VALUE;    // not used
+        MAX_BRANCH_DEPTH = branchDepth;
+        search.setQuiescence(new Quiescence(PylosSearch.RESERVES));
+    }
+
+    @Override
+    public void doMove(PylosGameIF game, PylosBoard board) {
+        if (openingBook != null) {
+            int move = openingBook.selectMove(board, PLAYER_COLOR, getRandom());
+            if (move != PylosMove.NONE) {
+                PylosMove.execute(game, board, PLAYER_COLOR, move);
+                return;
+            }
+        }
+        PylosMove.execute(game, board, PLAYER_COLOR, search(board, PylosGameState.MOVE));
+    }
+
+    @Override
+    public void doRemove(PylosGameIF game, PylosBoard board) {
+        PylosMove.execute(game, board, PLAYER_COLOR, search(board, PylosGameState.REMOVE_FIRST));
+    }
+
+    @Override
+    public void doRemoveOrPass(PylosGameIF game, PylosBoard board) {
+        PylosMove.execute(game, board, PLAYER_COLOR, search(board, PylosGameState.REMOVE_SECOND));
+    }
+
+    /**
+     * returns the search engine of this player, to configure it or to read its statistics
+     *
+     * @return
+     */
+    public PylosSearch getSearch() {
+        return search;
+    }
+
+    /**
+     * returns the statistics of the searches of the calls, pondering is not included (see getPonderStats())
+     *
+     * @return
+     */
+    @Override
+    public SearchStats getSearchStats() {
+        return stats;
+    }
+
+    /**
+     * returns the statistics of the searches while pondering
+     *
+     * @return
+     */
+    public SearchStats getPonderStats() {
+        return ponderStats;
+    }
+
+    /**
+     * plays book moves while the position is in 'openingBook', null to always search
+     *
+     * @param openingBook
+     */
+    public void setOpeningBook(OpeningBook openingBook) {
+        this.openingBook = openingBook;
+    }
+
+    @Override
+    protected boolean canPonder() {
+        return true;
+    }
+
+    @Override
+    protected void ponder(PylosBoard board, PylosGameState state) {
+        search.setRandom(null);
+        search.setStats(ponderStats);
+        try {
+            search.search(board, state, PLAYER_COLOR.other(), MoveOrdering.MAX_PLY - 1, this::isPonderingStopped);
+        } finally {
+            search.setStats(stats);
+        }
+    }
+
+    private int search(PylosBoard board, PylosGameState state) {
+        if (VAR_BRANCH_DEPTH) {
+            MAX_BRANCH_DEPTH = VAR_BRANCH_START_DEPTH + board.getNumberOfSpheresOnBoard() / 3;
+        }
+        getObserver().shout("Thinking... depth: " + MAX_BRANCH_DEPTH);
+        search.setRandom(getRandom());
+
+        /* with a time control, the last iteration that completed before the deadline */
+        int move = search.search(board, state, PLAYER_COLOR, MAX_BRANCH_DEPTH, this::isOutOfTime);
+
+        if (PRINT_SEARCH_RESULT) {
+            StringBuilder pv = new StringBuilder();
+            for (int pvMove : search.getPrincipalVariation()) pv.append(PylosMove.toString(pvMove)).append(", ");
+            System.out.println("-------> " + search.getScore() + " depth " + search.getCompletedDepth() + " pv " + pv);
+        }
+        shoutIfWinnerIsKnown(search.getScore());
+        return move;
+    }
+
+    private void shoutIfWinnerIsKnown(double score) {
+        if (score < -PylosSearch.WIN_THRESHOLD) {
+            getObserver().shoutGood("If you do optimal moves\nYou can win in " + (int) (PylosSearch.WIN + score) + " steps :)");
+        } else if (score > PylosSearch.WIN_THRESHOLD) {
+            getObserver().shoutBad("Even if you do optimal moves\nI'll win in " + (int) (PylosSearch.WIN - score) + " steps :)");
+        }
+    }
+}
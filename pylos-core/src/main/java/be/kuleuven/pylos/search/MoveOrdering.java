@@ -0,0 +1,147 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.PylosPlayerColor;
+
+import java.util.Arrays;
+
+/**
+ * Move ordering for alpha-beta searches on the PylosGameSimulator.
+ * <p>
+ * Moves are tried in the order:
+ * (1) the transposition table move, (2) the two killer moves of the ply, (3) by history score.
+ * Moves are PylosMove encoded ints, the history table is indexed by [color][encoded move].
+ * <p>
+ * One instance per search thread, it is not thread safe.
+ */
+public class MoveOrdering {
+
+    public static final int MAX_PLY = 128;
+
+    private static final int TT_MOVE_SCORE = Integer.MAX_VALUE;
+    private static final int KILLER_1_SCORE = Integer.MAX_VALUE - 1;
+    private static final int KILLER_2_SCORE = Integer.MAX_VALUE - 2;
+    private static final int HISTORY_MAX = 1 << 24;
+
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final int[][] history = new int[2][PylosMove.TABLE_SIZE];
+    private final int[][] scores = new int[MAX_PLY][PylosMove.MAX_MOVES];
+
+    /* statistics */
+    private long nCutoffs;
+    private long nFirstMoveCutoffs;
+
+    public MoveOrdering() {
+        clear();
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    /**
+     * sorts moves[0..n) in place, best candidates first
+     *
+     * @param moves
+     * @param n
+     * @param ply    distance from the root of the search
+     * @param ttMove best move stored in the transposition table, or PylosMove.NONE
+     * @param color  color to move
+     */
+    public void order(int[] moves, int n, int ply, int ttMove, PylosPlayerColor color) {
+        int[] s = scores[Math.min(ply, MAX_PLY - 1)];
+        int[] killer = killers[Math.min(ply, MAX_PLY - 1)];
+        int[] hist = history[color.ordinal()];
+        for (int i = 0; i < n; i++) {
+            int move = moves[i];
+            if (move == ttMove) s[i] = TT_MOVE_SCORE;
+            else if (move == killer[0]) s[i] = KILLER_1_SCORE;
+            else if (move == killer[1]) s[i] = KILLER_2_SCORE;
+            else s[i] = hist[move];
+        }
+        /* insertion sort, stable and fast for the short lists we get here */
+        for (int i = 1; i < n; i++) {
+            int move = moves[i];
+            int score = s[i];
+            int j = i - 1;
+            while (j >= 0 && s[j] < score) {
+                moves[j + 1] = moves[j];
+                s[j + 1] = s[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            s[j + 1] = score;
+        }
+    }
+
+    /**
+     * to be called when 'move', the moveIndex'th move tried at 'ply', caused a beta cutoff
+     *
+     * @param move
+     * @param moveIndex index in the ordered move list, 0 for the first move
+     * @param ply
+     * @param depth     remaining depth of the node
+     * @param color     color that performed the move
+     */
+    public void cutoff(int move, int moveIndex, int ply, int depth, PylosPlayerColor color) {
+        nCutoffs++;
+        if (moveIndex == 0) nFirstMoveCutoffs++;
+
+        int[] killer = killers[Math.min(ply, MAX_PLY - 1)];
+        if (killer[0] != move) {
+            killer[1] = killer[0];
+            killer[0] = move;
+        }
+
+        int[] hist = history[color.ordinal()];
+        hist[move] += depth * depth;
+        if (hist[move] > HISTORY_MAX) ageHistory();
+    }
+
+    /**
+     * halves all history scores, keeps relative order while letting new information take over
+     */
+    public void ageHistory() {
+        for (int[] hist : history) {
+            for (int i = 0; i < hist.length; i++) hist[i] >>= 1;
+        }
+    }
+
+    /**
+     * resets killers and history, the statistics are kept
+     */
+    public final void clear() {
+        for (int[] killer : killers) {
+            killer[0] = PylosMove.NONE;
+            killer[1] = PylosMove.NONE;
+        }
+        for (int[] hist : history) {
+            Arrays.fill(hist, 0);
+        }
+    }
+
+    /* statistics ------------------------------------------------------------------------------------------------- */
+
+    public long getCutoffs() {
+        return nCutoffs;
+    }
+
+    public long getFirstMoveCutoffs() {
+        return nFirstMoveCutoffs;
+    }
+
+    /**
+     * returns the fraction of cutoffs caused by the first move tried, 1.0 is perfect ordering
+     *
+     * @return
+     */
+    public double getFirstMoveCutoffRate() {
+        return nCutoffs == 0 ? 0 : (double) nFirstMoveCutoffs / nCutoffs;
+    }
+
+    public void resetStats() {
+        nCutoffs = 0;
+        nFirstMoveCutoffs = 0;
+    }
+
+    public String toString() {
+        return "MoveOrdering[cutoffs=" + nCutoffs + ", firstMoveCutoffs=" + String.format("%.1f", getFirstMoveCutoffRate() * 100) + "%]";
+    }
+}
@@ -0,0 +1,201 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.PylosBitBoard;
+import be.kuleuven.pylos.game.PylosBoard;
+import be.kuleuven.pylos.game.PylosGameState;
+import be.kuleuven.pylos.game.PylosPlayerColor;
+
+import java.util.SplittableRandom;
+
+/**
+ * Playouts to the end of the game on primitive state: the masks of both colors (see PylosBitBoard), the color to move
+ * and the turn phase. Nothing is allocated after construction, so any player can use it for Monte Carlo evaluation
+ * without touching its PylosBoard.
+ * <p>
+ * Actions are random (epsilon 1, the default) or epsilon-greedy: with probability 1 - epsilon a move that completes a
+ * square is taken if there is one, otherwise a move of a sphere to a higher level, and a sphere is removed rather than
+ * passing. The rules are those of PylosGameSimulator: a player that makes a move that does not complete a square with
+ * its last reserve loses. A playout that doesn't end within MAX_PLIES actions is a draw.
+ * <p>
+ * One instance per thread, it is not thread safe.
+ */
+public final class PlayoutKernel {
+
+    public static final int MAX_PLIES = 256;
+
+    private static final int MOVE = 0;
+    private static final int REMOVE_FIRST = 1;
+    private static final int REMOVE_SECOND = 2;
+    private static final int FROM_RESERVE = 31;           // 'from' of an add, actions are encoded as from << 5 | to
+
+    private final SplittableRandom random;
+    private double epsilon = 1;
+
+    private final int[] actions = new int[PylosMove.MAX_MOVES];
+    private final int[] greedy = new int[PylosMove.MAX_MOVES];
+
+    /* statistics */
+    private long nPlayouts;
+    private long nPlies;
+
+    public PlayoutKernel(SplittableRandom random) {
+        this.random = random;
+    }
+
+    public static void main(String[] args) {
+        double epsilon = args.length > 0 ? Double.parseDouble(args[0]) : 1;
+        long duration = args.length > 1 ? Long.parseLong(args[1]) : 5000;
+
+        PlayoutKernel kernel = new PlayoutKernel(new SplittableRandom(0));
+        kernel.setEpsilon(epsilon);
+        long empty = new PylosBoard().toLong();
+        double light = 0;
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < duration) {
+            for (int i = 0; i < 1000; i++) light += kernel.play(empty, PylosGameState.MOVE, PylosPlayerColor.LIGHT);
+        }
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        System.out.printf("epsilon %.2f: %.0f playouts/s, %.0f plies/s, %.1f plies per playout, light scores %.3f%n",
+                epsilon, kernel.getNumberOfPlayouts() / seconds, kernel.getNumberOfPlies() / seconds,
+                (double) kernel.getNumberOfPlies() / kernel.getNumberOfPlayouts(), light / kernel.getNumberOfPlayouts());
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    /**
+     * probability of a random action, 1 for uniformly random playouts
+     *
+     * @param epsilon
+     */
+    public void setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * plays a game from the position 'boardState' (PylosBoard.toLong()) with 'color' to move in 'state'
+     *
+     * @param boardState
+     * @param state      MOVE, REMOVE_FIRST or REMOVE_SECOND
+     * @param color
+     * @return the result for 'color': 1 for a win, 0 for a loss, 0.5 for a draw
+     */
+    public double play(long boardState, PylosGameState state, PylosPlayerColor color) {
+        int light = PylosBitBoard.light(boardState);
+        int dark = PylosBitBoard.dark(boardState);
+        boolean darkToMove = color == PylosPlayerColor.DARK;
+        int phase = state == PylosGameState.MOVE ? MOVE : state == PylosGameState.REMOVE_FIRST ? REMOVE_FIRST : REMOVE_SECOND;
+        nPlayouts++;
+
+        for (int ply = 0; ply < MAX_PLIES; ply++) {
+            nPlies++;
+            int own = darkToMove ? dark : light;
+            int occupied = light | dark;
+            boolean switchColor = false;
+            switch (phase) {
+                case MOVE:
+                    int action = chooseMove(own, occupied);
+                    int from = action >>> 5;
+                    int to = action & 31;
+                    own = (from == FROM_RESERVE ? own : own & ~(1 << from)) | 1 << to;
+                    if (PylosBitBoard.isSquare(own, to)) {
+                        phase = REMOVE_FIRST;
+                    } else if (PylosBitBoard.reserves(own) == 0) {
+                        return darkToMove == (color == PylosPlayerColor.DARK) ? 0 : 1;
+                    } else {
+                        switchColor = true;
+                    }
+                    break;
+                case REMOVE_FIRST:
+                    own &= ~randomBit(PylosBitBoard.free(own, occupied));
+                    phase = REMOVE_SECOND;
+                    break;
+                default:
+                    int free = PylosBitBoard.free(own, occupied);
+                    int nFree = Integer.bitCount(free);
+                    /* uniform over the removals and the pass */
+                    int choice = nFree > 0 && isGreedy() ? random.nextInt(nFree) : random.nextInt(nFree + 1);
+                    if (choice < nFree) own &= ~Integer.expand(1 << choice, free);
+                    switchColor = true;
+                    break;
+            }
+            if (darkToMove) {
+                dark = own;
+            } else {
+                light = own;
+            }
+            if (switchColor) {
+                darkToMove = !darkToMove;
+                phase = MOVE;
+            }
+        }
+        return 0.5;
+    }
+
+    /**
+     * returns the average result of 'n' playouts, see play(..)
+     *
+     * @param boardState
+     * @param state
+     * @param color
+     * @param n
+     * @return
+     */
+    public double evaluate(long boardState, PylosGameState state, PylosPlayerColor color, int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) sum += play(boardState, state, color);
+        return sum / n;
+    }
+
+    public long getNumberOfPlayouts() {
+        return nPlayouts;
+    }
+
+    public long getNumberOfPlies() {
+        return nPlies;
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    private boolean isGreedy() {
+        return epsilon < 1 && random.nextDouble() >= epsilon;
+    }
+
+    /* the add or move of the player with spheres 'own', as from << 5 | to */
+    private int chooseMove(int own, int occupied) {
+        int n = 0;
+        int free = PylosBitBoard.free(own, occupied);
+        boolean hasReserves = PylosBitBoard.reserves(own) > 0;
+        for (int usable = PylosBitBoard.usable(occupied); usable != 0; usable &= usable - 1) {
+            int to = Integer.numberOfTrailingZeros(usable);
+            if (hasReserves) actions[n++] = FROM_RESERVE << 5 | to;
+            for (int rest = free; rest != 0; rest &= rest - 1) {
+                int from = Integer.numberOfTrailingZeros(rest);
+                if (PylosBitBoard.canMoveUp(from, to)) actions[n++] = from << 5 | to;
+            }
+        }
+        assert n > 0 : "No legal moves";
+
+        if (isGreedy()) {
+            int nSquares = 0;
+            int nUp = 0;
+            for (int i = 0; i < n; i++) {
+                int from = actions[i] >>> 5;
+                int to = actions[i] & 31;
+                int after = (from == FROM_RESERVE ? own : own & ~(1 << from)) | 1 << to;
+                /* squares are collected at the front of 'greedy', moves up at the back */
+                if (PylosBitBoard.isSquare(after, to)) {
+                    greedy[nSquares++] = actions[i];
+                } else if (from != FROM_RESERVE) {
+                    greedy[n - 1 - nUp++] = actions[i];
+                }
+            }
+            if (nSquares > 0) return greedy[random.nextInt(nSquares)];
+            if (nUp > 0) return greedy[n - 1 - random.nextInt(nUp)];
+        }
+        return actions[random.nextInt(n)];
+    }
+
+    private int randomBit(int mask) {
+        return Integer.expand(1 << random.nextInt(Integer.bitCount(mask)), mask);
+    }
+}
@@ -0,0 +1,239 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.*;
+
+/**
+ * Packed int representation of a single player action (add, move, remove or pass).
+ * <p>
+ * ........ ........ ....kkff fffttttt
+ * <p>
+ * k: kind (ADD, MOVE, REMOVE, PASS), f: from location id, t: to location id (see PylosLocation.ID)
+ * <p>
+ * All encoded moves are smaller than TABLE_SIZE, so they can be used directly as index in history tables.
+ */
+public final class PylosMove {
+
+    public static final int ADD = 0;
+    public static final int MOVE = 1;
+    public static final int REMOVE = 2;
+    public static final int PASS_KIND = 3;
+
+    public static final int NONE = -1;
+    public static final int PASS = PASS_KIND << 10;
+    public static final int TABLE_SIZE = 4 << 10;
+
+    /* upper bound on the number of legal actions in any position */
+    public static final int MAX_MOVES = 256;
+
+    private PylosMove() {
+    }
+
+    /* encoding --------------------------------------------------------------------------------------------------- */
+
+    public static int add(PylosLocation to) {
+        return (ADD << 10) | to.ID;
+    }
+
+    public static int move(PylosLocation from, PylosLocation to) {
+        return (MOVE << 10) | (from.ID << 5) | to.ID;
+    }
+
+    public static int remove(PylosLocation from) {
+        return (REMOVE << 10) | (from.ID << 5);
+    }
+
+    public static int kind(int move) {
+        return move >>> 10;
+    }
+
+    public static int from(int move) {
+        return (move >>> 5) & 31;
+    }
+
+    public static int to(int move) {
+        return move & 31;
+    }
+
+    /**
+     * returns the z level of the target location of an add or move
+     *
+     * @param move
+     * @return
+     */
+    public static int toZ(int move) {
+        int to = to(move);
+        return to < 16 ? 0 : to < 25 ? 1 : to < 29 ? 2 : 3;
+    }
+
+    /**
+     * returns the image of 'move' under a board symmetry (see PylosBitBoard.SYMMETRIES), pass and none are unchanged
+     *
+     * @param move
+     * @param symmetry
+     * @return
+     */
+    public static int transform(int move, int symmetry) {
+        if (move == NONE || symmetry == 0) return move;
+        int[] image = PylosBitBoard.SYMMETRIES[symmetry];
+        switch (kind(move)) {
+            case ADD:
+                return (ADD << 10) | image[to(move)];
+            case MOVE:
+                return (MOVE << 10) | (image[from(move)] << 5) | image[to(move)];
+            case REMOVE:
+                return (REMOVE << 10) | (image[from(move)] << 5);
+            default:
+                return move;
+        }
+    }
+
+    /* generation ------------------------------------------------------------------------------------------------- */
+
+    /**
+     * writes all legal actions of 'color' in 'state' to 'moves', starting at index 0
+     * moves of spheres to a higher level come first, followed by reserve additions
+     *
+     * @param board
+     * @param color
+     * @param state
+     * @param moves array of at least MAX_MOVES elements
+     * @return the number of generated actions
+     */
+    public static int generate(PylosBoard board, PylosPlayerColor color, PylosGameState state, int[] moves) {
+        int n = 0;
+        PylosLocation[] locations = board.getLocations();
+        switch (state) {
+            case MOVE:
+                for (PylosSphere sphere : board.getSpheres(color)) {
+                    if (!sphere.isReserve() && sphere.canMove()) {
+                        for (PylosLocation location : locations) {
+                            if (sphere.canMoveTo(location)) {
+                                moves[n++] = move(sphere.getLocation(), location);
+                            }
+                        }
+                    }
+                }
+                if (board.getReservesSize(color) > 0) {
+                    for (PylosLocation location : locations) {
+                        if (location.isUsable()) {
+                            moves[n++] = add(location);
+                        }
+                    }
+                }
+                break;
+            case REMOVE_FIRST:
+            case REMOVE_SECOND:
+                for (PylosSphere sphere : board.getSpheres(color)) {
+                    if (sphere.canRemove()) {
+                        moves[n++] = remove(sphere.getLocation());
+                    }
+                }
+                if (state == PylosGameState.REMOVE_SECOND) {
+                    moves[n++] = PASS;
+                }
+                break;
+            default:
+                break;
+        }
+        return n;
+    }
+
+    /* execution -------------------------------------------------------------------------------------------------- */
+
+    /**
+     * performs 'move' on the simulator, the color to move is the current color of the simulator
+     *
+     * @param simulator
+     * @param board
+     * @param move
+     */
+    public static void apply(PylosGameSimulator simulator, PylosBoard board, int move) {
+        PylosLocation[] locations = board.getLocations();
+        switch (kind(move)) {
+            case ADD:
+                simulator.moveSphere(board.getReserve(simulator.getColor()), locations[to(move)]);
+                break;
+            case MOVE:
+                simulator.moveSphere(locations[from(move)].getSphere(), locations[to(move)]);
+                break;
+            case REMOVE:
+                simulator.removeSphere(locations[from(move)].getSphere());
+                break;
+            default:
+                simulator.pass();
+                break;
+        }
+    }
+
+    /**
+     * reverts 'move', which was performed by apply(..) in 'prevState' by 'prevColor'
+     *
+     * @param simulator
+     * @param board
+     * @param move
+     * @param prevState
+     * @param prevColor
+     */
+    public static void undo(PylosGameSimulator simulator, PylosBoard board, int move, PylosGameState prevState, PylosPlayerColor prevColor) {
+        PylosLocation[] locations = board.getLocations();
+        switch (kind(move)) {
+            case ADD:
+                simulator.undoAddSphere(locations[to(move)].getSphere(), prevState, prevColor);
+                break;
+            case MOVE:
+                simulator.undoMoveSphere(locations[to(move)].getSphere(), locations[from(move)], prevState, prevColor);
+                break;
+            case REMOVE:
+                /* the removed sphere is the last reserve of its color */
+                PylosSphere removed = board.getReserve(prevColor);
+                if (prevState == PylosGameState.REMOVE_FIRST) {
+                    simulator.undoRemoveFirstSphere(removed, locations[from(move)], prevState, prevColor);
+                } else {
+                    simulator.undoRemoveSecondSphere(removed, locations[from(move)], prevState, prevColor);
+                }
+                break;
+            default:
+                simulator.undoPass(prevState, prevColor);
+                break;
+        }
+    }
+
+    /**
+     * performs 'move' in the real game on behalf of the current player
+     *
+     * @param game
+     * @param board
+     * @param color
+     * @param move
+     */
+    public static void execute(PylosGameIF game, PylosBoard board, PylosPlayerColor color, int move) {
+        PylosLocation[] locations = board.getLocations();
+        switch (kind(move)) {
+            case ADD:
+                game.moveSphere(board.getReserve(color), locations[to(move)]);
+                break;
+            case MOVE:
+                game.moveSphere(locations[from(move)].getSphere(), locations[to(move)]);
+                break;
+            case REMOVE:
+                game.removeSphere(locations[from(move)].getSphere());
+                break;
+            default:
+                game.pass();
+                break;
+        }
+    }
+
+    public static String toString(int move) {
+        switch (kind(move)) {
+            case ADD:
+                return "add " + to(move);
+            case MOVE:
+                return "move " + from(move) + ">" + to(move);
+            case REMOVE:
+                return "remove " + from(move);
+            default:
+                return move == NONE ? "none" : "pass";
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.endgame.EndgameTablebase;
+import be.kuleuven.pylos.game.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Iterative deepening negamax search on the PylosGameSimulator, with:
+ * - a transposition table and move ordering (TT move, killers, history)
+ * - principal variation search (null windows for all but the first move, re-search on fail high)
+ * - aspiration windows around the score of the previous iteration
+ * - optionally a quiescence search of square captures at the leaves
+ * - optionally exact results from an endgame tablebase
+ * - optionally symmetry folding: the transposition table is keyed on the canonical board state (PylosBitBoard), so
+ *   the 8 rotations / mirrors of a position share an entry (the evaluator has to be symmetric as well)
+ * <p>
+ * Every action (add, move, remove, pass) is one ply. Scores are from the perspective of the color to move,
+ * the side to move does not necessarily alternate (a completed square is followed by removals of the same color).
+ * <p>
+ * One instance per player, it is not thread safe.
+ */
+public class PylosSearch {
+
+    public static final double WIN = 2000;                // decremented with ply (winning earlier is better)
+    public static final double WIN_THRESHOLD = 1000;
+    private static final double INFINITY = 9999;
+    private static final double NULL_WINDOW = 1e-4;
+    private static final int STOP_CHECK_INTERVAL = 1024;  // nodes
+    private static final BooleanSupplier NEVER = () -> false;
+
+    /**
+     * static evaluation of a board, from the perspective of 'color'
+     */
+    public interface Evaluator {
+        double evaluate(PylosBoard board, PylosPlayerColor color);
+    }
+
+    /* difference in reserve spheres, as used by PylosPlayerMiniMax */
+    public static final Evaluator RESERVES = (board, color) -> board.getReservesSize(color) - board.getReservesSize(color.other());
+
+    private final TranspositionTable transpositionTable;
+    private final MoveOrdering moveOrdering = new MoveOrdering();
+    private SearchStats stats = new SearchStats();
+    private final int[][] moveBuffers = new int[MoveOrdering.MAX_PLY][PylosMove.MAX_MOVES];
+    private final int[][] pvTable = new int[MoveOrdering.MAX_PLY][MoveOrdering.MAX_PLY];
+    private final int[] pvLength = new int[MoveOrdering.MAX_PLY];
+
+    private Evaluator evaluator = RESERVES;
+    private Quiescence quiescence;                      // evaluates leaves if not null
+    private boolean pvsEnabled = true;
+    private double aspirationWindow = 2;                // 0 disables aspiration windows
+    private Random random;                              // shuffles root moves if not null
+    private EndgameTablebase tablebase;                 // probed in MOVE state if not null
+    private boolean symmetryFolding;
+
+    private PylosBoard board;
+    private PylosGameSimulator simulator;
+    private BooleanSupplier stop = NEVER;
+    private boolean stopped;
+    private double score;
+    private int completedDepth;
+    private long researches;
+
+    public PylosSearch() {
+        this(18);
+    }
+
+    /**
+     * @param ttBits log2 of the number of transposition table entries
+     */
+    public PylosSearch(int ttBits) {
+        this.transpositionTable = new TranspositionTable(ttBits);
+    }
+
+    /* configuration ---------------------------------------------------------------------------------------------- */
+
+    public void setEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * searches square captures beyond the leaves, null to evaluate leaves statically
+     *
+     * @param quiescence
+     */
+    public void setQuiescence(Quiescence quiescence) {
+        this.quiescence = quiescence;
+    }
+
+    public Quiescence getQuiescence() {
+        return quiescence;
+    }
+
+    public void setPvsEnabled(boolean pvsEnabled) {
+        this.pvsEnabled = pvsEnabled;
+    }
+
+    /**
+     * half width of the aspiration window, 0 to search every iteration with a full window
+     *
+     * @param aspirationWindow
+     */
+    public void setAspirationWindow(double aspirationWindow) {
+        this.aspirationWindow = aspirationWindow;
+    }
+
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * replaces the search of MOVE positions in the tablebase by their exact result, null to disable
+     *
+     * @param tablebase
+     */
+    public void setTablebase(EndgameTablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * keys the transposition table on the canonical board state, stored moves are in the canonical orientation and
+     * transformed back on probe
+     *
+     * @param symmetryFolding
+     */
+    public void setSymmetryFolding(boolean symmetryFolding) {
+        this.symmetryFolding = symmetryFolding;
+    }
+
+    /* search ----------------------------------------------------------------------------------------------------- */
+
+    /**
+     * searches the position on 'board' with 'color' to move in 'state', iteratively deepening up to 'maxDepth'
+     * the board is left unchanged
+     *
+     * @param board
+     * @param state    MOVE, REMOVE_FIRST or REMOVE_SECOND
+     * @param color
+     * @param maxDepth
+     * @return the best move (PylosMove encoded)
+     */
+    public int search(PylosBoard board, PylosGameState state, PylosPlayerColor color, int maxDepth) {
+        return search(board, state, color, maxDepth, NEVER);
+    }
+
+    /**
+     * as search(..), but stops as soon as 'stop' returns true (it is checked every STOP_CHECK_INTERVAL nodes),
+     * the iteration that is interrupted is discarded
+     *
+     * @param board
+     * @param state
+     * @param color
+     * @param maxDepth
+     * @param stop
+     * @return the best move of the last completed iteration (PylosMove encoded)
+     */
+    public int search(PylosBoard board, PylosGameState state, PylosPlayerColor color, int maxDepth, BooleanSupplier stop) {
+        this.board = board;
+        this.simulator = new PylosGameSimulator(state, color, board);
+        this.moveOrdering.ageHistory();
+        this.transpositionTable.newGeneration();
+        this.completedDepth = 0;
+        this.stop = stop;
+        this.stopped = false;
+        stats.startSearch();
+
+        int bestMove = PylosMove.NONE;
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            double value = aspirationSearch(depth);
+            if (stopped) break;
+            stats.endIteration(depth);
+            score = value;
+            completedDepth = depth;
+            if (pvLength[0] > 0) bestMove = pvTable[0][0];
+            /* the outcome is known, deeper searches won't change it */
+            if (Math.abs(value) > WIN_THRESHOLD) break;
+        }
+
+        if (bestMove == PylosMove.NONE) {
+            int n = PylosMove.generate(board, color, state, moveBuffers[0]);
+            assert n > 0 : "No legal moves for " + color + " in " + state;
+            bestMove = moveBuffers[0][0];
+        }
+        stats.endSearch();
+        return bestMove;
+    }
+
+    /**
+     * returns the score of the last completed iteration, from the perspective of the color to move at the root
+     *
+     * @return
+     */
+    public double getScore() {
+        return score;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * returns the principal variation of the last completed iteration, starting with the best move
+     *
+     * @return
+     */
+    public int[] getPrincipalVariation() {
+        return Arrays.copyOf(pvTable[0], pvLength[0]);
+    }
+
+    public long getNodes() {
+        return stats.getNodes();
+    }
+
+    /**
+     * returns the statistics of all searches of this instance, since the last setStats(..)
+     *
+     * @return
+     */
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * counts the next searches in 'stats', e.g. to keep pondering apart from the searches of the moves
+     *
+     * @param stats
+     */
+    public void setStats(SearchStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * returns the number of re-searches, caused by PVS fail highs and aspiration window failures
+     *
+     * @return
+     */
+    public long getResearches() {
+        return researches;
+    }
+
+    public MoveOrdering getMoveOrdering() {
+        return moveOrdering;
+    }
+
+    public TranspositionTable getTranspositionTable() {
+        return transpositionTable;
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    private double aspirationSearch(int depth) {
+        if (aspirationWindow <= 0 || depth == 1 || Math.abs(score) > WIN_THRESHOLD) {
+            return negamax(depth, -INFINITY, INFINITY, 0);
+        }
+        double alpha = score - aspirationWindow;
+        double beta = score + aspirationWindow;
+        while (true) {
+            double value = negamax(depth, alpha, beta, 0);
+            if (stopped) return value;
+            if (value <= alpha) {
+                researches++;
+                alpha = -INFINITY;
+            } else if (value >= beta) {
+                researches++;
+                beta = INFINITY;
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private double negamax(int depth, double alpha, double beta, int ply) {
+        if (stats.node(ply) % STOP_CHECK_INTERVAL == 0 && stop.getAsBoolean()) stopped = true;
+        if (stopped) return 0;
+        pvLength[ply] = ply;
+
+        final PylosGameState state = simulator.getState();
+        final PylosPlayerColor color = simulator.getColor();
+
+        if (state == PylosGameState.COMPLETED) {
+            return simulator.getWinner() == color ? WIN - ply : -WIN + ply;
+        }
+        if (tablebase != null && ply > 0 && state == PylosGameState.MOVE) {
+            int entry = tablebase.probe(board, state, color);
+            if (entry != EndgameTablebase.NOT_AVAILABLE) {
+                switch (EndgameTablebase.result(entry)) {
+                    case EndgameTablebase.WIN:
+                        return WIN - ply - EndgameTablebase.distance(entry);
+                    case EndgameTablebase.LOSS:
+                        return -WIN + ply + EndgameTablebase.distance(entry);
+                    case EndgameTablebase.DRAW:
+                        return 0;
+                }
+            }
+        }
+        if (depth <= 0 || ply >= MoveOrdering.MAX_PLY - 1) {
+            stats.leafEval();
+            return quiescence != null ? quiescence.evaluate(simulator, board, alpha, beta, ply) : evaluator.evaluate(board, color);
+        }
+
+        /* transposition table */
+        long boardState = board.toLong();
+        final int symmetry = symmetryFolding ? PylosBitBoard.canonicalSymmetry(boardState) : 0;
+        if (symmetry != 0) boardState = PylosBitBoard.transform(boardState, symmetry);
+        final long key = TranspositionTable.key(boardState, state, color);
+        int ttMove = PylosMove.NONE;
+        int entry = transpositionTable.probe(key);
+        stats.ttProbe(entry >= 0);
+        if (entry >= 0) {
+            ttMove = PylosMove.transform(transpositionTable.getMove(entry), PylosBitBoard.INVERSE[symmetry]);
+            if (ply > 0 && transpositionTable.getDepth(entry) >= depth) {
+                double value = fromTT(transpositionTable.getValue(entry), ply);
+                byte flag = transpositionTable.getFlag(entry);
+                if (flag == TranspositionTable.EXACT
+                        || flag == TranspositionTable.LOWER_BOUND && value >= beta
+                        || flag == TranspositionTable.UPPER_BOUND && value <= alpha) {
+                    stats.ttCutoff();
+                    return value;
+                }
+            }
+        }
+
+        int[] moves = moveBuffers[ply];
+        int nMoves = PylosMove.generate(board, color, state, moves);
+        if (nMoves == 0) {
+            stats.leafEval();
+            return evaluator.evaluate(board, color);
+        }
+        if (ply == 0 && random != null) shuffle(moves, nMoves);
+        moveOrdering.order(moves, nMoves, ply, ttMove, color);
+
+        final double alphaOrig = alpha;
+        double best = -INFINITY;
+        int bestMove = PylosMove.NONE;
+
+        for (int i = 0; i < nMoves; i++) {
+            int move = moves[i];
+            double value;
+            if (i == 0 || !pvsEnabled) {
+                value = child(move, depth, alpha, beta, state, color, ply);
+            } else {
+                /* prove the move is not better than the current best */
+                value = child(move, depth, alpha, alpha + NULL_WINDOW, state, color, ply);
+                if (value > alpha && value < beta) {
+                    researches++;
+                    value = child(move, depth, alpha, beta, state, color, ply);
+                }
+            }
+            /* the values of an interrupted search are not stored */
+            if (stopped) return 0;
+
+            if (value > best) {
+                best = value;
+                bestMove = move;
+            }
+            if (value > alpha) {
+                alpha = value;
+                updatePV(ply, move);
+            }
+            if (alpha >= beta) {
+                moveOrdering.cutoff(move, i, ply, depth, color);
+                break;
+            }
+        }
+
+        byte flag = best <= alphaOrig ? TranspositionTable.UPPER_BOUND : best >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+        transpositionTable.store(key, toTT(best, ply), PylosMove.transform(bestMove, symmetry), depth, flag);
+        return best;
+    }
+
+    private double child(int move, int depth, double alpha, double beta, PylosGameState state, PylosPlayerColor color, int ply) {
+        PylosMove.apply(simulator, board, move);
+        double value;
+        if (simulator.getColor() == color) {
+            value = negamax(depth - 1, alpha, beta, ply + 1);
+        } else {
+            value = -negamax(depth - 1, -beta, -alpha, ply + 1);
+        }
+        PylosMove.undo(simulator, board, move, state, color);
+        assert simulator.getState() == state && simulator.getColor() == color : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + state + " " + color;
+        return value;
+    }
+
+    /* triangular pv table, pvLength[ply] is the end index of the variation starting at ply */
+    private void updatePV(int ply, int move) {
+        pvTable[ply][ply] = move;
+        int end = pvLength[ply + 1];
+        System.arraycopy(pvTable[ply + 1], ply + 1, pvTable[ply], ply + 1, end - ply - 1);
+        pvLength[ply] = end;
+    }
+
+    private void shuffle(int[] moves, int nMoves) {
+        for (int i = nMoves - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = moves[i];
+            moves[i] = moves[j];
+            moves[j] = tmp;
+        }
+    }
+
+    /* win scores are stored relative to the node, not to the root */
+    private static double toTT(double value, int ply) {
+        if (value > WIN_THRESHOLD) return value + ply;
+        if (value < -WIN_THRESHOLD) return value - ply;
+        return value;
+    }
+
+    private static double fromTT(double value, int ply) {
+        if (value > WIN_THRESHOLD) return value - ply;
+        if (value < -WIN_THRESHOLD) return value + ply;
+        return value;
+    }
+}
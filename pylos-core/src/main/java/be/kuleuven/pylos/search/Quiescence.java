@@ -0,0 +1,185 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.*;
+
+/**
+ * Quiescence search for the leaves of a fixed depth search.
+ * <p>
+ * Instead of evaluating a leaf directly, only the 'noisy' continuations are searched:
+ * - in MOVE state: moves that complete a square of the color to move (the static evaluation acts as stand pat)
+ * - in REMOVE_FIRST / REMOVE_SECOND state: all removals (and pass), a square capture is always resolved
+ * until the position is quiet. The number of nodes per leaf is bounded by a budget.
+ * <p>
+ * Scores are from the perspective of the color to move in the simulator. One instance per search thread.
+ */
+public class Quiescence {
+
+    public static final int DEFAULT_MAX_NODES = 1000;
+    public static final int DEFAULT_MAX_PLY = 12;
+    private static final double INFINITY = 9999;
+
+    private final PylosSearch.Evaluator evaluator;
+    private final int maxNodes;
+    private final int maxPly;
+    private final int[][] moveBuffers;
+
+    private PylosGameSimulator simulator;
+    private PylosBoard board;
+    private int budget;
+
+    /* statistics */
+    private long nCalls;
+    private long nNodes;
+    private long nBudgetExceeded;
+    private int maxPlyReached;
+
+    public Quiescence(PylosSearch.Evaluator evaluator) {
+        this(evaluator, DEFAULT_MAX_NODES, DEFAULT_MAX_PLY);
+    }
+
+    /**
+     * @param evaluator static evaluation, from the perspective of the color passed to it
+     * @param maxNodes  node budget per call of evaluate(..)
+     * @param maxPly    maximum number of quiescence plies
+     */
+    public Quiescence(PylosSearch.Evaluator evaluator, int maxNodes, int maxPly) {
+        this.evaluator = evaluator;
+        this.maxNodes = maxNodes;
+        this.maxPly = maxPly;
+        this.moveBuffers = new int[maxPly][PylosMove.MAX_MOVES];
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    /**
+     * returns the quiescent value of the current simulator position, for the color to move
+     * the simulator and board are left unchanged
+     *
+     * @param simulator
+     * @param board
+     * @param alpha
+     * @param beta
+     * @param ply       distance to the root of the calling search, used to score wins
+     * @return
+     */
+    public double evaluate(PylosGameSimulator simulator, PylosBoard board, double alpha, double beta, int ply) {
+        this.simulator = simulator;
+        this.board = board;
+        this.budget = maxNodes;
+        nCalls++;
+        return search(alpha, beta, ply, 0);
+    }
+
+    /**
+     * returns true if 'move' (an add or move) completes a square of 'color'
+     *
+     * @param board
+     * @param move
+     * @param color
+     * @return
+     */
+    public static boolean completesSquare(PylosBoard board, int move, PylosPlayerColor color) {
+        int kind = PylosMove.kind(move);
+        if (kind != PylosMove.ADD && kind != PylosMove.MOVE) return false;
+        PylosLocation[] locations = board.getLocations();
+        PylosLocation to = locations[PylosMove.to(move)];
+        PylosLocation from = kind == PylosMove.MOVE ? locations[PylosMove.from(move)] : null;
+        for (PylosSquare square : to.getSquares()) {
+            if (square.getInSquare(color) == 3 && !contains(square, from)) return true;
+        }
+        return false;
+    }
+
+    /* statistics ------------------------------------------------------------------------------------------------- */
+
+    public long getCalls() {
+        return nCalls;
+    }
+
+    public long getNodes() {
+        return nNodes;
+    }
+
+    /**
+     * returns the number of calls that ran out of their node budget
+     *
+     * @return
+     */
+    public long getBudgetExceeded() {
+        return nBudgetExceeded;
+    }
+
+    public int getMaxPlyReached() {
+        return maxPlyReached;
+    }
+
+    public void resetStats() {
+        nCalls = 0;
+        nNodes = 0;
+        nBudgetExceeded = 0;
+        maxPlyReached = 0;
+    }
+
+    public String toString() {
+        return "Quiescence[calls=" + nCalls + ", nodes=" + nNodes + ", budgetExceeded=" + nBudgetExceeded + ", maxPly=" + maxPlyReached + "]";
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    private double search(double alpha, double beta, int ply, int qPly) {
+        nNodes++;
+        budget--;
+        maxPlyReached = Math.max(maxPlyReached, qPly);
+
+        final PylosGameState state = simulator.getState();
+        final PylosPlayerColor color = simulator.getColor();
+
+        if (state == PylosGameState.COMPLETED) {
+            return simulator.getWinner() == color ? PylosSearch.WIN - ply : -PylosSearch.WIN + ply;
+        }
+
+        double standPat = evaluator.evaluate(board, color);
+        if (budget <= 0 || qPly >= maxPly) {
+            if (budget == 0) nBudgetExceeded++;
+            return standPat;
+        }
+
+        /* a square capture in progress has to be resolved, otherwise the color to move may decline to capture */
+        final boolean capturing = state != PylosGameState.MOVE;
+        double best = -INFINITY;
+        if (!capturing) {
+            if (standPat >= beta) return standPat;
+            if (standPat > alpha) alpha = standPat;
+            best = standPat;
+        }
+
+        int[] moves = moveBuffers[qPly];
+        int nMoves = PylosMove.generate(board, color, state, moves);
+        for (int i = 0; i < nMoves; i++) {
+            int move = moves[i];
+            if (!capturing && !completesSquare(board, move, color)) continue;
+
+            PylosMove.apply(simulator, board, move);
+            double value;
+            if (simulator.getColor() == color) {
+                value = search(alpha, beta, ply + 1, qPly + 1);
+            } else {
+                value = -search(-beta, -alpha, ply + 1, qPly + 1);
+            }
+            PylosMove.undo(simulator, board, move, state, color);
+
+            if (value > best) best = value;
+            if (value > alpha) alpha = value;
+            if (alpha >= beta) break;
+        }
+        return best == -INFINITY ? standPat : best;
+    }
+
+    private static boolean contains(PylosSquare square, PylosLocation location) {
+        if (location == null) return false;
+        for (PylosLocation l : square.getLocations()) {
+            if (l == location) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,214 @@
+package be.kuleuven.pylos.search;
+
+import java.util.Collection;
+
+/**
+ * Counters of what a search did: nodes, leaf evaluations, transposition table probes / hits / cutoffs, the deepest
+ * ply reached and the time and effective branching factor of the iterations of iterative deepening.
+ * <p>
+ * The counters are plain fields, updated by the one thread that owns the instance (like TranspositionTable: one
+ * instance per search thread), so counting costs no more than an increment. Instances of several threads, games or
+ * battles are summed with add(..) once their threads are done.
+ */
+public final class SearchStats {
+
+    public static final int MAX_DEPTH = 64;               // iterations of deeper searches are counted at MAX_DEPTH
+
+    private long searches;
+    private long time;                                  // nanoseconds
+    private long nodes;
+    private long leafEvals;
+    private long ttProbes;
+    private long ttHits;
+    private long ttCutoffs;
+    private int maxPly;
+    private final long[] iterations = new long[MAX_DEPTH + 1];
+    private final long[] iterationTime = new long[MAX_DEPTH + 1];
+    private double branchingSum;                        // sum of the node ratios of consecutive iterations
+    private long branchingCount;
+
+    /* the running search */
+    private long searchStart;
+    private long iterationStart;
+    private long iterationStartNodes;
+    private long previousIterationNodes;
+
+    /* counting --------------------------------------------------------------------------------------------------- */
+
+    public void startSearch() {
+        searches++;
+        searchStart = iterationStart = System.nanoTime();
+        iterationStartNodes = nodes;
+        previousIterationNodes = 0;
+    }
+
+    /**
+     * ends an iteration of iterative deepening that searched to 'depth', an interrupted iteration is not ended
+     *
+     * @param depth
+     */
+    public void endIteration(int depth) {
+        long now = System.nanoTime();
+        int index = Math.min(depth, MAX_DEPTH);
+        iterations[index]++;
+        iterationTime[index] += now - iterationStart;
+        iterationStart = now;
+
+        long iterationNodes = nodes - iterationStartNodes;
+        iterationStartNodes = nodes;
+        if (previousIterationNodes > 0) {
+            branchingSum += (double) iterationNodes / previousIterationNodes;
+            branchingCount++;
+        }
+        previousIterationNodes = iterationNodes;
+    }
+
+    public void endSearch() {
+        time += System.nanoTime() - searchStart;
+    }
+
+    /**
+     * counts a node at 'ply' from the root
+     *
+     * @param ply
+     * @return the number of nodes so far
+     */
+    public long node(int ply) {
+        if (ply > maxPly) maxPly = ply;
+        return ++nodes;
+    }
+
+    public void leafEval() {
+        leafEvals++;
+    }
+
+    public void ttProbe(boolean hit) {
+        ttProbes++;
+        if (hit) ttHits++;
+    }
+
+    /**
+     * counts a node that returned the value of its transposition table entry without a search
+     */
+    public void ttCutoff() {
+        ttCutoffs++;
+    }
+
+    /* aggregation ------------------------------------------------------------------------------------------------ */
+
+    /**
+     * adds the counters of 'other', which must no longer be updated
+     *
+     * @param other
+     */
+    public void add(SearchStats other) {
+        searches += other.searches;
+        time += other.time;
+        nodes += other.nodes;
+        leafEvals += other.leafEvals;
+        ttProbes += other.ttProbes;
+        ttHits += other.ttHits;
+        ttCutoffs += other.ttCutoffs;
+        maxPly = Math.max(maxPly, other.maxPly);
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            iterations[depth] += other.iterations[depth];
+            iterationTime[depth] += other.iterationTime[depth];
+        }
+        branchingSum += other.branchingSum;
+        branchingCount += other.branchingCount;
+    }
+
+    /**
+     * returns the sum of 'stats', null elements are skipped, or null if there are none
+     *
+     * @param stats
+     * @return
+     */
+    public static SearchStats sum(Collection<SearchStats> stats) {
+        SearchStats sum = null;
+        for (SearchStats s : stats) {
+            if (s == null) continue;
+            if (sum == null) sum = new SearchStats();
+            sum.add(s);
+        }
+        return sum;
+    }
+
+    /* results ---------------------------------------------------------------------------------------------------- */
+
+    public long getSearches() {
+        return searches;
+    }
+
+    /**
+     * returns the time spent searching, in nanoseconds
+     *
+     * @return
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getLeafEvals() {
+        return leafEvals;
+    }
+
+    public long getTTProbes() {
+        return ttProbes;
+    }
+
+    public long getTTHits() {
+        return ttHits;
+    }
+
+    public long getTTCutoffs() {
+        return ttCutoffs;
+    }
+
+    public int getMaxPly() {
+        return maxPly;
+    }
+
+    /**
+     * returns the average ratio of the nodes of consecutive iterations, 0 if no search had two iterations
+     *
+     * @return
+     */
+    public double getEffectiveBranchingFactor() {
+        return branchingCount == 0 ? 0 : branchingSum / branchingCount;
+    }
+
+    public long getIterations(int depth) {
+        return iterations[depth];
+    }
+
+    /**
+     * returns the average time of the iterations to 'depth', in nanoseconds
+     *
+     * @param depth
+     * @return
+     */
+    public double getIterationTime(int depth) {
+        return iterations[depth] == 0 ? 0 : (double) iterationTime[depth] / iterations[depth];
+    }
+
+    public void print(String name) {
+        System.out.println(name + ": " + this);
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            if (iterations[depth] == 0) continue;
+            System.out.println(String.format("   depth %2d: %8d iterations, %10.3f ms", depth, iterations[depth], getIterationTime(depth) / 1e6));
+        }
+    }
+
+    @Override
+    public String toString() {
+        double seconds = time / 1e9;
+        return String.format("%d searches in %.2f sec, %d nodes (%.0f nodes/sec), %d leaf evals, TT %d probes %.1f%% hits %d cutoffs, max ply %d, EBF %.2f",
+                searches, seconds, nodes, seconds == 0 ? 0 : nodes / seconds, leafEvals, ttProbes,
+                ttProbes == 0 ? 0 : 100.0 * ttHits / ttProbes, ttCutoffs, maxPly, getEffectiveBranchingFactor());
+    }
+}
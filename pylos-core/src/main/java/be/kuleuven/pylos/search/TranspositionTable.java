@@ -0,0 +1,215 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.PylosGameState;
+import be.kuleuven.pylos.game.PylosPlayerColor;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size transposition table on primitive arrays, no allocation after construction.
+ * <p>
+ * Entries are addressed by a long key: the board state (PylosBoard.toLong(), 60 bits) with the
+ * color to move and the game state in the four highest bits, see key(..).
+ * <p>
+ * The table is kept between searches rather than cleared: every search starts a new generation (newGeneration()),
+ * entries of older generations are replaced first and entries of the current generation only by deeper or equally
+ * deep results. A probe hit moves an entry to the current generation.
+ * <p>
+ * One instance per search thread, it is not thread safe.
+ */
+public class TranspositionTable {
+
+    /* four highest significant bits are used as follows:
+     * ...x	0=Light, 1=Dark
+     * ..x. MOVE
+     * .x..	REMOVE_FIRST
+     * x...	REMOVE_SECOND */
+    private static final long COLOR_FLAG = 1L << 60;
+    private static final long MOVE_FLAG = 1L << 61;
+    private static final long REMOVE_FIRST_FLAG = 1L << 62;
+    private static final long REMOVE_SECOND_FLAG = 1L << 63;
+
+    public static final byte EXACT = 0;
+    public static final byte LOWER_BOUND = 1;
+    public static final byte UPPER_BOUND = 2;
+
+    private final int bits;
+    private final long[] keys;
+    private final double[] values;
+    private final int[] moves;
+    private final byte[] depths;
+    private final byte[] flags;
+    private final byte[] generations;
+    private byte generation;
+
+    /* statistics */
+    private long nProbes;
+    private long nHits;
+    private long nStores;
+    private long nRejected;
+
+    /**
+     * @param bits log2 of the number of entries, one entry takes 23 bytes
+     */
+    public TranspositionTable(int bits) {
+        this.bits = bits;
+        int size = 1 << bits;
+        keys = new long[size];
+        values = new double[size];
+        moves = new int[size];
+        depths = new byte[size];
+        flags = new byte[size];
+        generations = new byte[size];
+        clear();
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    /**
+     * returns the key of a board state with the color to move and the game state
+     *
+     * @param boardState PylosBoard.toLong()
+     * @param state
+     * @param color
+     * @return
+     */
+    public static long key(long boardState, PylosGameState state, PylosPlayerColor color) {
+        if (color == PylosPlayerColor.DARK) {
+            boardState |= COLOR_FLAG;
+        }
+        switch (state) {
+            case MOVE:
+                return boardState | MOVE_FLAG;
+            case REMOVE_FIRST:
+                return boardState | REMOVE_FIRST_FLAG;
+            case REMOVE_SECOND:
+                return boardState | REMOVE_SECOND_FLAG;
+            default:
+                throw new IllegalStateException("Game state is: " + state);
+        }
+    }
+
+    /**
+     * returns the index of the entry for 'key', or -1 if there is none
+     *
+     * @param key
+     * @return
+     */
+    public int probe(long key) {
+        nProbes++;
+        int index = index(key);
+        if (keys[index] == key) {
+            nHits++;
+            generations[index] = generation;
+            return index;
+        }
+        return -1;
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    public int getMove(int index) {
+        return moves[index];
+    }
+
+    public int getDepth(int index) {
+        return depths[index];
+    }
+
+    public byte getFlag(int index) {
+        return flags[index];
+    }
+
+    /**
+     * returns the stored best move for 'key', or PylosMove.NONE
+     *
+     * @param key
+     * @return
+     */
+    public int getMove(long key) {
+        int index = index(key);
+        return keys[index] == key ? moves[index] : PylosMove.NONE;
+    }
+
+    /**
+     * stores an entry, unless the slot holds another position of the current generation that was searched deeper
+     *
+     * @param key
+     * @param value
+     * @param move
+     * @param depth
+     * @param flag
+     */
+    public void store(long key, double value, int move, int depth, byte flag) {
+        int index = index(key);
+        if (keys[index] != key && generations[index] == generation && depths[index] > depth) {
+            nRejected++;
+            return;
+        }
+        nStores++;
+        keys[index] = key;
+        values[index] = value;
+        moves[index] = move;
+        depths[index] = (byte) Math.min(depth, Byte.MAX_VALUE);
+        flags[index] = flag;
+        generations[index] = generation;
+    }
+
+    /**
+     * starts a new generation, call it at the start of every search instead of clear()
+     */
+    public void newGeneration() {
+        generation++;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public final void clear() {
+        Arrays.fill(keys, 0L);
+        Arrays.fill(moves, PylosMove.NONE);
+        Arrays.fill(depths, (byte) 0);
+        Arrays.fill(generations, (byte) 0);
+        generation = 0;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /* statistics ------------------------------------------------------------------------------------------------- */
+
+    public long getProbes() {
+        return nProbes;
+    }
+
+    public long getHits() {
+        return nHits;
+    }
+
+    public long getStores() {
+        return nStores;
+    }
+
+    /**
+     * returns the number of stores that were refused to keep a deeper entry of the current generation
+     *
+     * @return
+     */
+    public long getRejected() {
+        return nRejected;
+    }
+
+    public double getHitRate() {
+        return nProbes == 0 ? 0 : (double) nHits / nProbes;
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    private int index(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+    }
+}
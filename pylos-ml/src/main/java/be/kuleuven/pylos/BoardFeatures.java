@@ -0,0 +1,87 @@
+package be.kuleuven.pylos;
+
+import be.kuleuven.pylos.game.PylosPlayerColor;
+
+/**
+ * Input features of the value networks, computed from the board state (PylosBoard.toLong(): 2 bits per location, 1
+ * for a light sphere, 2 for a dark one) and written into a flat, reusable buffer of rows. Nothing is allocated.
+ * <p>
+ * The 38 features of PylosPlayerML, from the perspective of the player to evaluate for:
+ * - 0-29: the locations, 1 for an own sphere, -1 for an opponent sphere, 0 if empty
+ * - 30, 31: own and opponent reserve / 15
+ * - 32: reserve difference / 15
+ * - 33: material difference on the board / 30
+ * - 34-37: the average of the locations per layer (z0 .. z3)
+ * train.py computes the same features from the exported games (see PylosMLCollect), keep them in sync.
+ * <p>
+ * The 60 features of PylosPlayerML2 are the bits of the state, see encodeBits(..).
+ */
+public final class BoardFeatures {
+
+    public static final int FEATURES = 38;
+    public static final int BIT_FEATURES = 60;
+
+    private static final long LOW_BITS = 0x5555555555555555L & ((1L << 60) - 1);
+    private static final long Z0 = (1L << 32) - 1;          // locations 0-15
+    private static final long Z1 = ((1L << 50) - 1) & ~Z0;  // locations 16-24
+    private static final long Z2 = ((1L << 58) - 1) & ~(Z0 | Z1);
+    private static final long Z3 = 3L << 58;
+
+    private BoardFeatures() {
+    }
+
+    /**
+     * writes the 38 features of 'boardState' for 'color' to inputs[offset .. offset + 37]
+     *
+     * @param boardState see PylosBoard.toLong()
+     * @param color      the player the value is for
+     * @param inputs
+     * @param offset
+     */
+    public static void encode(long boardState, PylosPlayerColor color, float[] inputs, int offset) {
+        /* one bit per location, at the low bit of its 2 bit field */
+        long low = boardState & LOW_BITS;
+        long high = (boardState >>> 1) & LOW_BITS;
+        long light = low & ~high;
+        long dark = high & ~low;
+        long own = color == PylosPlayerColor.LIGHT ? light : dark;
+        long other = color == PylosPlayerColor.LIGHT ? dark : light;
+
+        for (int loc = 0; loc < 30; loc++) {
+            int shift = loc * 2;
+            inputs[offset + loc] = (int) (own >>> shift & 1) - (int) (other >>> shift & 1);
+        }
+
+        int ownCount = Long.bitCount(own);
+        int otherCount = Long.bitCount(other);
+        inputs[offset + 30] = (15 - ownCount) / 15.0f;
+        inputs[offset + 31] = (15 - otherCount) / 15.0f;
+        inputs[offset + 32] = (otherCount - ownCount) / 15.0f;
+        inputs[offset + 33] = (ownCount - otherCount) / 30.0f;
+
+        inputs[offset + 34] = layerSum(own, other, Z0) / 16.0f;
+        inputs[offset + 35] = layerSum(own, other, Z1) / 9.0f;
+        inputs[offset + 36] = layerSum(own, other, Z2) / 4.0f;
+        inputs[offset + 37] = layerSum(own, other, Z3);
+    }
+
+    /**
+     * writes the 60 features of PylosPlayerML2 to inputs[offset .. offset + 59]: feature i is bit 59 - i of
+     * 'boardState', inverted for DARK
+     *
+     * @param boardState see PylosBoard.toLong()
+     * @param color      the player the value is for
+     * @param inputs
+     * @param offset
+     */
+    public static void encodeBits(long boardState, PylosPlayerColor color, float[] inputs, int offset) {
+        long bits = color == PylosPlayerColor.LIGHT ? boardState : ~boardState;
+        for (int i = 0; i < BIT_FEATURES; i++) {
+            inputs[offset + i] = (int) (bits >>> (59 - i) & 1);
+        }
+    }
+
+    private static int layerSum(long own, long other, long layer) {
+        return Long.bitCount(own & layer) - Long.bitCount(other & layer);
+    }
+}
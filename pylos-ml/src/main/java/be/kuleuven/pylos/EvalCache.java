@@ -0,0 +1,127 @@
+package be.kuleuven.pylos;
+
+import be.kuleuven.pylos.game.PylosPlayerColor;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of network evaluations on primitive arrays, keyed by the board state (PylosBoard.toLong(), 60 bits)
+ * and the color the evaluation is for. The ML players' inputs depend on nothing else, so a hit skips the inference.
+ * <p>
+ * The cache has a fixed number of slots, a new entry replaces the one in its slot. A player takes a cache of its
+ * model for every call (see acquire(..)) and returns it to the pool of the model after it, so the caches are shared
+ * by all players of that model: both sides of a game and all games of a battle. There are as many caches as calls
+ * that run at the same time, about 3 MB each; the pool keeps one per processor. Models are compared with
+ * equals(..), see TensorFlowNetwork. A cache is not thread safe, it is used by one call at a time.
+ */
+public final class EvalCache {
+
+    public static final int DEFAULT_BITS = 18;            // 12 bytes per entry
+    public static final int MAX_IDLE = Runtime.getRuntime().availableProcessors();
+
+    private static final long COLOR_FLAG = 1L << 60;
+    private static final long USED_FLAG = 1L << 61;       // the empty board is a valid key as well
+
+    private static final Map<Object, Queue<EvalCache>> POOLS = new ConcurrentHashMap<>();
+
+    private final Object model;                           // null if not pooled
+    private final int bits;
+    private final long[] keys;
+    private final float[] values;
+
+    /* statistics */
+    private long nProbes;
+    private long nHits;
+
+    /**
+     * @param bits log2 of the number of entries
+     */
+    public EvalCache(int bits) {
+        this(bits, null);
+    }
+
+    private EvalCache(int bits, Object model) {
+        this.model = model;
+        this.bits = bits;
+        this.keys = new long[1 << bits];
+        this.values = new float[1 << bits];
+    }
+
+    /**
+     * takes an idle cache for the evaluations of 'model' from its pool, or creates one, to be released after use
+     *
+     * @param model
+     * @return
+     */
+    public static EvalCache acquire(Object model) {
+        EvalCache cache = pool(model).poll();
+        return cache != null ? cache : new EvalCache(DEFAULT_BITS, model);
+    }
+
+    /**
+     * returns 'cache' to the pool of its model, it is dropped if the pool holds MAX_IDLE caches already
+     *
+     * @param cache taken by acquire(..), not used after
+     */
+    public static void release(EvalCache cache) {
+        if (cache.model != null) pool(cache.model).offer(cache);
+    }
+
+    private static Queue<EvalCache> pool(Object model) {
+        return POOLS.computeIfAbsent(model, m -> new ArrayBlockingQueue<>(MAX_IDLE));
+    }
+
+    public static long key(long boardState, PylosPlayerColor color) {
+        return color == PylosPlayerColor.DARK ? boardState | COLOR_FLAG | USED_FLAG : boardState | USED_FLAG;
+    }
+
+    /**
+     * returns the index of the entry for 'key', or -1 if there is none
+     *
+     * @param key see key(..)
+     * @return
+     */
+    public int probe(long key) {
+        nProbes++;
+        int index = index(key);
+        if (keys[index] == key) {
+            nHits++;
+            return index;
+        }
+        return -1;
+    }
+
+    public float getValue(int index) {
+        return values[index];
+    }
+
+    public void store(long key, float value) {
+        int index = index(key);
+        keys[index] = key;
+        values[index] = value;
+    }
+
+    public long getProbes() {
+        return nProbes;
+    }
+
+    public long getHits() {
+        return nHits;
+    }
+
+    public double getHitRate() {
+        return nProbes == 0 ? 0 : (double) nHits / nProbes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d probes, %.1f%% hits", nProbes, getHitRate() * 100);
+    }
+
+    private int index(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+    }
+}
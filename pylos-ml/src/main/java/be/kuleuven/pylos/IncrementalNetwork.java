@@ -0,0 +1,204 @@
+package be.kuleuven.pylos;
+
+import be.kuleuven.pylos.game.PylosPlayerColor;
+
+/**
+ * Efficiently updatable evaluation of an MlpNetwork on the features of BoardFeatures, as in NNUE: the
+ * pre-activations of the first DENSE layer are kept in an Accumulator and updated with the weight columns of the
+ * locations a move changed, only the remaining operations run at a leaf.
+ * <p>
+ * All 38 features are linear in the spheres on the board, so a sphere at a location contributes a fixed vector to
+ * the pre-activations: its location column, the reserve, difference and layer columns scaled by the sphere's weight
+ * in those features. The contributions are precomputed per location for an own and an opponent sphere. An
+ * accumulator holds the pre-activations from both perspectives, so it serves both players.
+ * <p>
+ * Accumulators are updated from the accumulator of the parent position (see update(..)), one per ply of the search,
+ * so the rounding errors don't pile up beyond the depth of the search. The evaluation is thread safe, accumulators
+ * are not.
+ */
+public final class IncrementalNetwork {
+
+    private static final int LOCATIONS = 30;
+    private static final int[] LAYER_SIZES = {16, 9, 4, 1};
+
+    private final MlpNetwork network;
+    private final int width;                            // outputs of the first layer
+    private final int activation;
+    private final float[] base;                         // pre-activations of the empty board
+    private final float[][] ownSphere;                  // [location][width]
+    private final float[][] opponentSphere;
+
+    /**
+     * @param network its first operation is a DENSE on the BoardFeatures.FEATURES features
+     * @throws IllegalArgumentException if it is not
+     */
+    public IncrementalNetwork(MlpNetwork network) {
+        if (network.getType(0) != MlpNetwork.DENSE || network.getInputSize(0) != BoardFeatures.FEATURES) {
+            throw new IllegalArgumentException("The network doesn't start with a dense layer on " + BoardFeatures.FEATURES + " features");
+        }
+        this.network = network;
+        this.width = network.getOutputSize(0);
+        this.activation = network.getActivation(0);
+        float[][] kernel = network.getKernel(0);
+
+        /* the features of an empty board are 0, but for both reserves: 15 / 15 */
+        base = network.getBiases(0).clone();
+        addRow(base, kernel, 30, 1);
+        addRow(base, kernel, 31, 1);
+
+        ownSphere = new float[LOCATIONS][width];
+        opponentSphere = new float[LOCATIONS][width];
+        for (int location = 0; location < LOCATIONS; location++) {
+            int layer = location < 16 ? 0 : location < 25 ? 1 : location < 29 ? 2 : 3;
+            sphere(ownSphere[location], kernel, location, layer, 1);
+            sphere(opponentSphere[location], kernel, location, layer, -1);
+        }
+    }
+
+    /* the contribution of a sphere at 'location', sign 1 for an own sphere and -1 for an opponent sphere */
+    private void sphere(float[] contribution, float[][] kernel, int location, int layer, int sign) {
+        addRow(contribution, kernel, location, sign);
+        addRow(contribution, kernel, sign > 0 ? 30 : 31, -1f / 15);
+        addRow(contribution, kernel, 32, -sign / 15f);
+        addRow(contribution, kernel, 33, sign / 30f);
+        addRow(contribution, kernel, 34 + layer, sign / (float) LAYER_SIZES[layer]);
+    }
+
+    private void addRow(float[] values, float[][] kernel, int feature, float scale) {
+        float[] row = kernel[feature];
+        for (int o = 0; o < width; o++) values[o] += scale * row[o];
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    public Accumulator newAccumulator() {
+        return new Accumulator(width);
+    }
+
+    /**
+     * returns the number of values a row of evaluate(..) has
+     *
+     * @return
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * sets 'accumulator' to 'boardState', computed from scratch
+     *
+     * @param accumulator
+     * @param boardState  see PylosBoard.toLong()
+     */
+    public void refresh(Accumulator accumulator, long boardState) {
+        System.arraycopy(base, 0, accumulator.light, 0, width);
+        System.arraycopy(base, 0, accumulator.dark, 0, width);
+        accumulator.boardState = 0;
+        apply(accumulator, boardState);
+    }
+
+    /**
+     * sets 'to' to 'boardState', from 'from': only the locations that differ between their states are updated
+     *
+     * @param from
+     * @param to          can be 'from'
+     * @param boardState  see PylosBoard.toLong()
+     */
+    public void update(Accumulator from, Accumulator to, long boardState) {
+        if (from != to) {
+            System.arraycopy(from.light, 0, to.light, 0, width);
+            System.arraycopy(from.dark, 0, to.dark, 0, width);
+            to.boardState = from.boardState;
+        }
+        apply(to, boardState);
+    }
+
+    /**
+     * writes the first layer's outputs of 'accumulator' for 'color' to rows[offset .. offset + getWidth() - 1], a row
+     * for evaluate(..)
+     *
+     * @param accumulator
+     * @param color       the player the value is for
+     * @param rows
+     * @param offset
+     */
+    public void writeRow(Accumulator accumulator, PylosPlayerColor color, float[] rows, int offset) {
+        System.arraycopy(color == PylosPlayerColor.LIGHT ? accumulator.light : accumulator.dark, 0, rows, offset, width);
+        for (int o = offset; o < offset + width; o++) {
+            switch (activation) {
+                case MlpNetwork.RELU:
+                    rows[o] = Math.max(rows[o], 0);
+                    break;
+                case MlpNetwork.TANH:
+                    rows[o] = (float) Math.tanh(rows[o]);
+                    break;
+                case MlpNetwork.SIGMOID:
+                    rows[o] = (float) (1 / (1 + Math.exp(-rows[o])));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * runs the rest of the network on the first 'n' rows of writeRow(..), the value of row i is written to outputs[i]
+     *
+     * @param rows
+     * @param n
+     * @param outputs
+     */
+    public void evaluate(float[] rows, int n, float[] outputs) {
+        if (network.getOperations() == 1) {
+            for (int r = 0; r < n; r++) outputs[r] = rows[r * width];
+        } else {
+            network.evaluate(1, rows, n, outputs, null);
+        }
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    /* moves 'accumulator' to 'boardState': removes the spheres that are gone, adds the new ones */
+    private void apply(Accumulator accumulator, long boardState) {
+        long changed = accumulator.boardState ^ boardState;
+        while (changed != 0) {
+            int location = Long.numberOfTrailingZeros(changed) >>> 1;
+            changed &= ~(3L << (location * 2));
+            int before = (int) (accumulator.boardState >>> (location * 2) & 3);
+            int after = (int) (boardState >>> (location * 2) & 3);
+            if (before != 0) add(accumulator, location, before, -1);
+            if (after != 0) add(accumulator, location, after, 1);
+        }
+        accumulator.boardState = boardState;
+    }
+
+    /* adds 'sign' times the contribution of a sphere of 'value' (1 light, 2 dark) at 'location' */
+    private void add(Accumulator accumulator, int location, int value, float sign) {
+        float[] forLight = value == 1 ? ownSphere[location] : opponentSphere[location];
+        float[] forDark = value == 1 ? opponentSphere[location] : ownSphere[location];
+        float[] light = accumulator.light;
+        float[] dark = accumulator.dark;
+        for (int o = 0; o < width; o++) {
+            light[o] += sign * forLight[o];
+            dark[o] += sign * forDark[o];
+        }
+    }
+
+    /**
+     * The first layer's pre-activations of one board state, from the perspective of either player.
+     */
+    public static final class Accumulator {
+        private final float[] light;
+        private final float[] dark;
+        private long boardState;
+
+        private Accumulator(int width) {
+            light = new float[width];
+            dark = new float[width];
+        }
+
+        public long getBoardState() {
+            return boardState;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package be.kuleuven.pylos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches the evaluations of all threads that share a network: evaluate(..) queues the rows and waits, a dispatcher
+ * thread coalesces the queued requests of all concurrent games into one batch for the wrapped network. A session run
+ * of TensorFlowNetwork costs about as much for one row as for hundreds, so the players of a BattleMT share its cost.
+ * <p>
+ * A batch is dispatched when it holds maxBatchSize rows, when all client threads (those that evaluated at least once
+ * and did not terminate, e.g. the virtual thread of a game that is over) are waiting, or maxLatency after its first
+ * request, whatever comes first. A request larger than maxBatchSize is a
+ * batch of its own. The wrapped network is only used by the dispatcher thread.
+ * <p>
+ * Players use it as any ValueNetwork, e.g. new PylosPlayerML(service). Players of one service share the EvalCache
+ * pool of the service. close() stops the dispatcher, requests that are still queued fail.
+ */
+public class InferenceService implements ValueNetwork, AutoCloseable {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 512;
+    public static final long DEFAULT_MAX_LATENCY_MICROS = 1000;
+
+    private final ValueNetwork network;
+    private final int inputSize;
+    private final int maxBatchSize;
+    private final long maxLatencyNanos;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final ThreadLocal<Boolean> isClient = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private final Set<Thread> clients = ConcurrentHashMap.newKeySet();
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    /* dispatcher thread only */
+    private float[] batch;
+    private float[] outputs;
+    private Request pending;                            // didn't fit in the previous batch
+
+    /* statistics, written by the dispatcher */
+    private volatile long nBatches;
+    private volatile long nRows;
+    private volatile long nRequests;
+
+    public InferenceService(ValueNetwork network) {
+        this(network, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_LATENCY_MICROS);
+    }
+
+    /**
+     * @param network           evaluated by the dispatcher thread only, it doesn't have to be thread safe
+     * @param maxBatchSize      rows
+     * @param maxLatencyMicros  the longest a request waits for others to join its batch
+     */
+    public InferenceService(ValueNetwork network, int maxBatchSize, long maxLatencyMicros) {
+        this.network = network;
+        this.inputSize = network.getInputSize();
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatencyNanos = TimeUnit.MICROSECONDS.toNanos(maxLatencyMicros);
+        this.batch = new float[maxBatchSize * inputSize];
+        this.outputs = new float[maxBatchSize];
+        this.dispatcher = new Thread(this::dispatch, "inference-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * evaluates the rows in the next batch, waits for the result
+     */
+    @Override
+    public void evaluate(float[] inputs, int n, float[] outputs) {
+        if (n == 0) return;
+        try {
+            submit(inputs, n, outputs).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * queues the first 'n' rows of 'inputs' for the next batch, the value of row i is written to outputs[i] before the
+     * future completes. 'inputs' and 'outputs' must not be touched until then.
+     *
+     * @param inputs
+     * @param n
+     * @param outputs
+     * @return
+     */
+    public CompletableFuture<Void> submit(float[] inputs, int n, float[] outputs) {
+        if (!isClient.get()) {
+            isClient.set(Boolean.TRUE);
+            clients.add(Thread.currentThread());
+        }
+        Request request = new Request(inputs, n, outputs);
+        synchronized (queue) {
+            if (closed) {
+                request.future.completeExceptionally(new IllegalStateException("The inference service is closed"));
+            } else {
+                queue.add(request);
+            }
+        }
+        return request.future;
+    }
+
+    public long getBatches() {
+        return nBatches;
+    }
+
+    public double getAverageBatchSize() {
+        long batches = nBatches;
+        return batches == 0 ? 0 : (double) nRows / batches;
+    }
+
+    @Override
+    public void close() {
+        synchronized (queue) {
+            closed = true;
+        }
+        dispatcher.interrupt();
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IllegalStateException closedException = new IllegalStateException("The inference service is closed");
+        if (pending != null) pending.future.completeExceptionally(closedException);
+        for (Request request; (request = queue.poll()) != null; ) request.future.completeExceptionally(closedException);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d requests, %d rows in %d batches (%.1f rows per batch)", nRequests, nRows, nBatches, getAverageBatchSize());
+    }
+
+    /* dispatcher ------------------------------------------------------------------------------------------------- */
+
+    private void dispatch() {
+        List<Request> requests = new ArrayList<>();
+        try {
+            while (!closed) {
+                Request first = pending != null ? pending : queue.take();
+                pending = null;
+                requests.add(first);
+                int rows = first.n;
+                long deadline = System.nanoTime() + maxLatencyNanos;
+                clients.removeIf(client -> !client.isAlive());
+                int nClients = clients.size();
+
+                /* every client is waiting on this batch once it holds one request per client */
+                while (rows < maxBatchSize && requests.size() < nClients) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    if (rows + next.n > maxBatchSize) {
+                        pending = next;
+                        break;
+                    }
+                    requests.add(next);
+                    rows += next.n;
+                }
+                run(requests, rows);
+                requests.clear();
+            }
+        } catch (InterruptedException e) {
+            /* closed */
+            IllegalStateException closedException = new IllegalStateException("The inference service is closed");
+            for (Request request : requests) request.future.completeExceptionally(closedException);
+        }
+    }
+
+    private void run(List<Request> requests, int rows) {
+        if (batch.length < rows * inputSize) {
+            batch = new float[rows * inputSize];
+            outputs = new float[rows];
+        }
+        int row = 0;
+        for (Request request : requests) {
+            System.arraycopy(request.inputs, 0, batch, row * inputSize, request.n * inputSize);
+            row += request.n;
+        }
+        try {
+            network.evaluate(batch, rows, outputs);
+        } catch (RuntimeException e) {
+            for (Request request : requests) request.future.completeExceptionally(e);
+            return;
+        }
+        row = 0;
+        for (Request request : requests) {
+            System.arraycopy(outputs, row, request.outputs, 0, request.n);
+            row += request.n;
+            request.future.complete(null);
+        }
+        nBatches++;
+        nRows += rows;
+        nRequests += requests.size();
+    }
+
+    private static final class Request {
+        private final float[] inputs;
+        private final int n;
+        private final float[] outputs;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Request(float[] inputs, int n, float[] outputs) {
+            this.inputs = inputs;
+            this.n = n;
+            this.outputs = outputs;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package be.kuleuven.pylos;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Dense value network evaluated in plain Java, loaded from the weights file written by export_weights.py. It starts
+ * instantly, needs no native libraries and allocates nothing once a thread has evaluated its largest batch.
+ * <p>
+ * The network is a sequence of operations on a vector of activations:
+ * - DENSE: y = activation(x * kernel + bias), the kernel is input-major as in Keras
+ * - AFFINE: y = activation(x * scale + shift), a batch normalization that couldn't be folded into a DENSE
+ * - SAVE: remembers the activations for the next ADD (the start of a residual block)
+ * - ADD: y = activation(x + saved)
+ * Batch normalizations after a linear DENSE are folded into its kernel and bias by the export, dropout is left out.
+ * <p>
+ * File format, big-endian: int MAGIC, int VERSION, int inputSize, int nOperations, then per operation its type and
+ * - DENSE: int in, int out, int activation, float[in * out] kernel, float[out] bias
+ * - AFFINE: int size, int activation, float[size] scale, float[size] shift
+ * - SAVE: nothing
+ * - ADD: int activation
+ * The last operation has one output.
+ * <p>
+ * The weights are immutable, the buffers are per thread, so one instance serves all threads.
+ */
+public class MlpNetwork implements ValueNetwork {
+
+    public static final int MAGIC = 0x50594E4E;           // "PYNN"
+    public static final int VERSION = 1;
+
+    static final int DENSE = 0;
+    static final int AFFINE = 1;
+    static final int SAVE = 2;
+    static final int ADD = 3;
+
+    static final int LINEAR = 0;
+    static final int RELU = 1;
+    static final int TANH = 2;
+    static final int SIGMOID = 3;
+
+    private final int inputSize;
+    private final int maxWidth;
+    private final int[] types;
+    private final int[] ins;
+    private final int[] outs;
+    private final int[] activations;
+    private final float[][][] kernels;                  // of a DENSE, one row of outputs per input, see dense(..)
+    private final float[][] weights;                    // scale of an AFFINE
+    private final float[][] biases;                     // bias of a DENSE, shift of an AFFINE
+
+    private final ThreadLocal<Buffers> buffers;
+
+    MlpNetwork(int inputSize, int[] types, int[] ins, int[] outs, int[] activations, float[][] weights, float[][] biases) {
+        this.inputSize = inputSize;
+        this.types = types;
+        this.ins = ins;
+        this.outs = outs;
+        this.activations = activations;
+        this.weights = weights;
+        this.biases = biases;
+        this.kernels = new float[types.length][][];
+        for (int op = 0; op < types.length; op++) {
+            if (types[op] != DENSE) continue;
+            kernels[op] = new float[ins[op]][];
+            for (int i = 0; i < ins[op]; i++) kernels[op][i] = Arrays.copyOfRange(weights[op], i * outs[op], (i + 1) * outs[op]);
+            weights[op] = null;
+        }
+        int width = inputSize;
+        for (int out : outs) width = Math.max(width, out);
+        this.maxWidth = width;
+        this.buffers = ThreadLocal.withInitial(Buffers::new);
+    }
+
+    public static MlpNetwork load(String path) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            return load(in);
+        }
+    }
+
+    public static MlpNetwork load(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != MAGIC) throw new IOException("Not a network weights file");
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported weights file version: " + version);
+
+        int inputSize = in.readInt();
+        int n = in.readInt();
+        int[] types = new int[n];
+        int[] ins = new int[n];
+        int[] outs = new int[n];
+        int[] activations = new int[n];
+        float[][] weights = new float[n][];
+        float[][] biases = new float[n][];
+
+        int width = inputSize;
+        for (int i = 0; i < n; i++) {
+            types[i] = in.readInt();
+            switch (types[i]) {
+                case DENSE:
+                    ins[i] = in.readInt();
+                    outs[i] = in.readInt();
+                    activations[i] = in.readInt();
+                    if (ins[i] != width) throw new IOException("Operation " + i + " expects " + ins[i] + " inputs, gets " + width);
+                    weights[i] = readFloats(in, ins[i] * outs[i]);
+                    biases[i] = readFloats(in, outs[i]);
+                    break;
+                case AFFINE:
+                    ins[i] = outs[i] = in.readInt();
+                    activations[i] = in.readInt();
+                    if (ins[i] != width) throw new IOException("Operation " + i + " expects " + ins[i] + " inputs, gets " + width);
+                    weights[i] = readFloats(in, ins[i]);
+                    biases[i] = readFloats(in, ins[i]);
+                    break;
+                case SAVE:
+                    ins[i] = outs[i] = width;
+                    break;
+                case ADD:
+                    ins[i] = outs[i] = width;
+                    activations[i] = in.readInt();
+                    break;
+                default:
+                    throw new IOException("Unknown operation type: " + types[i]);
+            }
+            width = outs[i];
+        }
+        if (width != 1) throw new IOException("The network has " + width + " outputs instead of 1");
+        return new MlpNetwork(inputSize, types, ins, outs, activations, weights, biases);
+    }
+
+    public static void main(String[] args) throws IOException {
+        MlpNetwork network = load(args[0]);
+        long duration = args.length > 1 ? Long.parseLong(args[1]) : 5000;
+
+        Random random = new Random(0);
+        int rows = 64;
+        float[] inputs = new float[rows * network.getInputSize()];
+        for (int i = 0; i < inputs.length; i++) inputs[i] = random.nextInt(3) - 1;
+        float[] outputs = new float[rows];
+        long n = 0;
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < duration) {
+            network.evaluate(inputs, rows, outputs);
+            n += rows;
+        }
+        System.out.printf("%.0f evaluations/s%n", n * 1000.0 / (System.currentTimeMillis() - start));
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * evaluates the rows together, layer by layer: a kernel is read from memory once per batch instead of once per
+     * row, the kernels of a large network don't fit in the cache
+     */
+    @Override
+    public void evaluate(float[] inputs, int n, float[] outputs) {
+        evaluate(0, inputs, n, outputs, null);
+    }
+
+    /**
+     * returns the value of one row of getInputSize() features
+     *
+     * @param input
+     * @return
+     */
+    public float evaluate(float[] input) {
+        float[] output = buffers.get().output;
+        evaluate(input, 1, output);
+        return output[0];
+    }
+
+    /* IncrementalNetwork ----------------------------------------------------------------------------------------- */
+
+    int getOperations() {
+        return types.length;
+    }
+
+    int getType(int op) {
+        return types[op];
+    }
+
+    int getInputSize(int op) {
+        return ins[op];
+    }
+
+    int getOutputSize(int op) {
+        return outs[op];
+    }
+
+    int getActivation(int op) {
+        return activations[op];
+    }
+
+    /**
+     * returns the kernel of a DENSE, kernel[i][o] is the weight of input i for output o
+     *
+     * @param op
+     * @return
+     */
+    float[][] getKernel(int op) {
+        return kernels[op];
+    }
+
+    /**
+     * returns the scale of an AFFINE
+     *
+     * @param op
+     * @return
+     */
+    float[] getWeights(int op) {
+        return weights[op];
+    }
+
+    float[] getBiases(int op) {
+        return biases[op];
+    }
+
+    /**
+     * runs the operations from 'firstOp' on, as evaluate(..) does
+     *
+     * @param firstOp
+     * @param inputs  consecutive rows of getInputSize(firstOp) values
+     * @param n
+     * @param outputs
+     * @param ranges  if not null, ranges[op] is raised to the largest absolute input value of operation op, to
+     *                calibrate a QuantizedNetwork
+     */
+    void evaluate(int firstOp, float[] inputs, int n, float[] outputs, float[] ranges) {
+        Buffers buffer = buffers.get();
+        buffer.ensureRows(n);
+        float[][] x = buffer.x;
+        float[][] y = buffer.y;
+        int width = ins[firstOp];
+        for (int r = 0; r < n; r++) System.arraycopy(inputs, r * width, x[r], 0, width);
+
+        for (int op = firstOp; op < types.length; op++) {
+            int out = outs[op];
+            if (ranges != null) {
+                for (int r = 0; r < n; r++) {
+                    for (int i = 0; i < ins[op]; i++) ranges[op] = Math.max(ranges[op], Math.abs(x[r][i]));
+                }
+            }
+            switch (types[op]) {
+                case DENSE:
+                    dense(x, n, ins[op], kernels[op], biases[op], out, y);
+                    break;
+                case AFFINE:
+                    float[] scale = weights[op];
+                    float[] shift = biases[op];
+                    for (int r = 0; r < n; r++) {
+                        for (int o = 0; o < out; o++) y[r][o] = x[r][o] * scale[o] + shift[o];
+                    }
+                    break;
+                case SAVE:
+                    for (int r = 0; r < n; r++) System.arraycopy(x[r], 0, buffer.saved[r], 0, out);
+                    continue;
+                default:
+                    for (int r = 0; r < n; r++) {
+                        for (int o = 0; o < out; o++) y[r][o] = x[r][o] + buffer.saved[r][o];
+                    }
+                    break;
+            }
+            for (int r = 0; r < n; r++) activate(y[r], out, activations[op]);
+            float[][] tmp = x;
+            x = y;
+            y = tmp;
+        }
+        for (int r = 0; r < n; r++) outputs[r] = x[r][0];
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    /* y = x * kernel + bias for 'n' rows, as sums of scaled kernel rows: a kernel row is used for all rows while it is
+     * in the cache, and the zeros of empty locations and relu outputs are skipped. The inner loop is vectorized by the
+     * JIT only because the kernel row and y are indexed alike: with an offset in a flat kernel the JIT can't rule out
+     * that both are the same array, and the loop runs scalar, several times slower */
+    private static void dense(float[][] x, int n, int in, float[][] kernel, float[] bias, int out, float[][] y) {
+        for (int r = 0; r < n; r++) System.arraycopy(bias, 0, y[r], 0, out);
+        for (int i = 0; i < in; i++) {
+            float[] row = kernel[i];
+            for (int r = 0; r < n; r++) {
+                float xi = x[r][i];
+                if (xi == 0) continue;
+                float[] yr = y[r];
+                for (int o = 0; o < out; o++) yr[o] += xi * row[o];
+            }
+        }
+    }
+
+    static void activate(float[] y, int n, int activation) {
+        switch (activation) {
+            case RELU:
+                for (int i = 0; i < n; i++) y[i] = Math.max(y[i], 0);
+                break;
+            case TANH:
+                for (int i = 0; i < n; i++) y[i] = (float) Math.tanh(y[i]);
+                break;
+            case SIGMOID:
+                for (int i = 0; i < n; i++) y[i] = (float) (1 / (1 + Math.exp(-y[i])));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /* the activations of one thread: current, next and saved (see SAVE) per row */
+    private class Buffers {
+        private float[][] x = new float[0][];
+        private float[][] y = new float[0][];
+        private float[][] saved = new float[0][];
+        private final float[] output = new float[1];
+
+        private void ensureRows(int n) {
+            if (x.length >= n) return;
+            x = new float[n][maxWidth];
+            y = new float[n][maxWidth];
+            saved = new float[n][maxWidth];
+        }
+    }
+
+    static float[] readFloats(DataInputStream in, int n) throws IOException {
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++) values[i] = in.readFloat();
+        return values;
+    }
+}
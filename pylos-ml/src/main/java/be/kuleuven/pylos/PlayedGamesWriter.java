@@ -0,0 +1,53 @@
+package be.kuleuven.pylos;
+
+import be.kuleuven.pylos.battle.BattleSink;
+import be.kuleuven.pylos.battle.data.PlayedGame;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A BattleSink that writes the games to a JSON file as they finish, in the format of a games export of
+ * PylosMLCollect (an array of PlayedGame, as read by train.py). Only the game being written is in memory.
+ * <p>
+ * The array is closed by close(), the file is not valid JSON before.
+ */
+public class PlayedGamesWriter implements BattleSink, Closeable {
+
+    private final Gson gson = new Gson();
+    private final JsonWriter writer;
+    private long games;
+
+    /**
+     * @param path created with its parent directories, or overwritten
+     * @throws IOException
+     */
+    public PlayedGamesWriter(Path path) throws IOException {
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        writer = new JsonWriter(Files.newBufferedWriter(path));
+        writer.beginArray();
+    }
+
+    /**
+     * @throws com.google.gson.JsonIOException if the game can't be written
+     */
+    @Override
+    public synchronized void accept(PlayedGame playedGame) {
+        gson.toJson(playedGame, PlayedGame.class, writer);
+        games++;
+    }
+
+    public synchronized long getGames() {
+        return games;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.endArray();
+        writer.close();
+    }
+}
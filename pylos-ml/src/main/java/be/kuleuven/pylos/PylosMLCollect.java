@@ -2,18 +2,14 @@ package be.kuleuven.pylos;
 
 import be.kuleuven.pylos.battle.BattleMT;
 import be.kuleuven.pylos.battle.BattleResult;
-import be.kuleuven.pylos.battle.data.PlayedGame;
+import be.kuleuven.pylos.battle.BattleSink;
 import be.kuleuven.pylos.game.PylosBoard;
 import be.kuleuven.pylos.player.PylosPlayer;
 import be.kuleuven.pylos.player.PylosPlayerType;
 import be.kuleuven.pylos.player.codes.PylosPlayerBestFit;
 import be.kuleuven.pylos.player.codes.PylosPlayerMiniMax;
 import be.kuleuven.pylos.player.student.*;
-import com.google.gson.*;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
 
@@ -24,22 +20,15 @@ public class PylosMLCollect {
 
     public static void main(String[] args) throws IOException {
         for (int i = 1; i <= 10; i++) {
+            String exportPathWithIndex = EXPORT_PATH.replace(".json", "_" + i + ".json");
 
-            // 1) run alle battles en verzamel BattleResults
-        List<BattleResult> battleResults = runAllBattles();
-
-        // 2) alle PlayedGame's samenvoegen in één lijst
-        List<PlayedGame> allGames = new ArrayList<>();
-        for (BattleResult br : battleResults) {
-            allGames.addAll(br.playedGames);
-        }
-
-        System.out.println("Total played games over all battles: " + allGames.size());
-        String exportPathWithIndex = EXPORT_PATH.replace(".json", "_" + i + ".json");
-        // 3) alles samen in één JSON-bestand steken
-        exportGames(allGames, exportPathWithIndex);
+            // 1) run alle battles, de games gaan meteen naar het JSON-bestand (niet in het geheugen)
+            try (PlayedGamesWriter writer = new PlayedGamesWriter(Paths.get(exportPathWithIndex))) {
+                runAllBattles(writer);
+                System.out.println("Total played games over all battles: " + writer.getGames());
+            }
 
-        System.out.println("Exported to: " + exportPathWithIndex);
+            System.out.println("Exported to: " + exportPathWithIndex);
         }
     }
 
@@ -47,9 +36,10 @@ public class PylosMLCollect {
      * Deze methode:
      *  - definieert meerdere spelers (met verschillende parameters),
      *  - laat alle (gewenste) combinaties tegen elkaar spelen,
-     *  - en geeft een lijst van BattleResult terug.
+     *  - stuurt de games naar 'sink',
+     *  - en geeft een lijst van BattleResult terug (zonder playedGames).
      */
-    public static List<BattleResult> runAllBattles() {
+    public static List<BattleResult> runAllBattles(BattleSink sink) {
         // Definieer je spelers
 
 
@@ -112,7 +102,7 @@ public class PylosMLCollect {
 
         int gamesPerMatchup = 500;
         int threads = 8;
-        boolean recordGames = true;
+        boolean print = true;
 
         List<BattleResult> results = new ArrayList<>();
 
@@ -124,31 +114,16 @@ public class PylosMLCollect {
 
                 System.out.println("Starting battle: " + p1.toString() + " vs " + p2.toString());
 
-                BattleResult br = BattleMT.play(p1, p2, gamesPerMatchup, threads, recordGames);
+                BattleResult br = BattleMT.play(p1, p2, gamesPerMatchup, threads, print, sink);
                 results.add(br);
 
                 System.out.println("Finished battle: " + p1.toString() + " vs " + p2.toString() +
-                        " -> games: " + br.playedGames.size());
+                        " -> games: " + (br.p1Wins() + br.p2Wins() + br.p1StartDraws + br.p2StartDraws));
             }
         }
 
         return results;
     }
-
-    /**
-     * Schrijft een lijst van PlayedGame naar één JSON-bestand.
-     */
-    private static void exportGames(List<PlayedGame> games, String exportPath) throws IOException {
-        File file = new File(exportPath);
-        Files.createDirectories(file.getParentFile().toPath());
-
-        try (FileWriter writer = new FileWriter(file)) {
-            Gson gson = new GsonBuilder().create();
-            gson.toJson(games, writer);
-        }
-
-        System.out.println("Exported to: " + exportPath);
-    }
 }
 
 /*
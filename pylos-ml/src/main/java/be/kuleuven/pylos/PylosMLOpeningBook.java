@@ -0,0 +1,45 @@
+package be.kuleuven.pylos;
+
+import be.kuleuven.pylos.battle.data.PlayedGame;
+import be.kuleuven.pylos.book.OpeningBookBuilder;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Builds an opening book from the games exported by PylosMLCollect (all_battles_*.json).
+ * The exports are streamed, they don't have to fit in memory.
+ */
+public class PylosMLOpeningBook {
+
+    public static final String BOOK_PATH = Paths.get("pylos-ml", "src", "main", "training", "resources", "opening.book").toString();
+
+    public static void main(String[] args) throws IOException {
+        Path gamesDirectory = Paths.get(PylosMLCollect.EXPORT_PATH).getParent();
+        OpeningBookBuilder builder = new OpeningBookBuilder();
+        Gson gson = new Gson();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(gamesDirectory, "all_battles*.json")) {
+            for (Path file : files) {
+                try (Reader reader = Files.newBufferedReader(file); JsonReader json = new JsonReader(reader)) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        PlayedGame game = gson.fromJson(json, PlayedGame.class);
+                        builder.add(game);
+                    }
+                    json.endArray();
+                }
+                System.out.println("Read " + file + ", games: " + builder.getNumberOfGames());
+            }
+        }
+
+        builder.write(Paths.get(BOOK_PATH));
+        System.out.println("Positions: " + builder.getNumberOfPositions() + ", written to: " + BOOK_PATH);
+    }
+}
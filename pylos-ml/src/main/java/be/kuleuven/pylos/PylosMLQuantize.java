@@ -0,0 +1,128 @@
+package be.kuleuven.pylos;
+
+import be.kuleuven.pylos.battle.data.PlayedGame;
+import be.kuleuven.pylos.game.PylosPlayerColor;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Converts the weights exported by export_weights.py to a QuantizedNetwork and reports the accuracy it loses on
+ * recorded positions (a games export of PylosMLCollect).
+ * <p>
+ * Usage: PylosMLQuantize weights.bin games.json quantized.bin
+ * <p>
+ * The positions of the games are shuffled, CALIBRATION_POSITIONS of them calibrate the input scales of the dense
+ * layers, the others are held out. On those the outputs of both networks are compared with each other and with the
+ * training targets of train.py (the discounted result, from both perspectives).
+ */
+public class PylosMLQuantize {
+
+    public static final int CALIBRATION_POSITIONS = 10000;
+    public static final int MAX_HELD_OUT_POSITIONS = 100000;
+    public static final double DISCOUNT_FACTOR = 0.99;  // see train.py
+
+    private static final int BATCH = 256;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.out.println("Usage: PylosMLQuantize weights.bin games.json quantized.bin");
+            return;
+        }
+        MlpNetwork network = MlpNetwork.load(args[0]);
+        List<float[]> positions = readPositions(args[1]);
+        Collections.shuffle(positions, new Random(0));
+        int nCalibration = Math.min(CALIBRATION_POSITIONS, positions.size() / 2);
+        List<float[]> calibration = positions.subList(0, nCalibration);
+        List<float[]> heldOut = positions.subList(nCalibration, Math.min(positions.size(), nCalibration + MAX_HELD_OUT_POSITIONS));
+        System.out.println("Positions: " + positions.size() + ", calibration: " + calibration.size() + ", held out: " + heldOut.size());
+
+        float[] calibrationInputs = new float[calibration.size() * BoardFeatures.FEATURES];
+        for (int i = 0; i < calibration.size(); i++) {
+            System.arraycopy(calibration.get(i), 0, calibrationInputs, i * BoardFeatures.FEATURES, BoardFeatures.FEATURES);
+        }
+        QuantizedNetwork quantized = QuantizedNetwork.quantize(network, calibrationInputs, calibration.size());
+        quantized.write(args[2]);
+        System.out.println("Written to: " + args[2]);
+
+        float[] floatValues = evaluate(network, heldOut);
+        float[] quantizedValues = evaluate(quantized, heldOut);
+        double floatError = 0, quantizedError = 0, difference = 0, maxDifference = 0;
+        int sameSign = 0;
+        for (int i = 0; i < heldOut.size(); i++) {
+            float target = heldOut.get(i)[BoardFeatures.FEATURES];
+            floatError += (floatValues[i] - target) * (floatValues[i] - target);
+            quantizedError += (quantizedValues[i] - target) * (quantizedValues[i] - target);
+            double d = Math.abs(floatValues[i] - quantizedValues[i]);
+            difference += d;
+            maxDifference = Math.max(maxDifference, d);
+            if (Math.signum(floatValues[i]) == Math.signum(quantizedValues[i])) sameSign++;
+        }
+        int n = heldOut.size();
+        System.out.println(String.format("MSE float %.5f, quantized %.5f (delta %+.5f)", floatError / n, quantizedError / n, (quantizedError - floatError) / n));
+        System.out.println(String.format("Output difference: mean %.5f, max %.5f, same sign %.2f%%", difference / n, maxDifference, 100.0 * sameSign / n));
+
+        long floatTime = time(network, heldOut);
+        long quantizedTime = time(quantized, heldOut);
+        System.out.println(String.format("Evaluations/s: float %.0f, quantized %.0f", n * 1e9 / floatTime, n * 1e9 / quantizedTime));
+    }
+
+    /* the features of all positions of the games, from both perspectives, followed by the training target */
+    private static List<float[]> readPositions(String path) throws IOException {
+        List<float[]> positions = new ArrayList<>();
+        Gson gson = new Gson();
+        try (Reader reader = Files.newBufferedReader(Paths.get(path)); JsonReader json = new JsonReader(reader)) {
+            json.beginArray();
+            while (json.hasNext()) {
+                PlayedGame game = gson.fromJson(json, PlayedGame.class);
+                int nMoves = game.boardHistory.size();
+                for (int i = 0; i < nMoves; i++) {
+                    float score = (float) (game.winner * Math.pow(DISCOUNT_FACTOR, nMoves - i - 1));
+                    long boardState = game.boardHistory.get(i);
+                    positions.add(position(boardState, PylosPlayerColor.LIGHT, score));
+                    positions.add(position(boardState, PylosPlayerColor.DARK, -score));
+                }
+            }
+            json.endArray();
+        }
+        return positions;
+    }
+
+    private static float[] position(long boardState, PylosPlayerColor color, float target) {
+        float[] position = new float[BoardFeatures.FEATURES + 1];
+        BoardFeatures.encode(boardState, color, position, 0);
+        position[BoardFeatures.FEATURES] = target;
+        return position;
+    }
+
+    private static float[] evaluate(ValueNetwork network, List<float[]> positions) {
+        float[] values = new float[positions.size()];
+        float[] inputs = new float[BATCH * BoardFeatures.FEATURES];
+        float[] outputs = new float[BATCH];
+        for (int start = 0; start < positions.size(); start += BATCH) {
+            int n = Math.min(BATCH, positions.size() - start);
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(positions.get(start + i), 0, inputs, i * BoardFeatures.FEATURES, BoardFeatures.FEATURES);
+            }
+            network.evaluate(inputs, n, outputs);
+            System.arraycopy(outputs, 0, values, start, n);
+        }
+        return values;
+    }
+
+    /* nanoseconds to evaluate the positions, after a warm up */
+    private static long time(ValueNetwork network, List<float[]> positions) {
+        evaluate(network, positions.subList(0, Math.min(positions.size(), 20 * BATCH)));
+        long start = System.nanoTime();
+        evaluate(network, positions);
+        return System.nanoTime() - start;
+    }
+}
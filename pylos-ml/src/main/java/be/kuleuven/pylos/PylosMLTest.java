@@ -19,28 +19,47 @@ public class PylosMLTest {
 
     public static void main(String[] args) throws Exception {
 
-        try (SavedModelBundle model = SavedModelBundle.load(MODEL_PATH, "serve")) {
-            System.out.println("Model loaded");
-            printModelSignature(model);
-
-            PylosPlayerType trainedPlayer = new PylosPlayerType("ML") {
+        /* weights exported by export_weights.py: plain Java, no TensorFlow */
+        if (args.length > 0) {
+            IncrementalNetwork network = new IncrementalNetwork(MlpNetwork.load(args[0]));
+            PylosPlayerType trainedPlayer = new PylosPlayerType("ML (Java)") {
                 @Override
                 public PylosPlayer create() {
-                    return new PylosPlayerML(model);
+                    return new PylosPlayerML(network);
                 }
             };
+            BattleMT.play(trainedPlayer, minimax10(), 100, 8);
+            return;
+        }
 
-            PylosPlayerType opp = new PylosPlayerType("Student Player") {
-                @Override
-                public PylosPlayer create() {
-                    return new PylosPlayerMiniMax(10);
-                }
-            };
+        try (SavedModelBundle model = SavedModelBundle.load(MODEL_PATH, "serve")) {
+            System.out.println("Model loaded");
+            printModelSignature(model);
 
-            BattleMT.play(trainedPlayer, opp, 100, 8);
+            /* the 8 battle threads share one batched session run instead of running their own */
+            try (InferenceService service = new InferenceService(new TensorFlowNetwork(model, BoardFeatures.FEATURES))) {
+                PylosPlayerType trainedPlayer = new PylosPlayerType("ML") {
+                    @Override
+                    public PylosPlayer create() {
+                        return new PylosPlayerML(service);
+                    }
+                };
+
+                BattleMT.play(trainedPlayer, minimax10(), 100, 8);
+                System.out.println("Inference: " + service);
+            }
         }
     }
 
+    private static PylosPlayerType minimax10() {
+        return new PylosPlayerType("Student Player") {
+            @Override
+            public PylosPlayer create() {
+                return new PylosPlayerMiniMax(10);
+            }
+        };
+    }
+
     private static void printModelSignature(SavedModelBundle model) {
         MetaGraphDef m = model.metaGraphDef();
         SignatureDef sig = m.getSignatureDefOrThrow("serving_default");
@@ -2,87 +2,163 @@ package be.kuleuven.pylos;
 
 import be.kuleuven.pylos.game.*;
 import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.search.PylosMove;
+import be.kuleuven.pylos.search.SearchStats;
 import org.tensorflow.SavedModelBundle;
-import org.tensorflow.Tensor;
-import org.tensorflow.ndarray.StdArrays;
-import org.tensorflow.types.TFloat32;
-
-import java.util.ArrayList;
-import java.util.List;
-
 
+/**
+ * Depth 2 negamax on a value network. The search runs on packed int moves (see PylosMove) in per-ply arrays, a node
+ * allocates nothing: the moves are undone from the state and color of the node, the leaves one ply deep are evaluated
+ * as one batch.
+ */
 public class PylosPlayerML extends PylosPlayer {
 
-    private final SavedModelBundle model;
+    private final ValueNetwork network;                         // null if incremental is used
+    private final IncrementalNetwork incremental;
     private static final int SEARCH_DEPTH = 2;
+    private static final int FEATURES = BoardFeatures.FEATURES;
+
+    /* with an IncrementalNetwork: the accumulator of the current node per ply, and one for the frontier children */
+    private IncrementalNetwork.Accumulator[] accumulators;
+    private IncrementalNetwork.Accumulator childAccumulator;
+
+    /* the moves of the node at each ply, and the board and simulator of the running search */
+    private final int[][] moves = new int[SEARCH_DEPTH + 1][PylosMove.MAX_MOVES];
+    private PylosBoard board;
+    private PylosGameSimulator simulator;
+
+    /* rows of the batched leaf evaluations (see BoardFeatures or IncrementalNetwork.writeRow(..)) and their results */
+    private final int rowWidth;
+    private final float[] batch;
+    private final long[] batchKeys = new long[PylosMove.MAX_MOVES];
+    private final float[] outputs = new float[PylosMove.MAX_MOVES];
+    private final float[] values = new float[PylosMove.MAX_MOVES];
+    private final int[] rows = new int[PylosMove.MAX_MOVES];
+    private final SearchStats stats = new SearchStats();        // the evaluation cache is counted as TT
+    private EvalCache cache;
 
     public PylosPlayerML(SavedModelBundle model) {
-        this.model = model;
+        this(new TensorFlowNetwork(model, FEATURES));
+    }
+
+    /**
+     * @param network takes the 38 features of BoardFeatures.encode(..), e.g. an MlpNetwork to run without TensorFlow
+     */
+    public PylosPlayerML(ValueNetwork network) {
+        this.network = network;
+        this.incremental = null;
+        this.rowWidth = FEATURES;
+        this.batch = new float[PylosMove.MAX_MOVES * rowWidth];
+    }
+
+    /**
+     * the first layer is updated along the moves of the search instead of evaluated at every leaf
+     *
+     * @param network can be shared by the players of all threads, they share an EvalCache then
+     */
+    public PylosPlayerML(IncrementalNetwork network) {
+        this.network = null;
+        this.incremental = network;
+        this.rowWidth = network.getWidth();
+        this.batch = new float[PylosMove.MAX_MOVES * rowWidth];
+        this.accumulators = new IncrementalNetwork.Accumulator[SEARCH_DEPTH + 1];
+        for (int ply = 0; ply <= SEARCH_DEPTH; ply++) accumulators[ply] = network.newAccumulator();
+        this.childAccumulator = network.newAccumulator();
     }
 
     @Override
     public void doMove(PylosGameIF game, PylosBoard board) {
-        Action bestAction = findBestAction(board, this.PLAYER_COLOR, PylosGameState.MOVE);
-        bestAction.execute(game);
+        int bestMove = findBestMove(board, this.PLAYER_COLOR, PylosGameState.MOVE);
+        PylosMove.execute(game, board, this.PLAYER_COLOR, bestMove);
     }
 
     @Override
     public void doRemove(PylosGameIF game, PylosBoard board) {
-        Action bestAction = findBestAction(board, this.PLAYER_COLOR, PylosGameState.REMOVE_FIRST);
-        bestAction.execute(game);
+        int bestMove = findBestMove(board, this.PLAYER_COLOR, PylosGameState.REMOVE_FIRST);
+        PylosMove.execute(game, board, this.PLAYER_COLOR, bestMove);
     }
 
     @Override
     public void doRemoveOrPass(PylosGameIF game, PylosBoard board) {
-        Action bestAction = findBestAction(board, this.PLAYER_COLOR, PylosGameState.REMOVE_SECOND);
-        bestAction.execute(game);
+        int bestMove = findBestMove(board, this.PLAYER_COLOR, PylosGameState.REMOVE_SECOND);
+        PylosMove.execute(game, board, this.PLAYER_COLOR, bestMove);
     }
 
-    private Action findBestAction(PylosBoard board, PylosPlayerColor color, PylosGameState state) {
-        List<Action> actions = new ArrayList<>();
-        generateActions(board, color, state, actions);
+    /**
+     * returns the statistics of all searches, a leaf evaluation is one row of a batched inference
+     *
+     * @return
+     */
+    @Override
+    public SearchStats getSearchStats() {
+        return stats;
+    }
 
-        float bestScore = Float.NEGATIVE_INFINITY;
-        Action bestAction = null;
+    /* with a cache of the model for this call */
+    private int findBestMove(PylosBoard board, PylosPlayerColor color, PylosGameState state) {
+        cache = EvalCache.acquire(incremental != null ? incremental : network);
+        try {
+            return search(board, color, state);
+        } finally {
+            EvalCache.release(cache);
+            cache = null;
+        }
+    }
+
+    private int search(PylosBoard board, PylosPlayerColor color, PylosGameState state) {
+        stats.startSearch();
+        if (incremental != null) incremental.refresh(accumulators[0], board.toLong());
+        this.board = board;
+        this.simulator = new PylosGameSimulator(state, color, board);
+        int[] rootMoves = moves[0];
+        int nMoves = PylosMove.generate(board, color, state, rootMoves);
 
-        PylosGameSimulator simulator = new PylosGameSimulator(state, color, board);
+        float bestScore = Float.NEGATIVE_INFINITY;
+        int bestMove = PylosMove.NONE;
 
-        for (Action action : actions) {
-            action.simulate(simulator);
-            float score = -negamax(board, simulator.getColor(), simulator.getState(), SEARCH_DEPTH - 1, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
-            action.reverseSimulate(simulator);
+        for (int i = 0; i < nMoves; i++) {
+            int move = rootMoves[i];
+            PylosMove.apply(simulator, board, move);
+            float score = -negamax(simulator.getColor(), simulator.getState(), SEARCH_DEPTH - 1, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+            PylosMove.undo(simulator, board, move, state, color);
 
             if (score > bestScore) {
                 bestScore = score;
-                bestAction = action;
+                bestMove = move;
             }
         }
 
-        if (bestAction == null && !actions.isEmpty()) return actions.get(0);
-        return bestAction;
+        stats.endIteration(SEARCH_DEPTH);
+        stats.endSearch();
+        if (bestMove == PylosMove.NONE && nMoves > 0) return rootMoves[0];
+        return bestMove;
     }
 
-    private float negamax(PylosBoard board, PylosPlayerColor color, PylosGameState state, int depth, float alpha, float beta) {
+    private float negamax(PylosPlayerColor color, PylosGameState state, int depth, float alpha, float beta) {
+        int ply = SEARCH_DEPTH - depth;
+        stats.node(ply);
         if (state == PylosGameState.COMPLETED) {
             return Float.NEGATIVE_INFINITY;
         }
+        if (incremental != null) incremental.update(accumulators[ply - 1], accumulators[ply], board.toLong());
 
         if (depth == 0) {
-            return evalBoard(board, color);
+            return evalBoard(color, ply);
         }
 
-        List<Action> actions = new ArrayList<>();
-        generateActions(board, color, state, actions);
+        int[] nodeMoves = moves[ply];
+        int nMoves = PylosMove.generate(board, color, state, nodeMoves);
 
-        if (actions.isEmpty()) return evalBoard(board, color);
+        if (nMoves == 0) return evalBoard(color, ply);
+        if (depth == 1) return negamaxFrontier(color, state, nodeMoves, nMoves);
 
-        PylosGameSimulator simulator = new PylosGameSimulator(state, color, board);
         float bestScore = Float.NEGATIVE_INFINITY;
 
-        for (Action action : actions) {
-            action.simulate(simulator);
-            float score = -negamax(board, simulator.getColor(), simulator.getState(), depth - 1, -beta, -alpha);
-            action.reverseSimulate(simulator);
+        for (int i = 0; i < nMoves; i++) {
+            int move = nodeMoves[i];
+            PylosMove.apply(simulator, board, move);
+            float score = -negamax(simulator.getColor(), simulator.getState(), depth - 1, -beta, -alpha);
+            PylosMove.undo(simulator, board, move, state, color);
 
             bestScore = Math.max(bestScore, score);
             alpha = Math.max(alpha, score);
@@ -92,178 +168,84 @@ public class PylosPlayerML extends PylosPlayer {
     }
 
     /**
-     * Evaluates the board using the TensorFlow model.
-     * NEW INPUT SIZE: 38 features
+     * Negamax one ply above the leaves: the children are evaluated with one [N,38] inference instead of N [1,38]
+     * ones, the session call dominates the cost of a TensorFlow evaluation. The outputs map back to the children
+     * through rows[..]. Children in the evaluation cache get no row. There is no alpha-beta cutoff
+     * among the children, the result is the same.
      */
-    private float evalBoard(PylosBoard board, PylosPlayerColor color) {
-        long boardAsLong = board.toLong();
-
-        // Input Size: 38
-        // 0-29: Board Locations
-        // 30: My Reserve (normalized)
-        // 31: Enemy Reserve (normalized)
-        // 32: Reserve Difference
-        // 33: Material Difference
-        // 34-37: Layer Scores (Z0, Z1, Z2, Z3)
-        float[] inputs = new float[38];
-
-        int lightCount = 0;
-        int darkCount = 0;
-
-        // --- 1. PARSE BOARD (Indices 0-29) ---
-        for (int loc = 0; loc < 30; loc++) {
-            int shift = loc * 2;
-            long val = (boardAsLong >> shift) & 3;
-
-            float inputVal = 0.0f;
-
-            if (val == 1) {
-                lightCount++;
-                inputVal = (color == PylosPlayerColor.LIGHT) ? 1.0f : -1.0f;
-            }
-            else if (val == 2) {
-                darkCount++;
-                inputVal = (color == PylosPlayerColor.DARK) ? 1.0f : -1.0f;
+    private float negamaxFrontier(PylosPlayerColor color, PylosGameState state, int[] nodeMoves, int n) {
+        /* rows[i] is the batch row of child i, -1 if values[i] holds its value already */
+        int nRows = 0;
+
+        for (int i = 0; i < n; i++) {
+            int move = nodeMoves[i];
+            PylosMove.apply(simulator, board, move);
+            stats.node(SEARCH_DEPTH);
+            rows[i] = -1;
+            if (simulator.getState() == PylosGameState.COMPLETED) {
+                /* a completed game is worth -infinity for the side to move, see negamax(..) */
+                values[i] = Float.NEGATIVE_INFINITY;
+            } else {
+                long key = EvalCache.key(board.toLong(), simulator.getColor());
+                int entry = cache.probe(key);
+                stats.ttProbe(entry >= 0);
+                if (entry >= 0) {
+                    values[i] = cache.getValue(entry);
+                } else {
+                    encode(simulator.getColor(), accumulators == null ? null : accumulators[SEARCH_DEPTH - 1], childAccumulator, nRows);
+                    batchKeys[nRows] = key;
+                    rows[i] = nRows++;
+                }
             }
-
-            inputs[loc] = inputVal;
-        }
-
-        // --- 2. CALCULATE RESERVES (Indices 30-33) ---
-        int lightReserves = 15 - lightCount;
-        int darkReserves = 15 - darkCount;
-
-        float myReserves, enemyReserves, reserveDiff, materialDiff;
-
-        if (color == PylosPlayerColor.LIGHT) {
-            myReserves = lightReserves / 15.0f;
-            enemyReserves = darkReserves / 15.0f;
-            reserveDiff = (lightReserves - darkReserves) / 15.0f;
-            materialDiff = (lightCount - darkCount) / 30.0f;
-        } else {
-            myReserves = darkReserves / 15.0f;
-            enemyReserves = lightReserves / 15.0f;
-            reserveDiff = (darkReserves - lightReserves) / 15.0f;
-            materialDiff = (darkCount - lightCount) / 30.0f;
+            PylosMove.undo(simulator, board, move, state, color);
         }
 
-        inputs[30] = myReserves;
-        inputs[31] = enemyReserves;
-        inputs[32] = reserveDiff;
-        inputs[33] = materialDiff;
-
-        // --- 3. CALCULATE LAYER SCORES (Indices 34-37) ---
-        float sumZ0 = 0;
-        for(int i=0; i<=15; i++) sumZ0 += inputs[i];
-        inputs[34] = sumZ0 / 16.0f;
-
-        float sumZ1 = 0;
-        for(int i=16; i<=24; i++) sumZ1 += inputs[i];
-        inputs[35] = sumZ1 / 9.0f;
-
-        float sumZ2 = 0;
-        for(int i=25; i<=28; i++) sumZ2 += inputs[i];
-        inputs[36] = sumZ2 / 4.0f;
-
-        inputs[37] = inputs[29];
-
-        // --- 4. RUN INFERENCE ---
-        float output = Float.NaN;
-        try (Tensor inputTensor = TFloat32.tensorOf(StdArrays.ndCopyOf(new float[][]{inputs}))) {
-            try (TFloat32 outputTensor = (TFloat32) model.session().runner()
-                    .feed("serving_default_keras_tensor:0", inputTensor)
-                    .fetch("StatefulPartitionedCall_1:0")
-                    .run().get(0)) {
-                output = outputTensor.getFloat();
-            }
+        evalBatch(nRows);
+        for (int row = 0; row < nRows; row++) cache.store(batchKeys[row], outputs[row]);
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            float value = rows[i] >= 0 ? outputs[rows[i]] : values[i];
+            bestScore = Math.max(bestScore, -value);
         }
-        return output;
+        return bestScore;
     }
 
-    private static List<Action> generateActions(PylosBoard board, PylosPlayerColor color, PylosGameState state, List<Action> actionList) {
-        actionList.clear();
-        PylosSphere[] spheres = board.getSpheres(color);
-
-        switch (state) {
-            case MOVE -> {
-                PylosLocation[] locations = board.getLocations();
-                PylosSquare[] squares = board.getAllSquares();
-                List<PylosLocation> availableFullSquaresTopLocations = new ArrayList<>();
-
-                for (PylosSquare square : squares)
-                    if (square.getTopLocation().isUsable())
-                        availableFullSquaresTopLocations.add(square.getTopLocation());
-
-                for (PylosSphere sphere : spheres)
-                    if (!sphere.isReserve())
-                        for (PylosLocation location : availableFullSquaresTopLocations)
-                            if (sphere.canMoveTo(location) && sphere.getLocation() != location)
-                                actionList.add(new Action(ActionType.MOVE, sphere, location));
-
-                for (PylosLocation location : locations)
-                    if (location.isUsable())
-                        actionList.add(new Action(ActionType.ADD, board.getReserve(color), location));
-            }
-            case REMOVE_FIRST -> {
-                for (PylosSphere sphere : spheres)
-                    if (sphere.canRemove())
-                        actionList.add(new Action(ActionType.REMOVE_FIRST, sphere, null));
-            }
-            case REMOVE_SECOND -> {
-                actionList.add(new Action(ActionType.PASS, null, null));
-                for (PylosSphere sphere : spheres)
-                    if (sphere.canRemove())
-                        actionList.add(new Action(ActionType.REMOVE_SECOND, sphere, null));
-            }
-        }
-        return actionList;
+    /**
+     * Evaluates the board using the value network.
+     * NEW INPUT SIZE: 38 features
+     */
+    private float evalBoard(PylosPlayerColor color, int ply) {
+        long boardState = board.toLong();
+        long key = EvalCache.key(boardState, color);
+        int entry = cache.probe(key);
+        stats.ttProbe(entry >= 0);
+        if (entry >= 0) return cache.getValue(entry);
+
+        IncrementalNetwork.Accumulator accumulator = accumulators == null ? null : accumulators[ply];
+        encode(color, accumulator, accumulator, 0);
+        evalBatch(1);
+        cache.store(key, outputs[0]);
+        return outputs[0];
     }
 
-    enum ActionType { ADD, MOVE, REMOVE_FIRST, REMOVE_SECOND, PASS }
-
-    private static class Action {
-        private final ActionType type;
-        private final PylosSphere sphere;
-        private final PylosLocation location;
-        private PylosLocation prevLocation;
-        private PylosGameState prevState;
-        private PylosPlayerColor prevColor;
-
-        public Action(ActionType type, PylosSphere sphere, PylosLocation location) {
-            this.type = type;
-            this.sphere = sphere;
-            this.location = location;
-        }
-
-        public void execute(PylosGameIF game) {
-            switch (type) {
-                case ADD, MOVE -> game.moveSphere(sphere, location);
-                case REMOVE_FIRST, REMOVE_SECOND -> game.removeSphere(sphere);
-                case PASS -> game.pass();
-            }
-        }
-
-        public void simulate(PylosGameSimulator simulator) {
-            prevState = simulator.getState();
-            prevColor = simulator.getColor();
-            if (type == ActionType.MOVE || type == ActionType.REMOVE_FIRST || type == ActionType.REMOVE_SECOND) {
-                prevLocation = sphere.getLocation();
-            }
-            switch (type) {
-                case ADD, MOVE -> simulator.moveSphere(sphere, location);
-                case REMOVE_FIRST, REMOVE_SECOND -> simulator.removeSphere(sphere);
-                case PASS -> simulator.pass();
-            }
+    /* writes the network inputs of 'board' for 'color' to batch row 'row': its features, or the first layer's outputs
+     * of 'accumulator', updated from 'parent' */
+    private void encode(PylosPlayerColor color, IncrementalNetwork.Accumulator parent, IncrementalNetwork.Accumulator accumulator, int row) {
+        if (incremental == null) {
+            BoardFeatures.encode(board.toLong(), color, batch, row * rowWidth);
+        } else {
+            incremental.update(parent, accumulator, board.toLong());
+            incremental.writeRow(accumulator, color, batch, row * rowWidth);
         }
+    }
 
-        public void reverseSimulate(PylosGameSimulator simulator) {
-            switch (type) {
-                case ADD -> simulator.undoAddSphere(sphere, prevState, prevColor);
-                case MOVE -> simulator.undoMoveSphere(sphere, prevLocation, prevState, prevColor);
-                case REMOVE_FIRST -> simulator.undoRemoveFirstSphere(sphere, prevLocation, prevState, prevColor);
-                case REMOVE_SECOND -> simulator.undoRemoveSecondSphere(sphere, prevLocation, prevState, prevColor);
-                case PASS -> simulator.undoPass(prevState, prevColor);
-            }
+    /* runs the network on the first 'n' rows of the batch, the output of row i goes to outputs[i] */
+    private void evalBatch(int n) {
+        for (int i = 0; i < n; i++) stats.leafEval();
+        if (incremental != null) {
+            incremental.evaluate(batch, n, outputs);
+        } else {
+            network.evaluate(batch, n, outputs);
         }
     }
-}
\ No newline at end of file
+}
@@ -2,20 +2,22 @@ package be.kuleuven.pylos;
 
 import be.kuleuven.pylos.game.*;
 import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.search.SearchStats;
 import org.tensorflow.SavedModelBundle;
-import org.tensorflow.Tensor;
-import org.tensorflow.ndarray.StdArrays;
-import org.tensorflow.types.TFloat32;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class PylosPlayerML2 extends PylosPlayer {
 
-    private final SavedModelBundle model;
+    private final ValueNetwork network;
+    private final float[] input = new float[BoardFeatures.BIT_FEATURES];
+    private final float[] output = new float[1];
+    private final SearchStats stats = new SearchStats();        // the evaluation cache is counted as TT
+    private EvalCache cache;
 
     public PylosPlayerML2(SavedModelBundle model) {
-        this.model = model;
+        this.network = new TensorFlowNetwork(model, BoardFeatures.BIT_FEATURES);
     }
 
     @Override
@@ -37,14 +39,36 @@ public class PylosPlayerML2 extends PylosPlayer {
         bestAction.execute(game);
     }
 
+    /**
+     * returns the statistics of all searches, one ply each
+     *
+     * @return
+     */
+    @Override
+    public SearchStats getSearchStats() {
+        return stats;
+    }
+
     /**
      * PURE ML SEARCH STRATEGY:
      * 1. Generate all legal moves.
      * 2. Simulate each move to see the resulting board.
      * 3. Ask the Neural Network: "How good is this board for ME?"
      * 4. Pick the move with the highest score.
+     * The evaluations are cached in a cache of the model for this call.
      */
     private Action findBestAction(PylosBoard board, PylosPlayerColor color, PylosGameState state) {
+        cache = EvalCache.acquire(network);
+        try {
+            return search(board, color, state);
+        } finally {
+            EvalCache.release(cache);
+            cache = null;
+        }
+    }
+
+    private Action search(PylosBoard board, PylosPlayerColor color, PylosGameState state) {
+        stats.startSearch();
         List<Action> actionList = new ArrayList<>();
         List<Action> actions = generateActions(board, color, state, actionList);
         PylosGameSimulator simulator = new PylosGameSimulator(state, color, board);
@@ -55,6 +79,7 @@ public class PylosPlayerML2 extends PylosPlayer {
         for (Action action : actions) {
             // 1. Simulate the move
             action.simulate(simulator);
+            stats.node(1);
 
             // 2. Evaluate the board AFTER the move.
             // We ask: "What is the value of this board for ME (this.PLAYER_COLOR)?"
@@ -70,6 +95,9 @@ public class PylosPlayerML2 extends PylosPlayer {
             }
         }
 
+        stats.endIteration(1);
+        stats.endSearch();
+
         // Fallback if list is empty or errors occur
         if (bestAction == null && !actions.isEmpty()) {
             return actions.get(0);
@@ -85,39 +113,21 @@ public class PylosPlayerML2 extends PylosPlayer {
     private float evalBoard(PylosBoard board, PylosPlayerColor color) {
         long boardAsLong = board.toLong();
 
-        // 1. Prepare the input array (60 inputs)
-        float[] boardAsArray = new float[60];
-        for (int i = 0; i < 60; i++) {
-            int leftShifts = 59 - i;
-            // In standard Pylos logic: 0 = Light, 1 = Dark (in the bitboard bits)
-            boolean isLightSphere = (boardAsLong & (1L << leftShifts)) == 0;
-
-            float val;
-            // --- PERSPECTIVE LOGIC ---
-            if (color == PylosPlayerColor.LIGHT) {
-                // If I am LIGHT, the model expects My Pieces = 0, Enemy = 1
-                val = isLightSphere ? 0.0f : 1.0f;
-            } else {
-                // If I am DARK, the model expects My Pieces = 0, Enemy = 1
-                // So we flip the inputs: Light spheres become "Enemy" (1.0)
-                val = isLightSphere ? 1.0f : 0.0f;
-            }
-            boardAsArray[i] = val;
-        }
+        // 0. Repeated positions skip the inference
+        long key = EvalCache.key(boardAsLong, color);
+        int entry = cache.probe(key);
+        stats.ttProbe(entry >= 0);
+        if (entry >= 0) return cache.getValue(entry);
+        stats.leafEval();
 
-        float output = Float.NaN;
-        try (Tensor inputTensor = TFloat32.tensorOf(StdArrays.ndCopyOf(new float[][]{boardAsArray}))) {
-            try (TFloat32 outputTensor = (TFloat32) model.session().runner()
-                    .feed("serving_default_keras_tensor:0", inputTensor)
-                    .fetch("StatefulPartitionedCall_1:0")
-                    .run().get(0)) {
-                output = outputTensor.getFloat();
-            }
-        }
+        // 1. Run the network on the bits of the state, with My Pieces = 0, Enemy = 1
+        BoardFeatures.encodeBits(boardAsLong, color, input, 0);
+        network.evaluate(input, 1, output);
+        cache.store(key, output[0]);
 
         // 2. Return output directly.
         // The model is trained to return Higher Scores = Better for the "Input Player".
-        return output;
+        return output[0];
     }
 
     /**
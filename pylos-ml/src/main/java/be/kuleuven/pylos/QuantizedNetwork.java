@@ -0,0 +1,337 @@
+package be.kuleuven.pylos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * An MlpNetwork with quantized dense layers, see PylosMLQuantize to convert one. The kernels are int8 with a scale
+ * per output, a quarter of the float kernels: the kernels of the train.py network fit in the cache.
+ * <p>
+ * The inputs of a DENSE are quantized with a scale calibrated on recorded positions (the largest absolute value seen,
+ * values beyond it saturate): to int16 if the dot products can't overflow the int32 accumulators, to int8 otherwise.
+ * A dot product is an int32 sum of int products, converted back to float with the input and output scales, then the
+ * bias and activation are applied in float. AFFINE, SAVE and ADD run in float as in MlpNetwork.
+ * <p>
+ * The JIT doesn't vectorize a loop that multiplies int8 by int32 values, so every kernel row is widened to int32 once
+ * per batch and the products are summed with int32 rows only: batches of the size of a frontier of PylosPlayerML
+ * amortize the widening, single rows don't.
+ * <p>
+ * File format, big-endian: as MlpNetwork with MAGIC and VERSION of this class, but a DENSE is
+ * int in, int out, int activation, float inputScale, byte[in * out] kernel, float[out] kernelScale, float[out] bias
+ * <p>
+ * The weights are immutable, the buffers are per thread, so one instance serves all threads.
+ */
+public class QuantizedNetwork implements ValueNetwork {
+
+    public static final int MAGIC = 0x50594E51;           // "PYNQ"
+    public static final int VERSION = 1;
+
+    private static final int INT8_MAX = 127;
+    private static final int INT16_MAX = 32767;
+
+    private final int inputSize;
+    private final int maxWidth;
+    private final int[] types;
+    private final int[] ins;
+    private final int[] outs;
+    private final int[] activations;
+    private final float[] inputScales;                  // per DENSE: input value of one quantization step
+    private final int[] inputLimits;                    // per DENSE: INT8_MAX or INT16_MAX
+    private final byte[][][] kernels;                   // of a DENSE, one row of outputs per input
+    private final float[][] weights;                    // kernel scales of a DENSE, scale of an AFFINE
+    private final float[][] biases;                     // bias of a DENSE, shift of an AFFINE
+
+    private final ThreadLocal<Buffers> buffers;
+
+    private QuantizedNetwork(int inputSize, int[] types, int[] ins, int[] outs, int[] activations, float[] inputScales,
+                             byte[][][] kernels, float[][] weights, float[][] biases) {
+        this.inputSize = inputSize;
+        this.types = types;
+        this.ins = ins;
+        this.outs = outs;
+        this.activations = activations;
+        this.inputScales = inputScales;
+        this.kernels = kernels;
+        this.weights = weights;
+        this.biases = biases;
+        this.inputLimits = new int[types.length];
+        int width = inputSize;
+        for (int op = 0; op < types.length; op++) {
+            inputLimits[op] = inputLimit(ins[op]);
+            width = Math.max(width, outs[op]);
+        }
+        this.maxWidth = width;
+        this.buffers = ThreadLocal.withInitial(Buffers::new);
+    }
+
+    /**
+     * quantizes the dense layers of 'network'
+     *
+     * @param network
+     * @param calibration consecutive rows of network.getInputSize() features of representative positions
+     * @param n           the number of rows
+     * @return
+     */
+    public static QuantizedNetwork quantize(MlpNetwork network, float[] calibration, int n) {
+        int nOps = network.getOperations();
+        float[] ranges = new float[nOps];
+        float[] outputs = new float[n];
+        network.evaluate(0, calibration, n, outputs, ranges);
+
+        int[] types = new int[nOps];
+        int[] ins = new int[nOps];
+        int[] outs = new int[nOps];
+        int[] activations = new int[nOps];
+        float[] inputScales = new float[nOps];
+        byte[][][] kernels = new byte[nOps][][];
+        float[][] weights = new float[nOps][];
+        float[][] biases = new float[nOps][];
+        for (int op = 0; op < nOps; op++) {
+            types[op] = network.getType(op);
+            ins[op] = network.getInputSize(op);
+            outs[op] = network.getOutputSize(op);
+            activations[op] = network.getActivation(op);
+            biases[op] = network.getBiases(op);
+            if (types[op] != MlpNetwork.DENSE) {
+                weights[op] = network.getWeights(op);
+                continue;
+            }
+            inputScales[op] = ranges[op] == 0 ? 1 : ranges[op] / inputLimit(ins[op]);
+
+            /* symmetric per output: the largest absolute weight of an output becomes 127 */
+            float[][] kernel = network.getKernel(op);
+            int out = outs[op];
+            float[] scales = new float[out];
+            for (float[] row : kernel) {
+                for (int o = 0; o < out; o++) scales[o] = Math.max(scales[o], Math.abs(row[o]));
+            }
+            for (int o = 0; o < out; o++) scales[o] = scales[o] == 0 ? 1 : scales[o] / INT8_MAX;
+            kernels[op] = new byte[ins[op]][out];
+            for (int i = 0; i < ins[op]; i++) {
+                for (int o = 0; o < out; o++) kernels[op][i][o] = (byte) Math.round(kernel[i][o] / scales[o]);
+            }
+            weights[op] = scales;
+        }
+        return new QuantizedNetwork(network.getInputSize(), types, ins, outs, activations, inputScales, kernels, weights, biases);
+    }
+
+    public static QuantizedNetwork load(String path) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            return load(in);
+        }
+    }
+
+    public static QuantizedNetwork load(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != MAGIC) throw new IOException("Not a quantized network file");
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported quantized network file version: " + version);
+
+        int inputSize = in.readInt();
+        int n = in.readInt();
+        int[] types = new int[n];
+        int[] ins = new int[n];
+        int[] outs = new int[n];
+        int[] activations = new int[n];
+        float[] inputScales = new float[n];
+        byte[][][] kernels = new byte[n][][];
+        float[][] weights = new float[n][];
+        float[][] biases = new float[n][];
+
+        int width = inputSize;
+        for (int i = 0; i < n; i++) {
+            types[i] = in.readInt();
+            switch (types[i]) {
+                case MlpNetwork.DENSE:
+                    ins[i] = in.readInt();
+                    outs[i] = in.readInt();
+                    activations[i] = in.readInt();
+                    if (ins[i] != width) throw new IOException("Operation " + i + " expects " + ins[i] + " inputs, gets " + width);
+                    inputScales[i] = in.readFloat();
+                    kernels[i] = new byte[ins[i]][outs[i]];
+                    for (byte[] row : kernels[i]) in.readFully(row);
+                    weights[i] = MlpNetwork.readFloats(in, outs[i]);
+                    biases[i] = MlpNetwork.readFloats(in, outs[i]);
+                    break;
+                case MlpNetwork.AFFINE:
+                    ins[i] = outs[i] = in.readInt();
+                    activations[i] = in.readInt();
+                    if (ins[i] != width) throw new IOException("Operation " + i + " expects " + ins[i] + " inputs, gets " + width);
+                    weights[i] = MlpNetwork.readFloats(in, ins[i]);
+                    biases[i] = MlpNetwork.readFloats(in, ins[i]);
+                    break;
+                case MlpNetwork.SAVE:
+                    ins[i] = outs[i] = width;
+                    break;
+                case MlpNetwork.ADD:
+                    ins[i] = outs[i] = width;
+                    activations[i] = in.readInt();
+                    break;
+                default:
+                    throw new IOException("Unknown operation type: " + types[i]);
+            }
+            width = outs[i];
+        }
+        if (width != 1) throw new IOException("The network has " + width + " outputs instead of 1");
+        return new QuantizedNetwork(inputSize, types, ins, outs, activations, inputScales, kernels, weights, biases);
+    }
+
+    public void write(String path) throws IOException {
+        try (OutputStream out = new FileOutputStream(path)) {
+            write(out);
+        }
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(inputSize);
+        out.writeInt(types.length);
+        for (int op = 0; op < types.length; op++) {
+            out.writeInt(types[op]);
+            switch (types[op]) {
+                case MlpNetwork.DENSE:
+                    out.writeInt(ins[op]);
+                    out.writeInt(outs[op]);
+                    out.writeInt(activations[op]);
+                    out.writeFloat(inputScales[op]);
+                    for (byte[] row : kernels[op]) out.write(row);
+                    for (float scale : weights[op]) out.writeFloat(scale);
+                    for (float bias : biases[op]) out.writeFloat(bias);
+                    break;
+                case MlpNetwork.AFFINE:
+                    out.writeInt(ins[op]);
+                    out.writeInt(activations[op]);
+                    for (float scale : weights[op]) out.writeFloat(scale);
+                    for (float shift : biases[op]) out.writeFloat(shift);
+                    break;
+                case MlpNetwork.ADD:
+                    out.writeInt(activations[op]);
+                    break;
+                default:
+                    break;
+            }
+        }
+        out.flush();
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    @Override
+    public void evaluate(float[] inputs, int n, float[] outputs) {
+        Buffers buffer = buffers.get();
+        buffer.ensureRows(n);
+        float[][] x = buffer.x;
+        float[][] y = buffer.y;
+        for (int r = 0; r < n; r++) System.arraycopy(inputs, r * inputSize, x[r], 0, inputSize);
+
+        for (int op = 0; op < types.length; op++) {
+            int out = outs[op];
+            switch (types[op]) {
+                case MlpNetwork.DENSE:
+                    dense(buffer, x, n, op, y);
+                    break;
+                case MlpNetwork.AFFINE:
+                    float[] scale = weights[op];
+                    float[] shift = biases[op];
+                    for (int r = 0; r < n; r++) {
+                        for (int o = 0; o < out; o++) y[r][o] = x[r][o] * scale[o] + shift[o];
+                    }
+                    break;
+                case MlpNetwork.SAVE:
+                    for (int r = 0; r < n; r++) System.arraycopy(x[r], 0, buffer.saved[r], 0, out);
+                    continue;
+                default:
+                    for (int r = 0; r < n; r++) {
+                        for (int o = 0; o < out; o++) y[r][o] = x[r][o] + buffer.saved[r][o];
+                    }
+                    break;
+            }
+            for (int r = 0; r < n; r++) MlpNetwork.activate(y[r], out, activations[op]);
+            float[][] tmp = x;
+            x = y;
+            y = tmp;
+        }
+        for (int r = 0; r < n; r++) outputs[r] = x[r][0];
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    /* the largest quantized input of a dense layer with 'in' inputs whose int32 dot products can't overflow */
+    private static int inputLimit(int in) {
+        return (long) in * INT16_MAX * INT8_MAX <= Integer.MAX_VALUE ? INT16_MAX : INT8_MAX;
+    }
+
+    /* y = x * kernel + bias for 'n' rows: x is quantized, the dot products are sums of scaled kernel rows in int32, as
+     * in MlpNetwork the zeros are skipped */
+    private void dense(Buffers buffer, float[][] x, int n, int op, float[][] y) {
+        int in = ins[op];
+        int out = outs[op];
+        byte[][] kernel = kernels[op];
+        float inputScale = inputScales[op];
+        int limit = inputLimits[op];
+        int[][] xq = buffer.quantized;
+        int[][] sums = buffer.sums;
+        int[] row = buffer.row;
+
+        for (int r = 0; r < n; r++) {
+            float[] xr = x[r];
+            int[] qr = xq[r];
+            for (int i = 0; i < in; i++) {
+                qr[i] = Math.max(-limit, Math.min(limit, Math.round(xr[i] / inputScale)));
+            }
+            Arrays.fill(sums[r], 0, out, 0);
+        }
+        for (int i = 0; i < in; i++) {
+            byte[] weightsOfInput = kernel[i];
+            for (int o = 0; o < out; o++) row[o] = weightsOfInput[o];
+            for (int r = 0; r < n; r++) {
+                int xi = xq[r][i];
+                if (xi == 0) continue;
+                int[] sr = sums[r];
+                for (int o = 0; o < out; o++) sr[o] += xi * row[o];
+            }
+        }
+        float[] kernelScales = weights[op];
+        float[] bias = biases[op];
+        for (int r = 0; r < n; r++) {
+            int[] sr = sums[r];
+            float[] yr = y[r];
+            for (int o = 0; o < out; o++) yr[o] = sr[o] * inputScale * kernelScales[o] + bias[o];
+        }
+    }
+
+    /* the activations of one thread: current, next and saved (see SAVE) per row, and a dense layer's quantized
+     * inputs, int32 sums and widened kernel row */
+    private class Buffers {
+        private float[][] x = new float[0][];
+        private float[][] y = new float[0][];
+        private float[][] saved = new float[0][];
+        private int[][] quantized = new int[0][];
+        private int[][] sums = new int[0][];
+        private final int[] row = new int[maxWidth];
+
+        private void ensureRows(int n) {
+            if (x.length >= n) return;
+            x = new float[n][maxWidth];
+            y = new float[n][maxWidth];
+            saved = new float[n][maxWidth];
+            quantized = new int[n][maxWidth];
+            sums = new int[n][maxWidth];
+        }
+    }
+}
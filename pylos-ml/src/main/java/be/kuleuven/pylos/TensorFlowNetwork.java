@@ -0,0 +1,56 @@
+package be.kuleuven.pylos;
+
+import org.tensorflow.SavedModelBundle;
+import org.tensorflow.Tensor;
+import org.tensorflow.ndarray.Shape;
+import org.tensorflow.ndarray.buffer.DataBuffers;
+import org.tensorflow.types.TFloat32;
+
+/**
+ * A Keras model exported as SavedModel (see train.py), evaluated by the TensorFlow runtime. Every batch is one
+ * session run.
+ * <p>
+ * Networks of the same model are equal, so they share their EvalCache.
+ */
+public class TensorFlowNetwork implements ValueNetwork {
+
+    private static final String INPUT = "serving_default_keras_tensor:0";
+    private static final String OUTPUT = "StatefulPartitionedCall_1:0";
+
+    private final SavedModelBundle model;
+    private final int inputSize;
+
+    public TensorFlowNetwork(SavedModelBundle model, int inputSize) {
+        this.model = model;
+        this.inputSize = inputSize;
+    }
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    @Override
+    public void evaluate(float[] inputs, int n, float[] outputs) {
+        if (n == 0) return;
+        /* the rows are wrapped, not copied, the tensor copies them to native memory once */
+        try (Tensor inputTensor = TFloat32.tensorOf(Shape.of(n, inputSize), DataBuffers.of(inputs, true, false).narrow((long) n * inputSize))) {
+            try (TFloat32 outputTensor = (TFloat32) model.session().runner()
+                    .feed(INPUT, inputTensor)
+                    .fetch(OUTPUT)
+                    .run().get(0)) {
+                for (int i = 0; i < n; i++) outputs[i] = outputTensor.getFloat(i, 0);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TensorFlowNetwork && ((TensorFlowNetwork) o).model == model;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(model);
+    }
+}
@@ -0,0 +1,21 @@
+package be.kuleuven.pylos;
+
+/**
+ * A network that maps a row of input features to one value, evaluated in batches.
+ * <p>
+ * Implementations are safe to share between threads: ML players of all battle threads can use one instance.
+ */
+public interface ValueNetwork {
+
+    int getInputSize();
+
+    /**
+     * evaluates the first 'n' rows of 'inputs', the value of row i is written to outputs[i]
+     *
+     * @param inputs  consecutive rows of getInputSize() features (row i starts at i * getInputSize()), there can be
+     *                more than 'n', see BoardFeatures
+     * @param n
+     * @param outputs
+     */
+    void evaluate(float[] inputs, int n, float[] outputs);
+}
@@ -0,0 +1,135 @@
+"""
+Exports a Keras value network to the weights file of MlpNetwork, the pure-Java evaluator in pylos-ml.
+
+Usage: python export_weights.py <model.keras> <weights.bin>
+
+Supported layers: Dense, BatchNormalization, Activation, Add (residual blocks) and Dropout (left out).
+A batch normalization directly after a linear Dense layer is folded into its kernel and bias.
+See MlpNetwork.java for the file format.
+"""
+import struct
+import sys
+
+import numpy as np
+
+MAGIC = 0x50594E4E
+VERSION = 1
+DENSE, AFFINE, SAVE, ADD = 0, 1, 2, 3
+ACTIVATIONS = {"linear": 0, "relu": 1, "tanh": 2, "sigmoid": 3}
+
+
+def activation_code(name):
+    if name not in ACTIVATIONS:
+        raise ValueError(f"Unsupported activation: {name}")
+    return ACTIVATIONS[name]
+
+
+def inbound_layers(layer):
+    """names of the layers whose outputs are the inputs of 'layer'"""
+    inputs = layer.input if isinstance(layer.input, (list, tuple)) else [layer.input]
+    names = []
+    for tensor in inputs:
+        history = tensor._keras_history
+        operation = history.operation if hasattr(history, "operation") else history[0]
+        names.append(operation.name)
+    return names
+
+
+def build_program(model):
+    """the layers of 'model' as a list of operations [type, activation, weights, biases]"""
+    program = []
+    end_of = {}      # layer name -> length of the program once the output of the layer is computed
+    previous = None
+
+    for layer in model.layers:
+        kind = type(layer).__name__
+        if kind != "InputLayer" and kind != "Add" and inbound_layers(layer) != [previous]:
+            raise ValueError(f"Layer {layer.name} is not on the main path of the network")
+
+        if kind == "InputLayer" or kind == "Dropout":
+            pass
+        elif kind == "Dense":
+            kernel, bias = layer.get_weights() if layer.use_bias else (layer.get_weights()[0], None)
+            if bias is None:
+                bias = np.zeros(kernel.shape[1])
+            program.append([DENSE, activation_code(layer.activation.__name__),
+                            kernel.astype(np.float64), bias.astype(np.float64)])
+        elif kind == "BatchNormalization":
+            weights = list(layer.get_weights())
+            gamma = weights.pop(0) if layer.scale else 1.0
+            beta = weights.pop(0) if layer.center else 0.0
+            mean, variance = weights
+            scale = gamma / np.sqrt(variance + layer.epsilon)
+            shift = beta - mean * scale
+            last = program[-1] if program else None
+            if last is not None and last[0] == DENSE and last[1] == 0 and end_of[previous] == len(program):
+                last[2] = last[2] * scale
+                last[3] = last[3] * scale + shift
+            else:
+                program.append([AFFINE, 0, scale.astype(np.float64), shift.astype(np.float64)])
+        elif kind == "Activation":
+            code = activation_code(layer.activation.__name__)
+            last = program[-1] if program else None
+            if last is not None and last[0] != SAVE and last[1] == 0 and end_of[previous] == len(program):
+                last[1] = code
+            else:
+                width = program_width(program, model)
+                program.append([AFFINE, code, np.ones(width), np.zeros(width)])
+        elif kind == "Add":
+            names = inbound_layers(layer)
+            if len(names) != 2 or previous not in names:
+                raise ValueError(f"Add layer {layer.name} is not a residual connection")
+            source = names[0] if names[1] == previous else names[1]
+            position = end_of[source]
+            program.insert(position, [SAVE, 0, None, None])
+            for name in end_of:
+                if end_of[name] > position:
+                    end_of[name] += 1
+            program.append([ADD, 0, None, None])
+        else:
+            raise ValueError(f"Unsupported layer {layer.name} ({kind})")
+
+        end_of[layer.name] = len(program)
+        previous = layer.name
+    return program
+
+
+def program_width(program, model):
+    for operation in reversed(program):
+        if operation[0] == DENSE:
+            return operation[2].shape[1]
+        if operation[0] == AFFINE:
+            return len(operation[2])
+    return model.input_shape[-1]
+
+
+def floats(values):
+    return np.asarray(values, dtype=">f4").ravel().tobytes()
+
+
+def export_weights(model, path):
+    program = build_program(model)
+    with open(path, "wb") as f:
+        f.write(struct.pack(">iiii", MAGIC, VERSION, model.input_shape[-1], len(program)))
+        for kind, activation, weights, biases in program:
+            f.write(struct.pack(">i", kind))
+            if kind == DENSE:
+                f.write(struct.pack(">iii", weights.shape[0], weights.shape[1], activation))
+                f.write(floats(weights))
+                f.write(floats(biases))
+            elif kind == AFFINE:
+                f.write(struct.pack(">ii", len(weights), activation))
+                f.write(floats(weights))
+                f.write(floats(biases))
+            elif kind == ADD:
+                f.write(struct.pack(">i", activation))
+    print(f"Exported {len(program)} operations to {path}")
+
+
+if __name__ == "__main__":
+    import tensorflow as tf
+
+    if len(sys.argv) != 3:
+        print("Usage: python export_weights.py <model.keras> <weights.bin>")
+        sys.exit(1)
+    export_weights(tf.keras.models.load_model(sys.argv[1]), sys.argv[2])
@@ -4,6 +4,7 @@ import json
 import numpy as np
 import datetime
 import os
+from export_weights import export_weights
 
 gpus = tf.config.list_physical_devices('GPU')
 if gpus:
@@ -114,6 +115,7 @@ def main():
     timestamp = datetime.datetime.now().strftime("%Y%m%d-%H%M")
     model.export(MODEL_EXPORT_PATH + timestamp)
     model.export(MODEL_EXPORT_PATH + "latest")
+    export_weights(model, MODEL_EXPORT_PATH + "latest.bin")  # for MlpNetwork, no TensorFlow needed in Java
 
     # Print training summary
     print(f"\n=== TRAINING COMPLETE ===")
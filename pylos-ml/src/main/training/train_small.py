@@ -4,6 +4,7 @@ import json
 import numpy as np
 import datetime
 import os
+from export_weights import export_weights
 
 DATASET_PATH = "resources/games/all_battles.json"
 MODEL_EXPORT_PATH = "resources/models_/"
@@ -61,6 +62,7 @@ def main():
     timestamp = datetime.datetime.now().strftime("%Y%m%d-%H%M")
     model.export(MODEL_EXPORT_PATH + timestamp)
     model.export(MODEL_EXPORT_PATH + "latest")
+    export_weights(model, MODEL_EXPORT_PATH + "latest.bin")  # for MlpNetwork, no TensorFlow needed in Java
 
     print(f"\nModel saved to {MODEL_EXPORT_PATH}")
     print(f"Final validation loss: {history.history['val_loss'][-1]:.4f}")
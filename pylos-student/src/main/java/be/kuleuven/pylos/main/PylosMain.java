@@ -12,6 +12,7 @@ import be.kuleuven.pylos.player.PylosPlayerObserver;
 import be.kuleuven.pylos.player.PylosPlayerType;
 import be.kuleuven.pylos.player.codes.PlayerFactoryCodes;
 import be.kuleuven.pylos.player.codes.PylosPlayerBestFit;
+import be.kuleuven.pylos.player.codes.PylosPlayerMCTS;
 import be.kuleuven.pylos.player.codes.PylosPlayerMiniMax;
 import be.kuleuven.pylos.player.student.StudentPlayer;
 import be.kuleuven.pylos.player.student.StudentPlayer2;
@@ -33,6 +34,7 @@ public class PylosMain {
         //startBattle();
         startBattleMultithreaded();
         //startRoundRobinTournament();
+        //startMCTSScaling();
     }
 
     public static void startSingleGame() {
@@ -48,6 +50,22 @@ public class PylosMain {
         pylosGame.play();
     }
 
+    /**
+     * plays a game of the parallel MCTS player against Best Fit per thread count, and reports its playouts per second
+     */
+    public static void startMCTSScaling() {
+        int nPlayouts = 100000;
+        for (int nThreads = 1; nThreads <= Runtime.getRuntime().availableProcessors(); nThreads *= 2) {
+            PylosPlayerMCTS playerLight = new PylosPlayerMCTS(nPlayouts);
+            playerLight.setThreads(nThreads);
+            PylosPlayer playerDark = new PylosPlayerBestFit();
+
+            PylosGame pylosGame = new PylosGame(new PylosBoard(), playerLight, playerDark, new Random(0), PylosGameObserver.NONE, PylosPlayerObserver.NONE);
+            pylosGame.play();
+            System.out.printf("%2d threads: %.0f playouts/s%n", nThreads, playerLight.getPlayoutsPerSecond());
+        }
+    }
+
     public static void startBattle() {
         int nRuns = 500;
         PylosPlayerType p1 = new PylosPlayerType("Student") {
@@ -196,6 +214,7 @@ public class PylosMain {
                                     String failMsg = String.format("[%d/%d] Params(H:%d, S:%d, A:%d, T:%d, R:%d) -> FAILED: Time %.2f sec/game. Skipping.",
                                             combinationCount, totalCombinations, h, s, a, t, r, avgTimePerGameMs / 1000.0);
                                     log(writer, failMsg); // Gebruik log-helper
+                                    if (result.p1Stats != null) log(writer, "    " + result.p1Stats);
                                     continue;
                                 }
 
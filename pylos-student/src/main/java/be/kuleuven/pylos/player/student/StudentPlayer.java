@@ -1,7 +1,9 @@
 package be.kuleuven.pylos.player.student;
 
+import be.kuleuven.pylos.book.OpeningBook;
 import be.kuleuven.pylos.game.*;
 import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.search.PylosMove;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.*;
 
@@ -12,6 +14,7 @@ public class StudentPlayer extends PylosPlayer {
     private PylosSphere bestSphere;
     private PylosLocation bestLocation;
     private int branchDepth;
+    private OpeningBook openingBook;
 
     private final Map<Long, Double> evaluationCache = new HashMap<>();
     //The cache is being cleared at the start of each doMove(), doRemove(), or doRemoveOrPass() call.
@@ -30,6 +33,16 @@ public class StudentPlayer extends PylosPlayer {
     private static final double SQUARE_POTENTIAL_WEIGHT = 20.0;
     private static final double MOBILITY_WEIGHT = 10.0;
 
+    /**
+     * plays book moves while the position is in 'openingBook', before the hardcoded opening, null for the hardcoded
+     * opening only
+     *
+     * @param openingBook
+     */
+    public void setOpeningBook(OpeningBook openingBook) {
+        this.openingBook = openingBook;
+    }
+
     private void init(PylosGameState state, PylosBoard board) {
         this.simulator = new PylosGameSimulator(state, PLAYER_COLOR, board);
         this.board = board;
@@ -46,6 +59,13 @@ public class StudentPlayer extends PylosPlayer {
         PylosSphere myReserveSphere = board.getReserve(this);
         PylosSphere[] mySpheres = board.getSpheres(this);
         PylosLocation[] locations = board.getLocations();
+        if (openingBook != null) {
+            int move = openingBook.selectMove(board, PLAYER_COLOR, getRandom());
+            if (move != PylosMove.NONE) {
+                PylosMove.execute(game, board, PLAYER_COLOR, move);
+                return;
+            }
+        }
         if (isMyFirstTurn()) {
             if (tryHardcodedOpening(game)) return; // succesvol geplaatst, we zijn klaar
             // als alle middenvakken bezet zijn → ga verder met normale zoeklogica
@@ -1,7 +1,10 @@
 package be.kuleuven.pylos.player.student;
 
+import be.kuleuven.pylos.book.OpeningBook;
 import be.kuleuven.pylos.game.*;
 import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.search.PylosMove;
+import be.kuleuven.pylos.search.SearchStats;
 
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
@@ -14,6 +17,8 @@ public class StudentPlayer2 extends PylosPlayer {
     private PylosLocation bestLocation;
     private int branchDepth;
     private int heightScore, squareScore, availableScore, trappedScore, reserveScore;
+    private final SearchStats stats = new SearchStats();    // the evaluation cache is counted as TT
+    private OpeningBook openingBook;
 
     public StudentPlayer2(int heightScore, int squareScore, int availableScore, int trappedScore, int reserveScore){
         this.heightScore = heightScore;
@@ -34,16 +39,34 @@ public class StudentPlayer2 extends PylosPlayer {
     private static final double INITIAL_OTHER = 9999;
     private static final int MAX_BRANCH_DEPTH = 6;
 
+    /**
+     * plays book moves while the position is in 'openingBook', before the hardcoded opening, null for the hardcoded
+     * opening only
+     *
+     * @param openingBook
+     */
+    public void setOpeningBook(OpeningBook openingBook) {
+        this.openingBook = openingBook;
+    }
+
     @Override
     public void doMove(PylosGameIF game, PylosBoard board) {
         init(game.getState(), board);
         PylosSphere myReserveSphere = board.getReserve(this);
         PylosSphere[] mySpheres = board.getSpheres(this);
         PylosLocation[] locations = board.getLocations();
+        if (openingBook != null) {
+            int move = openingBook.selectMove(board, PLAYER_COLOR, getRandom());
+            if (move != PylosMove.NONE) {
+                PylosMove.execute(game, board, PLAYER_COLOR, move);
+                return;
+            }
+        }
         if (isMyFirstTurn()) {
             if (tryHardcodedOpening(game)) return; // succesvol geplaatst, we zijn klaar
             // als alle middenvakken bezet zijn → ga verder met normale zoeklogica
         }
+        stats.startSearch();                                // an opening move is no search
         if (myReserveSphere != null) {
             for (PylosSphere sphere : mySpheres) {
                 if (!sphere.isReserve()) {
@@ -70,6 +93,7 @@ public class StudentPlayer2 extends PylosPlayer {
                 }
             }
         }
+        endSearch();
         game.moveSphere(bestSphere, bestLocation);
     }
     private boolean isMyFirstTurn() {
@@ -106,17 +130,20 @@ public class StudentPlayer2 extends PylosPlayer {
     @Override
     public void doRemove(PylosGameIF game, PylosBoard board) {
         init(game.getState(), board);
+        stats.startSearch();
         for (PylosSphere sphere : board.getSpheres(PLAYER_COLOR)) {
             if (sphere.canRemove()) {
                 tryRemove(sphere, PylosGameState.REMOVE_FIRST);
             }
         }
+        endSearch();
         game.removeSphere(bestSphere);
     }
 
     @Override
     public void doRemoveOrPass(PylosGameIF game, PylosBoard board) {
         init(game.getState(), board);
+        stats.startSearch();
         for (PylosSphere sphere : board.getSpheres(PLAYER_COLOR)) {
             if (sphere.canRemove()) {
                 tryRemove(sphere, PylosGameState.REMOVE_SECOND);
@@ -126,6 +153,7 @@ public class StudentPlayer2 extends PylosPlayer {
         double minimax = branchStep(bestMinimax, INITIAL_OTHER);
         eval(minimax, null, null);
         simulator.undoPass(PylosGameState.REMOVE_SECOND, PLAYER_COLOR);
+        endSearch();
         if (bestSphere != null) {
             game.removeSphere(bestSphere);
         } else {
@@ -143,6 +171,16 @@ public class StudentPlayer2 extends PylosPlayer {
         this.evaluationCache.clear();
     }
 
+    private void endSearch() {
+        stats.endIteration(MAX_BRANCH_DEPTH);
+        stats.endSearch();
+    }
+
+    @Override
+    public SearchStats getSearchStats() {
+        return stats;
+    }
+
     private void eval(double minimax, PylosSphere sphere, PylosLocation location) {
         if (minimax > bestMinimax) {
             bestMinimax = minimax;
@@ -164,6 +202,7 @@ public class StudentPlayer2 extends PylosPlayer {
     }
 
     private double branchStep(double alpha, double beta) {
+        stats.node(branchDepth + 1);
         if (branchDepth == MAX_BRANCH_DEPTH || simulator.getState() == PylosGameState.COMPLETED || simulator.getState() == PylosGameState.DRAW) {
             if (simulator.getState() == PylosGameState.COMPLETED) {
                 double result = (simulator.getWinner() == PLAYER_COLOR ? WIN_THIS : WIN_OTHER);
@@ -274,10 +313,12 @@ public class StudentPlayer2 extends PylosPlayer {
     private double evaluatePosition() {
         long signature = computeBoardSignature();
         Double cachedScore = evaluationCache.get(signature);
+        stats.ttProbe(cachedScore != null);
         if (cachedScore != null) {
             return cachedScore;
         }
 
+        stats.leafEval();
         int myReserves = board.getReservesSize(PLAYER_COLOR);
         int oppReserves = board.getReservesSize(PLAYER_COLOR.other());
         double score = (myReserves - oppReserves) * reserveScore;